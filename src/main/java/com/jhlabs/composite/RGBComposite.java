@@ -16,11 +16,19 @@ limitations under the License.
 
 package com.jhlabs.composite;
 
+import pixelitor.ThreadPool;
+
 import java.awt.Composite;
 import java.awt.CompositeContext;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public abstract class RGBComposite implements Composite {
     protected float extraAlpha;
@@ -60,6 +68,9 @@ public abstract class RGBComposite implements Composite {
     }
 
     public abstract static class RGBCompositeContext implements CompositeContext {
+        // smaller rasters are composed on the calling thread
+        private static final int MIN_PIXELS_FOR_PARALLEL = 256 * 256;
+
         private final float alpha;
 //        private final ColorModel srcColorModel;
 //        private final ColorModel dstColorModel;
@@ -88,27 +99,140 @@ public abstract class RGBComposite implements Composite {
 
         @Override
         public void compose(Raster src, Raster dstIn, WritableRaster dstOut) {
-            float alpha = this.alpha;
-
-            int[] srcPix = null;
-            int[] dstPix = null;
-
             int x = dstOut.getMinX();
             int w = dstOut.getWidth();
             int y0 = dstOut.getMinY();
             int y1 = y0 + dstOut.getHeight();
 
-            for (int y = y0; y < y1; y++) {
-                srcPix = src.getPixels(x, y, w, 1, srcPix);
-                dstPix = dstIn.getPixels(x, y, w, 1, dstPix);
-//                int srclength = srcPix.length;
-//                int dstlength = dstPix.length;
-//                if(srclength > dstlength) {
-//                    continue;
-//                }
-                // System.out.println("RGBComposite$RGBCompositeContext.compose dstlength = " + dstlength + ", srclength = " + srclength);
+            boolean packed = isPackedARGB(src) && isPackedARGB(dstIn) && isPackedARGB(dstOut);
+            int numThreads = ThreadPool.getNumThreads();
+            if ((long) w * (y1 - y0) < MIN_PIXELS_FOR_PARALLEL
+                    || numThreads < 2 || ThreadPool.isPoolThread()) {
+                composeRows(src, dstIn, dstOut, x, w, y0, y1, packed);
+                return;
+            }
+
+            // the rows are independent, they can be composed in parallel
+            int numTasks = numThreads * 2;
+            int rowsPerTask = (y1 - y0 + numTasks - 1) / numTasks;
+            List<Future<?>> futures = new ArrayList<>(numTasks);
+            for (int from = y0; from < y1; from += rowsPerTask) {
+                int taskFrom = from;
+                int taskTo = Math.min(y1, from + rowsPerTask);
+                futures.add(ThreadPool.submit(() ->
+                        composeRows(src, dstIn, dstOut, x, w, taskFrom, taskTo, packed)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+
+        private void composeRows(Raster src, Raster dstIn, WritableRaster dstOut,
+                                 int x, int w, int fromY, int toY, boolean packed) {
+            float alpha = this.alpha;
+
+            // reused for all the rows. For the other rasters getPixels
+            // allocates them with the length matching the number of bands
+            int[] srcPix = packed ? new int[w * 4] : null;
+            int[] dstPix = packed ? new int[w * 4] : null;
+
+            for (int y = fromY; y < toY; y++) {
+                if (packed) {
+                    unpackRow(src, x, y, w, srcPix);
+                    unpackRow(dstIn, x, y, w, dstPix);
+                } else {
+                    srcPix = src.getPixels(x, y, w, 1, srcPix);
+                    dstPix = dstIn.getPixels(x, y, w, 1, dstPix);
+                }
                 composeRGB(srcPix, dstPix, alpha);
-                dstOut.setPixels(x, y, w, 1, dstPix);
+                if (packed) {
+                    packRow(dstPix, dstOut, x, y, w);
+                } else {
+                    dstOut.setPixels(x, y, w, 1, dstPix);
+                }
+            }
+        }
+
+        /**
+         * Returns true if the given raster stores each pixel in a single
+         * int with four 8-bit samples, so that its samples can be
+         * read directly from its data array instead of Raster.getPixels.
+         */
+        private static boolean isPackedARGB(Raster raster) {
+            if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+                    || !(raster.getDataBuffer() instanceof DataBufferInt)) {
+                return false;
+            }
+            var sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            int[] masks = sampleModel.getBitMasks();
+            if (masks.length != 4) {
+                return false;
+            }
+            int[] offsets = sampleModel.getBitOffsets();
+            for (int band = 0; band < 4; band++) {
+                if (masks[band] != 0xFF << offsets[band]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Same as Raster.getPixels for a single row of a packed raster.
+         */
+        private static void unpackRow(Raster raster, int x, int y, int w, int[] pix) {
+            var sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            int[] offsets = sampleModel.getBitOffsets();
+            int o0 = offsets[0];
+            int o1 = offsets[1];
+            int o2 = offsets[2];
+            int o3 = offsets[3];
+
+            var dataBuffer = (DataBufferInt) raster.getDataBuffer();
+            int[] data = dataBuffer.getData();
+            int start = dataBuffer.getOffset() + sampleModel.getOffset(
+                    x - raster.getSampleModelTranslateX(),
+                    y - raster.getSampleModelTranslateY());
+
+            for (int i = 0, j = 0; i < w; i++, j += 4) {
+                int pixel = data[start + i];
+                pix[j] = (pixel >>> o0) & 0xFF;
+                pix[j + 1] = (pixel >>> o1) & 0xFF;
+                pix[j + 2] = (pixel >>> o2) & 0xFF;
+                pix[j + 3] = (pixel >>> o3) & 0xFF;
+            }
+        }
+
+        /**
+         * Same as WritableRaster.setPixels for a single row of a packed raster.
+         */
+        private static void packRow(int[] pix, WritableRaster raster, int x, int y, int w) {
+            var sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            int[] offsets = sampleModel.getBitOffsets();
+            int o0 = offsets[0];
+            int o1 = offsets[1];
+            int o2 = offsets[2];
+            int o3 = offsets[3];
+
+            var dataBuffer = (DataBufferInt) raster.getDataBuffer();
+            int[] data = dataBuffer.getData();
+            int start = dataBuffer.getOffset() + sampleModel.getOffset(
+                    x - raster.getSampleModelTranslateX(),
+                    y - raster.getSampleModelTranslateY());
+
+            for (int i = 0, j = 0; i < w; i++, j += 4) {
+                // the samples are masked like in setPixels
+                data[start + i] = ((pix[j] << o0) & (0xFF << o0))
+                        | ((pix[j + 1] << o1) & (0xFF << o1))
+                        | ((pix[j + 2] << o2) & (0xFF << o2))
+                        | ((pix[j + 3] << o3) & (0xFF << o3));
             }
         }
     }
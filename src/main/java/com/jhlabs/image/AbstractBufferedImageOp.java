@@ -16,6 +16,7 @@ limitations under the License.
 
 package com.jhlabs.image;
 
+import pixelitor.filters.PreviewRegion;
 import pixelitor.utils.ProgressTracker;
 import pixelitor.utils.StatusBarProgressTracker;
 
@@ -78,6 +79,18 @@ public abstract class AbstractBufferedImageOp implements BufferedImageOp, Clonea
         }
     }
 
+    /**
+     * Returns the region of the given destination image that should be
+     * calculated for a quick preview, or null if the whole image should
+     * be calculated, see {@link PreviewRegion}.
+     */
+    protected Rectangle claimPreviewRegion(BufferedImage dst) {
+        if (usedAsHelper) {
+            return null;
+        }
+        return PreviewRegion.claim(dst);
+    }
+
     //  ******* End of Pixelitor-specific stuff *******
 
     @Override
@@ -16,6 +16,7 @@ limitations under the License.
 
 package com.jhlabs.image;
 
+import pixelitor.ThreadPool;
 import pixelitor.utils.ProgressTracker;
 
 import java.awt.image.BufferedImage;
@@ -131,7 +132,6 @@ public class BoxBlurFilter extends AbstractBufferedImageOp {
      * @param pt
      */
     public static void blur(int[] in, int[] out, int width, int height, float radius, ProgressTracker pt) {
-        int widthMinus1 = width - 1;
         int r = (int) radius;
         int tableSize = 2 * r + 1;
 
@@ -145,9 +145,17 @@ public class BoxBlurFilter extends AbstractBufferedImageOp {
             divide[i] = i / tableSize;
         }
 
-        int inIndex = 0;
+        // the rows are blurred independently of each other
+        ThreadPool.parallelForBands(0, height, 1, (minY, maxY) ->
+                blurRows(in, out, width, height, r, divide, minY, maxY), pt);
+    }
 
-        for (int y = 0; y < height; y++) {
+    private static void blurRows(int[] in, int[] out, int width, int height,
+                                 int r, int[] divide, int minY, int maxY) {
+        int widthMinus1 = width - 1;
+        int inIndex = minY * width;
+
+        for (int y = minY; y < maxY; y++) {
             int outIndex = y;
             int ta = 0, tr = 0, tg = 0, tb = 0;
 
@@ -180,8 +188,6 @@ public class BoxBlurFilter extends AbstractBufferedImageOp {
                 outIndex += height;
             }
             inIndex += width;
-
-            pt.unitDone();
         }
     }
 
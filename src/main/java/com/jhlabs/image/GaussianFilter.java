@@ -21,7 +21,7 @@ import pixelitor.utils.ProgressTracker;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.Kernel;
-import java.util.concurrent.Future;
+import java.util.Arrays;
 
 /**
  * A filter which applies Gaussian blur to an image. This is a subclass of ConvolveFilter
@@ -30,6 +30,11 @@ import java.util.concurrent.Future;
  * @author Jerry Huxtable
  */
 public class GaussianFilter extends ConvolveFilter {
+    // from this radius the kernel is approximated by a cascade of
+    // extended box filters, which takes the same time for any radius
+    private static final float MIN_BOX_CASCADE_RADIUS = 8;
+    private static final int NUM_BOX_PASSES = 4;
+
     /**
      * The blur radius.
      */
@@ -94,8 +99,8 @@ public class GaussianFilter extends ConvolveFilter {
         getRGB(src, 0, 0, width, height, inPixels);
 
         if (radius > 0) {
-            convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, alpha && premultiplyAlpha, false, CLAMP_EDGES, pt);
-            convolveAndTranspose(kernel, outPixels, inPixels, height, width, alpha, false, alpha && premultiplyAlpha, CLAMP_EDGES, pt);
+            blurAndTranspose(inPixels, outPixels, width, height, alpha && premultiplyAlpha, false, pt);
+            blurAndTranspose(outPixels, inPixels, height, width, false, alpha && premultiplyAlpha, pt);
         }
 
 //        dst.setRGB(0, 0, width, height, inPixels, 0, width);
@@ -106,6 +111,149 @@ public class GaussianFilter extends ConvolveFilter {
         return dst;
     }
 
+    /**
+     * Blur and transpose a block of ARGB pixels with the current radius,
+     * either with the kernel or with the box cascade for big radii.
+     */
+    protected void blurAndTranspose(int[] inPixels, int[] outPixels, int width, int height,
+                                    boolean premultiply, boolean unpremultiply, ProgressTracker pt) {
+        if (radius >= MIN_BOX_CASCADE_RADIUS) {
+            boxCascadeAndTranspose(radius / 3, inPixels, outPixels, width, height, alpha, premultiply, unpremultiply, pt);
+        } else {
+            convolveAndTranspose(kernel, inPixels, outPixels, width, height, alpha, premultiply, unpremultiply, CLAMP_EDGES, pt);
+        }
+    }
+
+    /**
+     * Blur and transpose a block of ARGB pixels with a Gaussian of the given
+     * standard deviation, approximated by repeated extended box filters
+     * (Gwosdek et al: Theoretical Foundations of Gaussian Convolution
+     * by Extended Box Filtering). An extended box filter has fractional
+     * weights at its ends, so its variance can be set exactly. The rows
+     * are calculated in float precision. The edges are clamped like in
+     * the kernel version: the lines are padded with their edge pixels,
+     * so that the passes don't repeat the already blurred edges.
+     *
+     * @param sigma     the standard deviation of the Gaussian
+     * @param inPixels  the input pixels
+     * @param outPixels the output pixels
+     * @param width     the width of the pixel array
+     * @param height    the height of the pixel array
+     * @param alpha     whether to blur the alpha channel
+     */
+    public static void boxCascadeAndTranspose(float sigma, int[] inPixels, int[] outPixels, int width, int height,
+                                              boolean alpha, boolean premultiply, boolean unpremultiply, ProgressTracker pt) {
+        // the variance of every pass
+        double s = (double) sigma * sigma / NUM_BOX_PASSES;
+        int l = (int) Math.floor((Math.sqrt(12 * s + 1) - 1) / 2);
+        double a = (2 * l + 1) * (l * (l + 1) - 3 * s) / (6 * (s - (l + 1) * (l + 1)));
+        double norm = 2 * l + 1 + 2 * a;
+        // the weight of the extended sum and the additional weight of the inner pixels
+        float c1 = (float) (a / norm);
+        float c2 = (float) ((1 - a) / norm);
+
+        // more than the support of all the passes together
+        int padding = NUM_BOX_PASSES * (l + 1) + 1;
+        int paddedWidth = width + 2 * padding;
+
+        ThreadPool.parallelForBands(0, height, 1, (minY, maxY) -> {
+            float[][] channels = new float[4][paddedWidth];
+            float[] tmp = new float[paddedWidth];
+            for (int y = minY; y < maxY; y++) {
+                unpackLine(inPixels, y * width, width, padding, premultiply, channels);
+                for (int c = 0; c < 4; c++) {
+                    float[] line = channels[c];
+                    for (int pass = 0; pass < NUM_BOX_PASSES; pass++) {
+                        extendedBoxLine(line, tmp, paddedWidth, l, c1, c2);
+                        float[] swap = line;
+                        line = tmp;
+                        tmp = swap;
+                    }
+                    if (line != channels[c]) {
+                        tmp = channels[c];
+                        channels[c] = line;
+                    }
+                }
+                packTransposedLine(channels, padding, outPixels, y, width, height, alpha, unpremultiply);
+            }
+        }, pt);
+    }
+
+    private static void unpackLine(int[] inPixels, int offset, int width, int padding,
+                                   boolean premultiply, float[][] channels) {
+        float[] as = channels[0];
+        float[] rs = channels[1];
+        float[] gs = channels[2];
+        float[] bs = channels[3];
+        for (int x = 0; x < width; x++) {
+            int rgb = inPixels[offset + x];
+            int pa = (rgb >> 24) & 0xff;
+            int pr = (rgb >> 16) & 0xff;
+            int pg = (rgb >> 8) & 0xff;
+            int pb = rgb & 0xff;
+            if (premultiply) {
+                float a255 = pa * (1.0f / 255.0f);
+                pr = (int) (pr * a255);
+                pg = (int) (pg * a255);
+                pb = (int) (pb * a255);
+            }
+            as[padding + x] = pa;
+            rs[padding + x] = pr;
+            gs[padding + x] = pg;
+            bs[padding + x] = pb;
+        }
+        for (float[] channel : channels) {
+            Arrays.fill(channel, 0, padding, channel[padding]);
+            Arrays.fill(channel, padding + width, channel.length, channel[padding + width - 1]);
+        }
+    }
+
+    /**
+     * Applies an extended box filter with the inner radius l on a line.
+     */
+    private static void extendedBoxLine(float[] in, float[] out, int width, int l, float c1, float c2) {
+        int last = width - 1;
+        // the sum of the inner 2l+1 pixels
+        double sum = 0;
+        for (int i = -l; i <= l; i++) {
+            sum += in[ImageMath.clamp(i, 0, last)];
+        }
+        for (int x = 0; x < width; x++) {
+            float ends = in[ImageMath.clamp(x - l - 1, 0, last)] + in[ImageMath.clamp(x + l + 1, 0, last)];
+            out[x] = (float) ((c1 + c2) * sum + c1 * ends);
+            sum += in[ImageMath.clamp(x + l + 1, 0, last)] - in[ImageMath.clamp(x - l, 0, last)];
+        }
+    }
+
+    private static void packTransposedLine(float[][] channels, int padding, int[] outPixels,
+                                           int y, int width, int height,
+                                           boolean alpha, boolean unpremultiply) {
+        float[] as = channels[0];
+        float[] rs = channels[1];
+        float[] gs = channels[2];
+        float[] bs = channels[3];
+        int index = y;
+        for (int x = 0; x < width; x++) {
+            float a = as[padding + x];
+            float r = rs[padding + x];
+            float g = gs[padding + x];
+            float b = bs[padding + x];
+            if (unpremultiply && a != 0 && a != 255) {
+                float f = 255.0f / a;
+                r *= f;
+                g *= f;
+                b *= f;
+            }
+            int ia = alpha ? PixelUtils.clamp((int) (a + 0.5)) : 0xff;
+
+            int ir = PixelUtils.clamp((int) (r + 0.5));
+            int ig = PixelUtils.clamp((int) (g + 0.5));
+            int ib = PixelUtils.clamp((int) (b + 0.5));
+            outPixels[index] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
+            index += height;
+        }
+    }
+
     /**
      * Blur and transpose a block of ARGB pixels.
      *
@@ -123,14 +271,8 @@ public class GaussianFilter extends ConvolveFilter {
         int cols = kernel.getWidth();
         int cols2 = cols / 2;
 
-        Future<?>[] resultLines = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable lineTask = () -> convolveAndTransposeLine(inPixels, outPixels, width, height, alpha, premultiply, unpremultiply, edgeAction, matrix, cols2, finalY);
-            resultLines[y] = ThreadPool.submit(lineTask);
-        }
-
-        ThreadPool.waitFor(resultLines, pt);
+        ThreadPool.parallelFor(0, height, y -> convolveAndTransposeLine(inPixels, outPixels,
+                width, height, alpha, premultiply, unpremultiply, edgeAction, matrix, cols2, y), pt);
     }
 
     private static void convolveAndTransposeLine(int[] inPixels, int[] outPixels, int width, int height, boolean alpha, boolean premultiply, boolean unpremultiply, int edgeAction, float[] matrix, int cols2, int y) {
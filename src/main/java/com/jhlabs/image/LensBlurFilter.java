@@ -18,6 +18,7 @@ package com.jhlabs.image;
 
 import com.jhlabs.math.FFT;
 import net.jafama.FastMath;
+import pixelitor.ThreadPool;
 
 import java.awt.image.BufferedImage;
 
@@ -33,6 +34,9 @@ public class LensBlurFilter extends AbstractBufferedImageOp {
     private static final float angle = 0;
     private int sides = 5;
 
+    // the last calculated kernel spectrum
+    private static volatile KernelSpectrum lastKernel;
+
     public LensBlurFilter(String filterName) {
         super(filterName);
     }
@@ -146,20 +150,60 @@ public class LensBlurFilter extends AbstractBufferedImageOp {
             cols *= 2;
             log2cols++;
         }
+        // the tiles are enlarged to the FFT sizes
         int w = cols;
         int h = rows;
 
-        tileWidth = w;
-        tileHeight = h;//FIXME-tileWidth, w, and cols are always all the same
-
+        // the FFT has no mutable state, it can be shared by the threads
         FFT fft = new FFT(Math.max(log2rows, log2cols));
+        float[][] mask = getKernelSpectrum(fft, w, h);
+
+        int tileStepY = h - 2 * iradius;
+        int tileStepX = w - 2 * iradius;
+        int numTileRows = 0;
+        // count the tile rows the same was as the code does...
+        for (int tileY = -iradius; tileY < height; tileY += tileStepY) {
+            numTileRows++;
+        }
+        pt = createProgressTracker(numTileRows);
+
+        // the tiles are independent of each other, and
+        // the tile rows are calculated in parallel
+        BufferedImage finalDst = dst;
+        ThreadPool.parallelForBands(0, numTileRows, 1, (minRow, maxRow) -> {
+            TileBuffers buffers = new TileBuffers(w, h);
+            for (int tileRow = minRow; tileRow < maxRow; tileRow++) {
+                int tileY = -iradius + tileRow * tileStepY;
+                for (int tileX = -iradius; tileX < width; tileX += tileStepX) {
+                    filterTile(src, finalDst, fft, mask, buffers, tileX, tileY,
+                            w, h, iradius);
+                }
+            }
+        }, pt);
+        finishProgressTracker();
 
-        int[] rgb = new int[w * h];
-        float[][] mask = new float[2][w * h];
-        float[][] gb = new float[2][w * h];
-        float[][] ar = new float[2][w * h];
+        return dst;
+    }
+
+    /**
+     * Returns the Fourier transform of the aperture kernel for the given
+     * tile size. It's cached, because it doesn't depend on the image
+     * or the bloom settings, and it's often the same between previews.
+     */
+    private float[][] getKernelSpectrum(FFT fft, int w, int h) {
+        KernelSpectrum cached = lastKernel;
+        if (cached != null && cached.matches(radius, sides, angle, w, h)) {
+            return cached.spectrum;
+        }
+
+        float[][] mask = createKernel(w, h);
+        fft.transform2D(mask[0], mask[1], w, h, true);
+        lastKernel = new KernelSpectrum(radius, sides, angle, w, h, mask);
+        return mask;
+    }
 
-        // Create the kernel
+    private float[][] createKernel(int w, int h) {
+        float[][] mask = new float[2][w * h];
         double polyAngle = Math.PI / sides;
         double polyScale = 1.0f / FastMath.cos(polyAngle);
         double r2 = radius * radius;
@@ -199,189 +243,226 @@ public class LensBlurFilter extends AbstractBufferedImageOp {
                 i++;
             }
         }
+        return mask;
+    }
 
-        fft.transform2D(mask[0], mask[1], w, h, true);
-
-        int workUnits = 0;
-        // count the work units the same was as the code does...
-        for (int tileY = -iradius; tileY < height; tileY += tileHeight - 2 * iradius) {
-            workUnits++;
+    private void filterTile(BufferedImage src, BufferedImage dst, FFT fft, float[][] mask,
+                            TileBuffers buffers, int tileX, int tileY,
+                            int tileWidth, int tileHeight, int iradius) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int w = tileWidth;
+        int h = tileHeight;
+        int cols = w;
+        int rows = h;
+        int[] rgb = buffers.rgb;
+        float[][] gb = buffers.gb;
+        float[][] ar = buffers.ar;
+
+        // Clip the tile to the image bounds
+        int tx = tileX, ty = tileY, tw = tileWidth, th = tileHeight;
+        int fx = 0, fy = 0;
+        if (tx < 0) {
+            tw += tx;
+            fx -= tx;
+            tx = 0;
         }
-        pt = createProgressTracker(workUnits);
-
-        for (int tileY = -iradius; tileY < height; tileY += tileHeight - 2 * iradius) {
-            for (int tileX = -iradius; tileX < width; tileX += tileWidth - 2 * iradius) {
-//                System.out.println("Tile: "+tileX+" "+tileY+" "+tileWidth+" "+tileHeight);
-
-                // Clip the tile to the image bounds
-                int tx = tileX, ty = tileY, tw = tileWidth, th = tileHeight;
-                int fx = 0, fy = 0;
-                if (tx < 0) {
-                    tw += tx;
-                    fx -= tx;
-                    tx = 0;
-                }
-                if (ty < 0) {
-                    th += ty;
-                    fy -= ty;
-                    ty = 0;
-                }
-                if (tx + tw > width) {
-                    tw = width - tx;
+        if (ty < 0) {
+            th += ty;
+            fy -= ty;
+            ty = 0;
+        }
+        if (tx + tw > width) {
+            tw = width - tx;
+        }
+        if (ty + th > height) {
+            th = height - ty;
+        }
+        src.getRGB(tx, ty, tw, th, rgb, fy * w + fx, w);
+        // getRGB(src, tx, ty, tw, th, rgb);
+
+        // Create a float array from the pixels. Any pixels off the edge of the source image get duplicated from the edge.
+        int i = 0;
+        for (int y = 0; y < h; y++) {
+            int imageY = y + tileY;
+            int j;
+            if (imageY < 0) {
+                j = fy;
+            } else if (imageY >= height) {
+                j = fy + th - 1;
+            } else {
+                j = y;
+            }
+            j *= w;
+            for (int x = 0; x < w; x++) {
+                int imageX = x + tileX;
+                int k;
+                if (imageX < 0) {
+                    k = fx;
+                } else if (imageX >= width) {
+                    k = fx + tw - 1;
+                } else {
+                    k = x;
                 }
-                if (ty + th > height) {
-                    th = height - ty;
+                k += j;
+
+                ar[0][i] = ((rgb[k] >> 24) & 0xff);
+                float r = ((rgb[k] >> 16) & 0xff);
+                float g = ((rgb[k] >> 8) & 0xff);
+                float b = (rgb[k] & 0xff);
+
+                // Bloom...
+                if (r > bloomThreshold) {
+                    r *= bloom;
                 }
-                src.getRGB(tx, ty, tw, th, rgb, fy * w + fx, w);
-                // getRGB(src, tx, ty, tw, th, rgb);
-
-                // Create a float array from the pixels. Any pixels off the edge of the source image get duplicated from the edge.
-                i = 0;
-                for (int y = 0; y < h; y++) {
-                    int imageY = y + tileY;
-                    int j;
-                    if (imageY < 0) {
-                        j = fy;
-                    } else if (imageY > height) {
-                        j = fy + th - 1;
-                    } else {
-                        j = y;
-                    }
-                    j *= w;
-                    for (int x = 0; x < w; x++) {
-                        int imageX = x + tileX;
-                        int k;
-                        if (imageX < 0) {
-                            k = fx;
-                        } else if (imageX > width) {
-                            k = fx + tw - 1;
-                        } else {
-                            k = x;
-                        }
-                        k += j;
-
-                        ar[0][i] = ((rgb[k] >> 24) & 0xff);
-                        float r = ((rgb[k] >> 16) & 0xff);
-                        float g = ((rgb[k] >> 8) & 0xff);
-                        float b = (rgb[k] & 0xff);
-
-                        // Bloom...
-                        if (r > bloomThreshold) {
-                            r *= bloom;
-                        }
 //							r = bloomThreshold + (r-bloomThreshold) * bloom;
-                        if (g > bloomThreshold) {
-                            g *= bloom;
-                        }
+                if (g > bloomThreshold) {
+                    g *= bloom;
+                }
 //							g = bloomThreshold + (g-bloomThreshold) * bloom;
-                        if (b > bloomThreshold) {
-                            b *= bloom;
-                        }
+                if (b > bloomThreshold) {
+                    b *= bloom;
+                }
 //							b = bloomThreshold + (b-bloomThreshold) * bloom;
 
-                        ar[1][i] = r;
-                        gb[0][i] = g;
-                        gb[1][i] = b;
+                ar[1][i] = r;
+                gb[0][i] = g;
+                gb[1][i] = b;
 
-                        i++;
-                        k++;
-                    }
-                }
+                i++;
+                k++;
+            }
+        }
 
-                // Transform into frequency space
-                fft.transform2D(ar[0], ar[1], cols, rows, true);
-                fft.transform2D(gb[0], gb[1], cols, rows, true);
-
-                // Multiply the transformed pixels by the transformed kernel
-                i = 0;
-                for (int y = 0; y < h; y++) {
-                    for (int x = 0; x < w; x++) {
-                        float re = ar[0][i];
-                        float im = ar[1][i];
-                        float rem = mask[0][i];
-                        float imm = mask[1][i];
-                        ar[0][i] = re * rem - im * imm;
-                        ar[1][i] = re * imm + im * rem;
-
-                        re = gb[0][i];
-                        im = gb[1][i];
-                        gb[0][i] = re * rem - im * imm;
-                        gb[1][i] = re * imm + im * rem;
-                        i++;
-                    }
-                }
+        // Transform into frequency space
+        fft.transform2D(ar[0], ar[1], cols, rows, true);
+        fft.transform2D(gb[0], gb[1], cols, rows, true);
 
-                // Transform back
-                fft.transform2D(ar[0], ar[1], cols, rows, false);
-                fft.transform2D(gb[0], gb[1], cols, rows, false);
-
-                // Convert back to RGB pixels, with quadrant remapping
-                int row_flip = w >> 1;
-                int col_flip = h >> 1;
-                int index = 0;
-
-                int workaroundMax = w * h - 1;
-
-                //FIXME-don't bother converting pixels off image edges
-                for (int y = 0; y < w; y++) {
-                    int ym = y ^ row_flip;
-                    int yi = ym * cols;
-                    for (int x = 0; x < w; x++) {
-                        int xm = yi + (x ^ col_flip);
-
-                        // Laszlo: not sure what is happening here, but for certain small images
-                        // with unusual image proportions (for example for any 100*20 input image)
-                        // we get an ArrayIndexOutOfBoundsException
-                        // This break does not result in a good-looking image, but at least
-                        // it avoids the exceptions during the automatic tests
-                        if (xm > workaroundMax) {
-                            break;
-                        }
-
-                        int a = (int) ar[0][xm];
-                        int r = (int) ar[1][xm];
-                        int g = (int) gb[0][xm];
-                        int b = (int) gb[1][xm];
-
-                        // Clamp high pixels due to blooming
-                        if (r > 255) {
-                            r = 255;
-                        }
-                        if (g > 255) {
-                            g = 255;
-                        }
-                        if (b > 255) {
-                            b = 255;
-                        }
-                        int argb = (a << 24) | (r << 16) | (g << 8) | b;
-                        rgb[index++] = argb;
-                    }
+        // Multiply the transformed pixels by the transformed kernel
+        i = 0;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                float re = ar[0][i];
+                float im = ar[1][i];
+                float rem = mask[0][i];
+                float imm = mask[1][i];
+                ar[0][i] = re * rem - im * imm;
+                ar[1][i] = re * imm + im * rem;
+
+                re = gb[0][i];
+                im = gb[1][i];
+                gb[0][i] = re * rem - im * imm;
+                gb[1][i] = re * imm + im * rem;
+                i++;
+            }
+        }
+
+        // Transform back
+        fft.transform2D(ar[0], ar[1], cols, rows, false);
+        fft.transform2D(gb[0], gb[1], cols, rows, false);
+
+        // Convert back to RGB pixels, with quadrant remapping
+        int row_flip = w >> 1;
+        int col_flip = h >> 1;
+        int index = 0;
+
+        int workaroundMax = w * h - 1;
+
+        //FIXME-don't bother converting pixels off image edges
+        for (int y = 0; y < w; y++) {
+            int ym = y ^ row_flip;
+            int yi = ym * cols;
+            for (int x = 0; x < w; x++) {
+                int xm = yi + (x ^ col_flip);
+
+                // Laszlo: not sure what is happening here, but for certain small images
+                // with unusual image proportions (for example for any 100*20 input image)
+                // we get an ArrayIndexOutOfBoundsException
+                // This break does not result in a good-looking image, but at least
+                // it avoids the exceptions during the automatic tests
+                if (xm > workaroundMax) {
+                    break;
                 }
 
-                // Clip to the output image
-                tx = tileX + iradius;
-                ty = tileY + iradius;
-                tw = tileWidth - 2 * iradius;
-                th = tileHeight - 2 * iradius;
-                if (tx + tw > width) {
-                    tw = width - tx;
+                int a = (int) ar[0][xm];
+                int r = (int) ar[1][xm];
+                int g = (int) gb[0][xm];
+                int b = (int) gb[1][xm];
+
+                // Clamp high pixels due to blooming
+                if (r > 255) {
+                    r = 255;
                 }
-                if (ty + th > height) {
-                    th = height - ty;
+                if (g > 255) {
+                    g = 255;
                 }
-
-                dst.setRGB(tx, ty, tw, th, rgb, iradius * w + iradius, w);
-                // setRGB(dst, tx, ty, tw, th, rgb);
+                if (b > 255) {
+                    b = 255;
+                }
+                int argb = (a << 24) | (r << 16) | (g << 8) | b;
+                rgb[index++] = argb;
             }
-            pt.unitDone();
         }
-        finishProgressTracker();
 
-        return dst;
+        // Clip to the output image
+        tx = tileX + iradius;
+        ty = tileY + iradius;
+        tw = tileWidth - 2 * iradius;
+        th = tileHeight - 2 * iradius;
+        if (tx + tw > width) {
+            tw = width - tx;
+        }
+        if (ty + th > height) {
+            th = height - ty;
+        }
+
+        dst.setRGB(tx, ty, tw, th, rgb, iradius * w + iradius, w);
+        // setRGB(dst, tx, ty, tw, th, rgb);
     }
 
     @Override
     public String toString() {
         return "Blur/Lens Blur...";
     }
+
+    /**
+     * The working arrays of a thread
+     */
+    private static class TileBuffers {
+        private final int[] rgb;
+        private final float[][] gb;
+        private final float[][] ar;
+
+        TileBuffers(int w, int h) {
+            rgb = new int[w * h];
+            gb = new float[2][w * h];
+            ar = new float[2][w * h];
+        }
+    }
+
+    /**
+     * A kernel spectrum together with the settings it was created with
+     */
+    private static class KernelSpectrum {
+        private final float radius;
+        private final int sides;
+        private final float angle;
+        private final int w;
+        private final int h;
+        private final float[][] spectrum;
+
+        KernelSpectrum(float radius, int sides, float angle, int w, int h, float[][] spectrum) {
+            this.radius = radius;
+            this.sides = sides;
+            this.angle = angle;
+            this.w = w;
+            this.h = h;
+            this.spectrum = spectrum;
+        }
+
+        boolean matches(float radius, int sides, float angle, int w, int h) {
+            return this.radius == radius && this.sides == sides
+                    && this.angle == angle && this.w == w && this.h == h;
+        }
+    }
 }
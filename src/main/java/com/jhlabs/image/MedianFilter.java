@@ -14,100 +14,103 @@ See the License for the specific language governing permissions and
 limitations under the License.
 */
 
+
 package com.jhlabs.image;
 
+import pixelitor.utils.ImageUtils;
+
 import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
 
 /**
- * A filter which performs a 3x3 median operation. Useful for removing dust and noise.
+ * A filter which replaces every channel of every pixel with the median
+ * of the same channel in a square neighborhood. Useful for removing dust and noise.
+ *
+ * It uses the constant-time algorithm of Perreault and Hébert: a histogram
+ * is kept for each column of the neighborhood height, and the histogram of
+ * the neighborhood is updated by adding the entering and subtracting the
+ * leaving column histograms. The histograms have a coarse (16 bins) and
+ * a fine (256 bins) level, and only the coarse level is updated for every
+ * pixel, therefore the cost per pixel doesn't depend on the radius.
+ *
+ * The pixels outside the image are replaced by the nearest edge pixels.
+ * TYPE_BYTE_GRAY images (layer masks) are filtered without conversion.
  */
 public class MedianFilter extends WholeImageFilter {
+    private static final int NUM_FINE_BINS = 256;
+    private static final int NUM_COARSE_BINS = 16;
+    private static final int COARSE_SHIFT = 4;
+
+    // marks the fine segments that must be calculated from scratch
+    private static final int NEVER_UPDATED = Integer.MIN_VALUE / 2;
+
+    private int radius = 1;
+
     public MedianFilter(String filterName) {
         super(filterName);
     }
 
-//    private static int median(int[] array) {
-//        int max, maxIndex;
-//
-//        for (int i = 0; i < 4; i++) {
-//            max = 0;
-//            maxIndex = 0;
-//            for (int j = 0; j < 9; j++) {
-//                if (array[j] > max) {
-//                    max = array[j];
-//                    maxIndex = j;
-//                }
-//            }
-//            array[maxIndex] = 0;
-//        }
-//        max = 0;
-//        for (int i = 0; i < 9; i++) {
-//            if (array[i] > max) {
-//                max = array[i];
-//            }
-//        }
-//        return max;
-//    }
-
-    private static int rgbMedian(int[] r, int[] g, int[] b) {
-        int sum, index = 0, min = Integer.MAX_VALUE;
-
-        for (int i = 0; i < 9; i++) {
-            sum = 0;
-            for (int j = 0; j < 9; j++) {
-                sum += Math.abs(r[i] - r[j]);
-                sum += Math.abs(g[i] - g[j]);
-                sum += Math.abs(b[i] - b[j]);
-            }
-            if (sum < min) {
-                min = sum;
-                index = i;
-            }
+    /**
+     * Sets the radius of the neighborhood, which is a square
+     * with a side length of 2 * radius + 1 pixels.
+     */
+    public void setRadius(int radius) {
+        this.radius = radius;
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    @Override
+    public BufferedImage filter(BufferedImage src, BufferedImage dst) {
+        if (src.getType() != TYPE_BYTE_GRAY) {
+            return super.filter(src, dst);
+        }
+
+        if (dst == null) {
+            dst = createCompatibleDestImage(src, null);
+        }
+        int width = src.getWidth();
+        int height = src.getHeight();
+        byte[] inPixels = ImageUtils.getGrayPixelsAsByteArray(src);
+        byte[] outPixels = ImageUtils.getGrayPixelsAsByteArray(dst);
+        if (inPixels == outPixels) {
+            inPixels = inPixels.clone();
         }
-        return index;
+
+        pt = createProgressTracker(height);
+        ChannelSource source = new ChannelSource(null, inPixels, 0);
+        runInBands(height, radius, (minY, maxY) -> {
+            BandHistograms histograms = new BandHistograms(width);
+            histograms.filter(source, height, radius, minY, maxY,
+                    (index, value) -> outPixels[index] = (byte) value);
+        });
+        finishProgressTracker();
+
+        return dst;
     }
 
     @Override
     protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
-        int index = 0;
-        int[] argb = new int[9];
-        int[] r = new int[9];
-        int[] g = new int[9];
-        int[] b = new int[9];
         int[] outPixels = new int[width * height];
 
         pt = createProgressTracker(height);
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int k = 0;
-                for (int dy = -1; dy <= 1; dy++) {
-                    int iy = y + dy;
-                    if (0 <= iy && iy < height) {
-                        int ioffset = iy * width;
-                        for (int dx = -1; dx <= 1; dx++) {
-                            int ix = x + dx;
-                            if (0 <= ix && ix < width) {
-                                int rgb = inPixels[ioffset + ix];
-                                argb[k] = rgb;
-                                r[k] = (rgb >> 16) & 0xff;
-                                g[k] = (rgb >> 8) & 0xff;
-                                b[k] = rgb & 0xff;
-                                k++;
-                            }
-                        }
-                    }
-                }
-                while (k < 9) {
-                    argb[k] = 0xff000000;
-                    r[k] = g[k] = b[k] = 0;
-                    k++;
-                }
-                outPixels[index++] = argb[rgbMedian(r, g, b)];
+        runInBands(height, radius, (minY, maxY) -> {
+            // the column histograms are reused for all channels of the band
+            BandHistograms histograms = new BandHistograms(width);
+            for (int shift = 0; shift <= 24; shift += 8) {
+                ChannelSource source = new ChannelSource(inPixels, null, shift);
+                int channelShift = shift;
+                histograms.filter(source, height, radius, minY, maxY,
+                        (index, value) -> outPixels[index] |= value << channelShift);
             }
-            pt.unitDone();
-        }
+        });
         finishProgressTracker();
+
         return outPixels;
     }
 
@@ -115,5 +118,171 @@ public class MedianFilter extends WholeImageFilter {
     public String toString() {
         return "Blur/Median";
     }
-}
 
+    /**
+     * One 8-bit channel of a packed ARGB image, or a gray image
+     */
+    private static class ChannelSource {
+        private final int[] argb;
+        private final byte[] gray;
+        private final int shift;
+
+        ChannelSource(int[] argb, byte[] gray, int shift) {
+            this.argb = argb;
+            this.gray = gray;
+            this.shift = shift;
+        }
+
+        int get(int index) {
+            if (gray != null) {
+                return gray[index] & 0xFF;
+            }
+            return (argb[index] >>> shift) & 0xFF;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChannelTarget {
+        void set(int index, int value);
+    }
+
+    /**
+     * The column and kernel histograms used while filtering a band
+     */
+    private static class BandHistograms {
+        private final int width;
+
+        // the column histograms, column by column
+        private final short[] colFine;
+        private final short[] colCoarse;
+
+        // the histograms of the current neighborhood
+        private final int[] kernelFine = new int[NUM_FINE_BINS];
+        private final int[] kernelCoarse = new int[NUM_COARSE_BINS];
+
+        // the column for which each segment of the
+        // fine kernel histogram was last updated
+        private final int[] lastUpdated = new int[NUM_COARSE_BINS];
+
+        BandHistograms(int width) {
+            this.width = width;
+            colFine = new short[width * NUM_FINE_BINS];
+            colCoarse = new short[width * NUM_COARSE_BINS];
+        }
+
+        void filter(ChannelSource src, int height, int radius,
+                    int minY, int maxY, ChannelTarget target) {
+            int size = 2 * radius + 1;
+            // the rank of the median in the neighborhood
+            int medianRank = size * size / 2;
+
+            initColumns(src, height, radius, minY);
+            for (int y = minY; y < maxY; y++) {
+                if (y > minY) {
+                    int leavingRow = clamp(y - radius - 1, height) * width;
+                    int enteringRow = clamp(y + radius, height) * width;
+                    for (int x = 0; x < width; x++) {
+                        updateColumn(x, src.get(leavingRow + x), -1);
+                        updateColumn(x, src.get(enteringRow + x), 1);
+                    }
+                }
+                filterRow(y * width, radius, medianRank, target);
+            }
+        }
+
+        private void initColumns(ChannelSource src, int height, int radius, int minY) {
+            Arrays.fill(colFine, (short) 0);
+            Arrays.fill(colCoarse, (short) 0);
+            for (int dy = -radius; dy <= radius; dy++) {
+                int rowStart = clamp(minY + dy, height) * width;
+                for (int x = 0; x < width; x++) {
+                    updateColumn(x, src.get(rowStart + x), 1);
+                }
+            }
+        }
+
+        private void updateColumn(int x, int value, int delta) {
+            colFine[x * NUM_FINE_BINS + value] += delta;
+            colCoarse[x * NUM_COARSE_BINS + (value >> COARSE_SHIFT)] += delta;
+        }
+
+        private void filterRow(int rowStart, int radius, int medianRank, ChannelTarget target) {
+            int size = 2 * radius + 1;
+
+            // the coarse kernel histogram is calculated for the first
+            // pixel, and the fine segments only when they are needed
+            Arrays.fill(kernelCoarse, 0);
+            Arrays.fill(lastUpdated, NEVER_UPDATED);
+            for (int dx = -radius; dx <= radius; dx++) {
+                addCoarse(clamp(dx, width), 1);
+            }
+
+            for (int x = 0; x < width; x++) {
+                if (x > 0) {
+                    addCoarse(clamp(x + radius, width), 1);
+                    addCoarse(clamp(x - radius - 1, width), -1);
+                }
+
+                // find the coarse bin containing the median
+                int count = 0;
+                int coarse = 0;
+                while (count + kernelCoarse[coarse] <= medianRank) {
+                    count += kernelCoarse[coarse];
+                    coarse++;
+                }
+
+                updateFineSegment(coarse, x, radius, size);
+
+                // find the median in the fine segment
+                int fine = coarse << COARSE_SHIFT;
+                while (count + kernelFine[fine] <= medianRank) {
+                    count += kernelFine[fine];
+                    fine++;
+                }
+                target.set(rowStart + x, fine);
+            }
+        }
+
+        private void addCoarse(int column, int sign) {
+            int offset = column * NUM_COARSE_BINS;
+            for (int i = 0; i < NUM_COARSE_BINS; i++) {
+                kernelCoarse[i] += sign * colCoarse[offset + i];
+            }
+        }
+
+        /**
+         * Brings the given segment of the fine kernel
+         * histogram up to date for the given column
+         */
+        private void updateFineSegment(int coarse, int x, int radius, int size) {
+            int segmentStart = coarse << COARSE_SHIFT;
+            int last = lastUpdated[coarse];
+            if (x - last >= size) {
+                // no common columns with the last update, start from scratch
+                for (int i = 0; i < NUM_COARSE_BINS; i++) {
+                    kernelFine[segmentStart + i] = 0;
+                }
+                for (int dx = -radius; dx <= radius; dx++) {
+                    addFine(clamp(x + dx, width), segmentStart, 1);
+                }
+            } else {
+                for (int prevX = last + 1; prevX <= x; prevX++) {
+                    addFine(clamp(prevX + radius, width), segmentStart, 1);
+                    addFine(clamp(prevX - radius - 1, width), segmentStart, -1);
+                }
+            }
+            lastUpdated[coarse] = x;
+        }
+
+        private void addFine(int column, int segmentStart, int sign) {
+            int offset = column * NUM_FINE_BINS + segmentStart;
+            for (int i = 0; i < NUM_COARSE_BINS; i++) {
+                kernelFine[segmentStart + i] += sign * colFine[offset + i];
+            }
+        }
+
+        private static int clamp(int value, int size) {
+            return ImageMath.clamp(value, 0, size - 1);
+        }
+    }
+}
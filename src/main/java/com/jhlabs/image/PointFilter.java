@@ -19,8 +19,8 @@ package com.jhlabs.image;
 import pixelitor.ThreadPool;
 import pixelitor.utils.ImageUtils;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.util.concurrent.Future;
 
 import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
 
@@ -49,20 +49,23 @@ public abstract class PointFilter extends AbstractBufferedImageOp {
         int[] inPixels = ImageUtils.getPixelsAsArray(src);
         int[] outPixels = ImageUtils.getPixelsAsArray(dst);
 
-        pt = createProgressTracker(height);
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable calculateLineTask = () -> {
-                for (int x = 0; x < width; x++) {
-                    int index = finalY * width + x;
-                    outPixels[index] = filterRGB(x, finalY, inPixels[index]);
-                }
-            };
-            futures[y] = ThreadPool.submit(calculateLineTask);
+        Rectangle region = claimPreviewRegion(dst);
+        if (region == null) {
+            region = new Rectangle(0, 0, width, height);
+        } else {
+            // the source pixels are shown outside the region
+            System.arraycopy(inPixels, 0, outPixels, 0, width * height);
         }
-
-        ThreadPool.waitFor(futures, pt);
+        int minX = region.x;
+        int maxX = region.x + region.width;
+
+        pt = createProgressTracker(region.height);
+        ThreadPool.parallelFor(region.y, region.y + region.height, y -> {
+            for (int x = minX; x < maxX; x++) {
+                int index = y * width + x;
+                outPixels[index] = filterRGB(x, y, inPixels[index]);
+            }
+        }, pt);
         finishProgressTracker();
 
         return dst;
@@ -73,20 +76,14 @@ public abstract class PointFilter extends AbstractBufferedImageOp {
         int height = src.getHeight();
 
         pt = createProgressTracker(height);
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable calculateLineTask = () -> {
-                int[] inPixels = new int[width];
-                src.getRGB(0, finalY, width, 1, inPixels, 0, width);
-                for (int x = 0; x < width; x++) {
-                    inPixels[x] = filterRGB(x, finalY, inPixels[x]);
-                }
-                dst.setRGB(0, finalY, width, 1, inPixels, 0, width);
-            };
-            futures[y] = ThreadPool.submit(calculateLineTask);
-        }
-        ThreadPool.waitFor(futures, pt);
+        ThreadPool.parallelFor(0, height, y -> {
+            int[] linePixels = new int[width];
+            src.getRGB(0, y, width, 1, linePixels, 0, width);
+            for (int x = 0; x < width; x++) {
+                linePixels[x] = filterRGB(x, y, linePixels[x]);
+            }
+            dst.setRGB(0, y, width, 1, linePixels, 0, width);
+        }, pt);
         finishProgressTracker();
 
         return dst;
@@ -53,15 +53,24 @@ public class ReduceNoiseFilter extends WholeImageFilter {
 
     @Override
     protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
-        int index = 0;
-        int[] r = new int[9];
-        int[] g = new int[9];
-        int[] b = new int[9];
         int[] outPixels = new int[width * height];
 
         pt = createProgressTracker(height);
+        filterInBands(inPixels, outPixels, height, 1, (in, out, minY, maxY) ->
+                filterBand(in, out, width, height, minY, maxY));
+        finishProgressTracker();
 
-        for (int y = 0; y < height; y++) {
+        return outPixels;
+    }
+
+    private static void filterBand(int[] inPixels, int[] outPixels,
+                                   int width, int height, int minY, int maxY) {
+        int index = minY * width;
+        int[] r = new int[9];
+        int[] g = new int[9];
+        int[] b = new int[9];
+
+        for (int y = minY; y < maxY; y++) {
             for (int x = 0; x < width; x++) {
                 int k = 0;
                 int irgb = inPixels[index];
@@ -98,12 +107,7 @@ public class ReduceNoiseFilter extends WholeImageFilter {
                 outPixels[index] = (inPixels[index] & 0xff000000) | (smooth(r) << 16) | (smooth(g) << 8) | smooth(b);
                 index++;
             }
-            pt.unitDone();
         }
-
-        finishProgressTracker();
-
-        return outPixels;
     }
 
     @Override
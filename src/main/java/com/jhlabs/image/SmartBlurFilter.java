@@ -16,6 +16,7 @@ limitations under the License.
 
 package com.jhlabs.image;
 
+import pixelitor.ThreadPool;
 import pixelitor.utils.ProgressTracker;
 
 import java.awt.image.BufferedImage;
@@ -68,7 +69,13 @@ public class SmartBlurFilter extends AbstractBufferedImageOp {
         int cols = kernel.getWidth();
         int cols2 = cols / 2;
 
-        for (int y = 0; y < height; y++) {
+        ThreadPool.parallelForBands(0, height, 1, (minY, maxY) ->
+                thresholdBlurRows(matrix, cols2, inPixels, outPixels, width, height, alpha, minY, maxY), pt);
+    }
+
+    private void thresholdBlurRows(float[] matrix, int cols2, int[] inPixels, int[] outPixels,
+                                   int width, int height, boolean alpha, int minY, int maxY) {
+        for (int y = minY; y < maxY; y++) {
             int ioffset = y * width;
             int outIndex = y;
             for (int x = 0; x < width; x++) {
@@ -129,7 +136,6 @@ public class SmartBlurFilter extends AbstractBufferedImageOp {
                 outPixels[outIndex] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
                 outIndex += height;
             }
-            pt.unitDone();
         }
     }
 
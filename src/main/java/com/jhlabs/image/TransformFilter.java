@@ -172,10 +172,18 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
 
         int[] inPixels = getRGB(src, 0, 0, srcWidth, srcHeight, null);
 
-        if (interpolation == BILINEAR) {
-            return filterPixelsBilinear(dst, srcWidth, srcHeight, inPixels);
-        } else if (interpolation == NEAREST_NEIGHBOUR) {
-            return filterPixelsNN(dst, srcWidth, srcHeight, inPixels);
+        if (interpolation == BILINEAR || interpolation == NEAREST_NEIGHBOUR) {
+            Rectangle region = claimPreviewRegion(dst);
+            if (region == null) {
+                region = new Rectangle(0, 0, srcWidth, srcHeight);
+            } else {
+                // the source pixels are shown outside the region
+                setRGB(dst, 0, 0, srcWidth, srcHeight, inPixels);
+            }
+            if (interpolation == BILINEAR) {
+                return filterPixelsBilinear(dst, srcWidth, srcHeight, inPixels, region);
+            }
+            return filterPixelsNN(dst, srcWidth, srcHeight, inPixels, region);
         } else if (interpolation == BILINEAR_OLD) {
             return filterPixelsBilinearOLD(dst, srcWidth, srcHeight, inPixels);
         } else if (interpolation == NEAREST_NEIGHBOUR_OLD) {
@@ -253,26 +261,27 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
         return dst;
     }
 
-    protected BufferedImage filterPixelsNN(BufferedImage dst, int width, int height, int[] inPixels) {
+    protected BufferedImage filterPixelsNN(BufferedImage dst, int width, int height,
+                                           int[] inPixels, Rectangle region) {
         int srcWidth = width;
         int srcHeight = height;
-        int outWidth = width;
-        int outHeight = height;
+        int outWidth = region.width;
+        int outHeight = region.height;
 
         pt = createProgressTracker(outHeight);
 
         @SuppressWarnings("unchecked")
         Future<int[]>[] resultLines = new Future[outHeight];
 
-        for (int y = 0; y < outHeight; y++) {
+        for (int line = 0; line < outHeight; line++) {
             float[] out = new float[2];
-            int finalY = y;
+            int finalY = region.y + line;
             Callable<int[]> calculateLineTask = () -> {
                 int srcX, srcY;
                 int[] outPixels = new int[outWidth];
 
                 for (int x = 0; x < outWidth; x++) {
-                    transformInverse(x, finalY, out);
+                    transformInverse(region.x + x, finalY, out);
                     srcX = (int) out[0];
                     srcY = (int) out[1];
                     // int casting rounds towards zero, so we check out[0] < 0, not srcX < 0
@@ -282,21 +291,22 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
                 return outPixels;
 
             };
-            resultLines[finalY] = ThreadPool.submit2(calculateLineTask);
+            resultLines[line] = ThreadPool.submit2(calculateLineTask);
         }
-        ThreadPool.waitFor2(resultLines, dst, width, pt);
+        ThreadPool.waitFor2(resultLines, dst, region, pt);
         finishProgressTracker();
 
         return dst;
     }
 
-    private BufferedImage filterPixelsBilinear(BufferedImage dst, int width, int height, int[] inPixels) {
+    private BufferedImage filterPixelsBilinear(BufferedImage dst, int width, int height,
+                                               int[] inPixels, Rectangle region) {
         int srcWidth = width;
         int srcHeight = height;
         int srcWidth1 = width - 1;
         int srcHeight1 = height - 1;
-        int outWidth = width;
-        int outHeight = height;
+        int outWidth = region.width;
+        int outHeight = region.height;
 //        int outX, outY;
 //		int index = 0;
 
@@ -305,13 +315,13 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
         @SuppressWarnings("unchecked")
         Future<int[]>[] resultLines = new Future[outHeight];
 
-        for (int y = 0; y < outHeight; y++) {
+        for (int line = 0; line < outHeight; line++) {
             float[] out = new float[2];
-            int finalY = y;
+            int finalY = region.y + line;
             Callable<int[]> calculateLineTask = () -> {
                 int[] outPixels = new int[outWidth];
                 for (int x = 0; x < outWidth; x++) {
-                    transformInverse(x, finalY, out);
+                    transformInverse(region.x + x, finalY, out);
                     int srcX = (int) FastMath.floor(out[0]);
                     int srcY = (int) FastMath.floor(out[1]);
                     float xWeight = out[0] - srcX;
@@ -337,9 +347,9 @@ public abstract class TransformFilter extends AbstractBufferedImageOp {
                 return outPixels;
             };
 
-            resultLines[finalY] = ThreadPool.submit2(calculateLineTask);
+            resultLines[line] = ThreadPool.submit2(calculateLineTask);
         }
-        ThreadPool.waitFor2(resultLines, dst, width, pt);
+        ThreadPool.waitFor2(resultLines, dst, region, pt);
         finishProgressTracker();
 
         return dst;
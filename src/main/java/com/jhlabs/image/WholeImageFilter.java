@@ -16,6 +16,8 @@ limitations under the License.
 
 package com.jhlabs.image;
 
+import pixelitor.ThreadPool;
+
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
@@ -25,6 +27,10 @@ import java.awt.image.ColorModel;
  * to do their stuff.
  */
 public abstract class WholeImageFilter extends AbstractBufferedImageOp {
+    // the bands should be much higher than their halo
+    private static final int MIN_BAND_HEIGHT = 16;
+    private static final int MIN_BAND_TO_HALO_RATIO = 4;
+
     /**
      * The output image bounds.
      */
@@ -86,5 +92,46 @@ public abstract class WholeImageFilter extends AbstractBufferedImageOp {
      * @return the output pixels
      */
     protected abstract int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace);
-}
 
+    /**
+     * Filters the pixels in horizontal bands, in parallel.
+     * Every band reads its own rows of the input and the given number
+     * of halo rows above and below it, and writes only its own rows
+     * of the output. The progress tracker (which must be created
+     * before) receives one unit for each row.
+     *
+     * @param inPixels   the input pixels, not modified while filtering
+     * @param outPixels  the output pixels, must be a different array
+     * @param height     the image height
+     * @param haloRows   how many rows of the neighborhood are needed above and below a pixel
+     * @param bandFilter the filter which calculates a band
+     */
+    protected void filterInBands(int[] inPixels, int[] outPixels, int height,
+                                 int haloRows, BandFilter bandFilter) {
+        assert inPixels != outPixels;
+
+        runInBands(height, haloRows, (minY, maxY) ->
+                bandFilter.filterBand(inPixels, outPixels, minY, maxY));
+    }
+
+    /**
+     * Runs the given task in parallel for horizontal bands of the
+     * image, which are high enough for the given number of halo rows.
+     * Can be used if the pixels are not in int arrays.
+     */
+    protected void runInBands(int height, int haloRows, ThreadPool.BandTask task) {
+        int minBandHeight = Math.max(MIN_BAND_HEIGHT, haloRows * MIN_BAND_TO_HALO_RATIO);
+        ThreadPool.parallelForBands(0, height, minBandHeight, task, pt);
+    }
+
+    /**
+     * Calculates a horizontal band of the output image
+     */
+    @FunctionalInterface
+    protected interface BandFilter {
+        /**
+         * Calculates the output rows from minY (inclusive) to maxY (exclusive)
+         */
+        void filterBand(int[] inPixels, int[] outPixels, int minY, int maxY);
+    }
+}
@@ -34,15 +34,23 @@
 
 package org.jdesktop.swingx.graphics;
 
+import pixelitor.ThreadPool;
+
 import java.awt.Composite;
 import java.awt.CompositeContext;
 import java.awt.RenderingHints;
 import java.awt.image.ColorModel;
 import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
 import java.awt.image.DirectColorModel;
 import java.awt.image.Raster;
 import java.awt.image.RasterFormatException;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * <p>A blend composite defines the rule according to which a drawing primitive
@@ -319,519 +327,639 @@ public final class BlendComposite implements Composite {
                                           ColorModel dstColorModel,
                                           RenderingHints hints) {
         if (isRgbColorModel(srcColorModel) && isRgbColorModel(dstColorModel)) {
-            return new BlendingRgbContext(this);
+            return new BlendingContext(this, false);
         } else if (isBgrColorModel(srcColorModel) && isBgrColorModel(dstColorModel)) {
-            return new BlendingBgrContext(this);
+            return new BlendingContext(this, true);
         }
 
         throw new RasterFormatException("Incompatible color models");
     }
 
-    private static abstract class BlendingContext implements CompositeContext {
-        protected final Blender blender;
-        protected final BlendComposite composite;
+    private static class BlendingContext implements CompositeContext {
+        // smaller rasters are composed on the calling thread
+        private static final int MIN_PIXELS_FOR_PARALLEL = 256 * 256;
 
-        private BlendingContext(BlendComposite composite) {
-            this.composite = composite;
-            this.blender = Blender.getBlenderFor(composite);
-        }
+        private final BlendingMode mode;
+        private final float opacity;
 
-        @Override
-		public void dispose() {
-        }
-    }
+        // the pixels are stored as INT_ABGR instead of INT_ARGB
+        private final boolean bgr;
 
-    private static class BlendingRgbContext extends BlendingContext {
-        private BlendingRgbContext(BlendComposite composite) {
-            super(composite);
+        private BlendingContext(BlendComposite composite, boolean bgr) {
+            this.mode = composite.getMode();
+            this.opacity = composite.getAlpha();
+            this.bgr = bgr;
         }
 
         @Override
-		public void compose(Raster src, Raster dstIn, WritableRaster dstOut) {
+        public void compose(Raster src, Raster dstIn, WritableRaster dstOut) {
             int width = Math.min(src.getWidth(), dstIn.getWidth());
             int height = Math.min(src.getHeight(), dstIn.getHeight());
 
-            float alpha = composite.getAlpha();
+            int numThreads = ThreadPool.getNumThreads();
+            if ((long) width * height < MIN_PIXELS_FOR_PARALLEL
+                    || numThreads < 2 || ThreadPool.isPoolThread()) {
+                composeRows(src, dstIn, dstOut, width, 0, height);
+                return;
+            }
 
-            int[] result = new int[4];
-            int[] srcPixel = new int[4];
-            int[] dstPixel = new int[4];
+            // the rows are independent, they can be composed in parallel
+            int numTasks = numThreads * 2;
+            int rowsPerTask = (height + numTasks - 1) / numTasks;
+            List<Future<?>> futures = new ArrayList<>(numTasks);
+            for (int from = 0; from < height; from += rowsPerTask) {
+                int taskFrom = from;
+                int taskTo = Math.min(height, from + rowsPerTask);
+                futures.add(ThreadPool.submit(() ->
+                        composeRows(src, dstIn, dstOut, width, taskFrom, taskTo)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+
+        private void composeRows(Raster src, Raster dstIn, WritableRaster dstOut,
+                                 int width, int fromY, int toY) {
+            // reused for all the rows
             int[] srcPixels = new int[width];
             int[] dstPixels = new int[width];
+            float[] srcHSL = new float[3];
+            float[] dstHSL = new float[3];
+            int[] rgb = new int[4];
+
+            for (int y = fromY; y < toY; y++) {
+                readRow(src, y, width, srcPixels);
+                readRow(dstIn, y, width, dstPixels);
+                if (bgr) {
+                    // the kernels work with INT_ARGB pixels
+                    swapRedAndBlue(srcPixels, width);
+                    swapRedAndBlue(dstPixels, width);
+                }
+
+                blendRow(mode, srcPixels, dstPixels, width, opacity, srcHSL, dstHSL, rgb);
 
-            for (int y = 0; y < height; y++) {
-                src.getDataElements(0, y, width, 1, srcPixels);
-                dstIn.getDataElements(0, y, width, 1, dstPixels);
-                for (int x = 0; x < width; x++) {
-                    // pixels are stored as INT_ARGB
-                    // our arrays are [R, G, B, A]
-                    int pixel = srcPixels[x];
-                    srcPixel[0] = (pixel >> 16) & 0xFF;
-                    srcPixel[1] = (pixel >> 8) & 0xFF;
-                    srcPixel[2] = pixel & 0xFF;
-                    srcPixel[3] = (pixel >> 24) & 0xFF;
-
-                    pixel = dstPixels[x];
-                    dstPixel[0] = (pixel >> 16) & 0xFF;
-                    dstPixel[1] = (pixel >> 8) & 0xFF;
-                    dstPixel[2] = pixel & 0xFF;
-                    dstPixel[3] = (pixel >> 24) & 0xFF;
-
-                    blender.blend(srcPixel, dstPixel, result);
-
-                    // mixes the result with the opacity
-                    dstPixels[x] = (((int) (dstPixel[3] + (result[3] - dstPixel[3]) * alpha) & 0xFF) << 24) |
-                            (((int) (dstPixel[0] + (result[0] - dstPixel[0]) * alpha) & 0xFF) << 16) |
-                            (((int) (dstPixel[1] + (result[1] - dstPixel[1]) * alpha) & 0xFF) << 8) |
-                            ((int) (dstPixel[2] + (result[2] - dstPixel[2]) * alpha) & 0xFF);
-                }
-                dstOut.setDataElements(0, y, width, 1, dstPixels);
+                if (bgr) {
+                    swapRedAndBlue(dstPixels, width);
+                }
+                writeRow(dstOut, y, width, dstPixels);
             }
         }
+
+        @Override
+        public void dispose() {
+        }
     }
 
-    private static class BlendingBgrContext extends BlendingContext {
-        private BlendingBgrContext(BlendComposite composite) {
-            super(composite);
+    /**
+     * Same as Raster.getDataElements(0, y, width, 1, row), but it
+     * copies the packed pixels directly from the data array if possible.
+     */
+    private static void readRow(Raster raster, int y, int width, int[] row) {
+        int[] data = getPackedData(raster);
+        if (data == null) {
+            raster.getDataElements(0, y, width, 1, row);
+        } else {
+            System.arraycopy(data, getRowOffset(raster, y), row, 0, width);
         }
+    }
 
-        @Override
-		public void compose(Raster src, Raster dstIn, WritableRaster dstOut) {
-            int width = Math.min(src.getWidth(), dstIn.getWidth());
-            int height = Math.min(src.getHeight(), dstIn.getHeight());
+    /**
+     * Same as WritableRaster.setDataElements(0, y, width, 1, row), but it
+     * copies the packed pixels directly into the data array if possible.
+     */
+    private static void writeRow(WritableRaster raster, int y, int width, int[] row) {
+        int[] data = getPackedData(raster);
+        if (data == null) {
+            raster.setDataElements(0, y, width, 1, row);
+        } else {
+            System.arraycopy(row, 0, data, getRowOffset(raster, y), width);
+        }
+    }
 
-            float alpha = composite.getAlpha();
+    private static int[] getPackedData(Raster raster) {
+        if (raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getDataBuffer().getNumBanks() == 1) {
+            return ((DataBufferInt) raster.getDataBuffer()).getData();
+        }
+        return null;
+    }
 
-            int[] result = new int[4];
-            int[] srcPixel = new int[4];
-            int[] dstPixel = new int[4];
-            int[] srcPixels = new int[width];
-            int[] dstPixels = new int[width];
+    private static int getRowOffset(Raster raster, int y) {
+        return raster.getDataBuffer().getOffset() + ((SinglePixelPackedSampleModel) raster.getSampleModel())
+                .getOffset(-raster.getSampleModelTranslateX(), y - raster.getSampleModelTranslateY());
+    }
 
-            for (int y = 0; y < height; y++) {
-                src.getDataElements(0, y, width, 1, srcPixels);
-                dstIn.getDataElements(0, y, width, 1, dstPixels);
-                for (int x = 0; x < width; x++) {
-                    // pixels are stored as INT_ABGR
-                    // our arrays are [R, G, B, A]
-                    int pixel = srcPixels[x];
-                    srcPixel[0] = pixel & 0xFF;
-                    srcPixel[1] = (pixel >> 8) & 0xFF;
-                    srcPixel[2] = (pixel >> 16) & 0xFF;
-                    srcPixel[3] = (pixel >> 24) & 0xFF;
-
-                    pixel = dstPixels[x];
-                    dstPixel[0] = pixel & 0xFF;
-                    dstPixel[1] = (pixel >> 8) & 0xFF;
-                    dstPixel[2] = (pixel >> 16) & 0xFF;
-                    dstPixel[3] = (pixel >> 24) & 0xFF;
-
-                    blender.blend(srcPixel, dstPixel, result);
-
-                    // mixes the result with the opacity
-                    dstPixels[x] = ((int) (dstPixel[3] + (result[3] - dstPixel[3]) * alpha) & 0xFF) << 24 |
-                            ((int) (dstPixel[0] + (result[0] - dstPixel[0]) * alpha) & 0xFF) |
-                            ((int) (dstPixel[1] + (result[1] - dstPixel[1]) * alpha) & 0xFF) << 8 |
-                            ((int) (dstPixel[2] + (result[2] - dstPixel[2]) * alpha) & 0xFF) << 16;
-                }
-                dstOut.setDataElements(0, y, width, 1, dstPixels);
-            }
+    private static void swapRedAndBlue(int[] pixels, int width) {
+        for (int i = 0; i < width; i++) {
+            int p = pixels[i];
+            pixels[i] = (p & 0xFF_00_FF_00) | ((p >> 16) & 0xFF) | ((p & 0xFF) << 16);
         }
     }
 
-    private static abstract class Blender {
-        public abstract void blend(int[] src, int[] dst, int[] result);
-
-        public static Blender getBlenderFor(BlendComposite composite) {
-            switch (composite.getMode()) {
-                case CROSS_FADE:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            // Takes all the values from the src (upper) layer
-                            // The cross-fading will result from the derive
-                            result[0] = src[0];
-                            result[1] = src[1];
-                            result[2] = src[2];
-                            result[3] = src[3];
-                        }
-                    };
-                case ADD:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = Math.min(255, src[0] + dst[0]);
-                            result[1] = Math.min(255, src[1] + dst[1]);
-                            result[2] = Math.min(255, src[2] + dst[2]);
-                            result[3] = Math.min(255, src[3] + dst[3]);
-                        }
-                    };
-                case AVERAGE:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = (src[0] + dst[0]) >> 1;
-                            result[1] = (src[1] + dst[1]) >> 1;
-                            result[2] = (src[2] + dst[2]) >> 1;
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case BLUE:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = dst[0];
-                            result[1] = src[1];
-                            result[2] = dst[2];
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case COLOR:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            float[] srcHSL = new float[3];
-                            ColorUtilities.RGBtoHSL(src[0], src[1], src[2], srcHSL);
-                            float[] dstHSL = new float[3];
-                            ColorUtilities.RGBtoHSL(dst[0], dst[1], dst[2], dstHSL);
-
-                            ColorUtilities.HSLtoRGB(srcHSL[0], srcHSL[1], dstHSL[2], result);
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case COLOR_BURN:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = src[0] == 0 ? 0 :
-                                    Math.max(0, 255 - (((255 - dst[0]) << 8) / src[0]));
-                            result[1] = src[1] == 0 ? 0 :
-                                    Math.max(0, 255 - (((255 - dst[1]) << 8) / src[1]));
-                            result[2] = src[2] == 0 ? 0 :
-                                    Math.max(0, 255 - (((255 - dst[2]) << 8) / src[2]));
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case COLOR_DODGE:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = src[0] == 255 ? 255 :
-                                    Math.min((dst[0] << 8) / (255 - src[0]), 255);
-                            result[1] = src[1] == 255 ? 255 :
-                                    Math.min((dst[1] << 8) / (255 - src[1]), 255);
-                            result[2] = src[2] == 255 ? 255 :
-                                    Math.min((dst[2] << 8) / (255 - src[2]), 255);
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case DARKEN:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = Math.min(src[0], dst[0]);
-                            result[1] = Math.min(src[1], dst[1]);
-                            result[2] = Math.min(src[2], dst[2]);
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case DIFFERENCE:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = Math.abs(dst[0] - src[0]);
-                            result[1] = Math.abs(dst[1] - src[1]);
-                            result[2] = Math.abs(dst[2] - src[2]);
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case EXCLUSION:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = (dst[0] + src[0]) - ((dst[0] * src[0]) >> 7);
-                            result[1] = (dst[1] + src[1]) - ((dst[1] * src[1]) >> 7);
-                            result[2] = (dst[2] + src[2]) - ((dst[2] * src[2]) >> 7);
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case FREEZE:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = src[0] == 0 ? 0 :
-                                    Math.max(0, 255 - (255 - dst[0]) * (255 - dst[0]) / src[0]);
-                            result[1] = src[1] == 0 ? 0 :
-                                    Math.max(0, 255 - (255 - dst[1]) * (255 - dst[1]) / src[1]);
-                            result[2] = src[2] == 0 ? 0 :
-                                    Math.max(0, 255 - (255 - dst[2]) * (255 - dst[2]) / src[2]);
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case GLOW:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = dst[0] == 255 ? 255 :
-                                    Math.min(255, src[0] * src[0] / (255 - dst[0]));
-                            result[1] = dst[1] == 255 ? 255 :
-                                    Math.min(255, src[1] * src[1] / (255 - dst[1]));
-                            result[2] = dst[2] == 255 ? 255 :
-                                    Math.min(255, src[2] * src[2] / (255 - dst[2]));
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case GREEN:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = dst[0];
-                            result[1] = dst[1];
-                            result[2] = src[2];
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case HARD_LIGHT:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = (src[0] < 128) ? ((dst[0] * src[0]) >> 7) :
-                                    (255 - (((255 - src[0]) * (255 - dst[0])) >> 7));
-                            result[1] = (src[1] < 128) ? ((dst[1] * src[1]) >> 7) :
-                                    (255 - (((255 - src[1]) * (255 - dst[1])) >> 7));
-                            result[2] = (src[2] < 128) ? ((dst[2] * src[2]) >> 7) :
-                                    (255 - (((255 - src[2]) * (255 - dst[2])) >> 7));
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case HEAT:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = dst[0] == 0 ? 0 :
-                                    Math.max(0, 255 - (255 - src[0]) * (255 - src[0]) / dst[0]);
-                            result[1] = dst[1] == 0 ? 0 :
-                                    Math.max(0, 255 - (255 - src[1]) * (255 - src[1]) / dst[1]);
-                            result[2] = dst[2] == 0 ? 0 :
-                                    Math.max(0, 255 - (255 - src[2]) * (255 - src[2]) / dst[2]);
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case HUE:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            float[] srcHSL = new float[3];
-                            ColorUtilities.RGBtoHSL(src[0], src[1], src[2], srcHSL);
-                            float[] dstHSL = new float[3];
-                            ColorUtilities.RGBtoHSL(dst[0], dst[1], dst[2], dstHSL);
-
-                            ColorUtilities.HSLtoRGB(srcHSL[0], dstHSL[1], dstHSL[2], result);
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case INVERSE_COLOR_BURN:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = dst[0] == 0 ? 0 :
-                                    Math.max(0, 255 - (((255 - src[0]) << 8) / dst[0]));
-                            result[1] = dst[1] == 0 ? 0 :
-                                    Math.max(0, 255 - (((255 - src[1]) << 8) / dst[1]));
-                            result[2] = dst[2] == 0 ? 0 :
-                                    Math.max(0, 255 - (((255 - src[2]) << 8) / dst[2]));
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case INVERSE_COLOR_DODGE:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = dst[0] == 255 ? 255 :
-                                    Math.min((src[0] << 8) / (255 - dst[0]), 255);
-                            result[1] = dst[1] == 255 ? 255 :
-                                    Math.min((src[1] << 8) / (255 - dst[1]), 255);
-                            result[2] = dst[2] == 255 ? 255 :
-                                    Math.min((src[2] << 8) / (255 - dst[2]), 255);
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case LIGHTEN:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = Math.max(src[0], dst[0]);
-                            result[1] = Math.max(src[1], dst[1]);
-                            result[2] = Math.max(src[2], dst[2]);
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case LUMINOSITY:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            float[] srcHSL = new float[3];
-                            ColorUtilities.RGBtoHSL(src[0], src[1], src[2], srcHSL);
-                            float[] dstHSL = new float[3];
-                            ColorUtilities.RGBtoHSL(dst[0], dst[1], dst[2], dstHSL);
-
-                            ColorUtilities.HSLtoRGB(dstHSL[0], dstHSL[1], srcHSL[2], result);
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case MULTIPLY:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = (src[0] * dst[0]) >> 8;
-                            result[1] = (src[1] * dst[1]) >> 8;
-                            result[2] = (src[2] * dst[2]) >> 8;
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case NEGATION:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = 255 - Math.abs(255 - dst[0] - src[0]);
-                            result[1] = 255 - Math.abs(255 - dst[1] - src[1]);
-                            result[2] = 255 - Math.abs(255 - dst[2] - src[2]);
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case OVERLAY:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = (dst[0] < 128) ? ((dst[0] * src[0]) >> 7) :
-                                    (255 - (((255 - dst[0]) * (255 - src[0])) >> 7));
-                            result[1] = (dst[1] < 128) ? ((dst[1] * src[1]) >> 7) :
-                                    (255 - (((255 - dst[1]) * (255 - src[1])) >> 7));
-                            result[2] = (dst[2] < 128) ? ((dst[2] * src[2]) >> 7) :
-                                    (255 - (((255 - dst[2]) * (255 - src[2])) >> 7));
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case RED:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = src[0];
-                            result[1] = dst[1];
-                            result[2] = dst[2];
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case REFLECT:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = src[0] == 255 ? 255 :
-                                    Math.min(255, dst[0] * dst[0] / (255 - src[0]));
-                            result[1] = src[1] == 255 ? 255 :
-                                    Math.min(255, dst[1] * dst[1] / (255 - src[1]));
-                            result[2] = src[2] == 255 ? 255 :
-                                    Math.min(255, dst[2] * dst[2] / (255 - src[2]));
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case SATURATION:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            float[] srcHSL = new float[3];
-                            ColorUtilities.RGBtoHSL(src[0], src[1], src[2], srcHSL);
-                            float[] dstHSL = new float[3];
-                            ColorUtilities.RGBtoHSL(dst[0], dst[1], dst[2], dstHSL);
-
-                            ColorUtilities.HSLtoRGB(dstHSL[0], srcHSL[1], dstHSL[2], result);
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case SCREEN:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = 255 - (((255 - src[0]) * (255 - dst[0])) >> 8);
-                            result[1] = 255 - (((255 - src[1]) * (255 - dst[1])) >> 8);
-                            result[2] = 255 - (((255 - src[2]) * (255 - dst[2])) >> 8);
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case SOFT_BURN:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = dst[0] + src[0] < 256 ?
-                                    (dst[0] == 255 ? 255 :
-                                            Math.min(255, (src[0] << 7) / (255 - dst[0]))) :
-                                    Math.max(0, 255 - (((255 - dst[0]) << 7) / src[0]));
-                            result[1] = dst[1] + src[1] < 256 ?
-                                    (dst[1] == 255 ? 255 :
-                                            Math.min(255, (src[1] << 7) / (255 - dst[1]))) :
-                                    Math.max(0, 255 - (((255 - dst[1]) << 7) / src[1]));
-                            result[2] = dst[2] + src[2] < 256 ?
-                                    (dst[2] == 255 ? 255 :
-                                            Math.min(255, (src[2] << 7) / (255 - dst[2]))) :
-                                    Math.max(0, 255 - (((255 - dst[2]) << 7) / src[2]));
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case SOFT_DODGE:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = dst[0] + src[0] < 256 ?
-                                    (src[0] == 255 ? 255 :
-                                            Math.min(255, (dst[0] << 7) / (255 - src[0]))) :
-                                    Math.max(0, 255 - (((255 - src[0]) << 7) / dst[0]));
-                            result[1] = dst[1] + src[1] < 256 ?
-                                    (src[1] == 255 ? 255 :
-                                            Math.min(255, (dst[1] << 7) / (255 - src[1]))) :
-                                    Math.max(0, 255 - (((255 - src[1]) << 7) / dst[1]));
-                            result[2] = dst[2] + src[2] < 256 ?
-                                    (src[2] == 255 ? 255 :
-                                            Math.min(255, (dst[2] << 7) / (255 - src[2]))) :
-                                    Math.max(0, 255 - (((255 - src[2]) << 7) / dst[2]));
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case SOFT_LIGHT:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            int mRed = src[0] * dst[0] / 255;
-                            int mGreen = src[1] * dst[1] / 255;
-                            int mBlue = src[2] * dst[2] / 255;
-                            result[0] = mRed + src[0] * (255 - ((255 - src[0]) * (255 - dst[0]) / 255) - mRed) / 255;
-                            result[1] = mGreen + src[1] * (255 - ((255 - src[1]) * (255 - dst[1]) / 255) - mGreen) / 255;
-                            result[2] = mBlue + src[2] * (255 - ((255 - src[2]) * (255 - dst[2]) / 255) - mBlue) / 255;
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case STAMP:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = Math.max(0, Math.min(255, dst[0] + 2 * src[0] - 256));
-                            result[1] = Math.max(0, Math.min(255, dst[1] + 2 * src[1] - 256));
-                            result[2] = Math.max(0, Math.min(255, dst[2] + 2 * src[2] - 256));
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-                case SUBTRACT:
-                    return new Blender() {
-                        @Override
-                        public void blend(int[] src, int[] dst, int[] result) {
-                            result[0] = Math.max(0, src[0] + dst[0] - 256);
-                            result[1] = Math.max(0, src[1] + dst[1] - 256);
-                            result[2] = Math.max(0, src[2] + dst[2] - 256);
-                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
-                        }
-                    };
-            }
-            throw new IllegalArgumentException("Blender not implemented for " +
-                    composite.getMode().name());
+    /**
+     * Blends a row of INT_ARGB source pixels into the destination pixels.
+     * Each blending mode has its own loop, so that the
+     * channel formulas can be inlined into it.
+     */
+    private static void blendRow(BlendingMode mode, int[] src, int[] dst, int width,
+                                 float opacity, float[] srcHSL, float[] dstHSL, int[] rgb) {
+        switch (mode) {
+            case CROSS_FADE:
+                // takes all the values from the src (upper) layer,
+                // the cross-fading results from the opacity
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d, red(s), green(s), blue(s), alpha(s), opacity);
+                }
+                break;
+            case AVERAGE:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            average(red(s), red(d)),
+                            average(green(s), green(d)),
+                            average(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            multiply(red(s), red(d)),
+                            multiply(green(s), green(d)),
+                            multiply(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case SCREEN:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            screen(red(s), red(d)),
+                            screen(green(s), green(d)),
+                            screen(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case DARKEN:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            darken(red(s), red(d)),
+                            darken(green(s), green(d)),
+                            darken(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case LIGHTEN:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            lighten(red(s), red(d)),
+                            lighten(green(s), green(d)),
+                            lighten(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case OVERLAY:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            overlay(red(s), red(d)),
+                            overlay(green(s), green(d)),
+                            overlay(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case HARD_LIGHT:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            hardLight(red(s), red(d)),
+                            hardLight(green(s), green(d)),
+                            hardLight(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case SOFT_LIGHT:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            softLight(red(s), red(d)),
+                            softLight(green(s), green(d)),
+                            softLight(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case DIFFERENCE:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            difference(red(s), red(d)),
+                            difference(green(s), green(d)),
+                            difference(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case NEGATION:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            negation(red(s), red(d)),
+                            negation(green(s), green(d)),
+                            negation(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case EXCLUSION:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            exclusion(red(s), red(d)),
+                            exclusion(green(s), green(d)),
+                            exclusion(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case COLOR_DODGE:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            colorDodge(red(s), red(d)),
+                            colorDodge(green(s), green(d)),
+                            colorDodge(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case INVERSE_COLOR_DODGE:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            inverseColorDodge(red(s), red(d)),
+                            inverseColorDodge(green(s), green(d)),
+                            inverseColorDodge(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case SOFT_DODGE:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            softDodge(red(s), red(d)),
+                            softDodge(green(s), green(d)),
+                            softDodge(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case COLOR_BURN:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            colorBurn(red(s), red(d)),
+                            colorBurn(green(s), green(d)),
+                            colorBurn(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case INVERSE_COLOR_BURN:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            inverseColorBurn(red(s), red(d)),
+                            inverseColorBurn(green(s), green(d)),
+                            inverseColorBurn(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case SOFT_BURN:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            softBurn(red(s), red(d)),
+                            softBurn(green(s), green(d)),
+                            softBurn(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case REFLECT:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            reflect(red(s), red(d)),
+                            reflect(green(s), green(d)),
+                            reflect(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case GLOW:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            glow(red(s), red(d)),
+                            glow(green(s), green(d)),
+                            glow(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case FREEZE:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            freeze(red(s), red(d)),
+                            freeze(green(s), green(d)),
+                            freeze(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case HEAT:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            heat(red(s), red(d)),
+                            heat(green(s), green(d)),
+                            heat(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case ADD:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            add(red(s), red(d)),
+                            add(green(s), green(d)),
+                            add(blue(s), blue(d)),
+                            Math.min(255, alpha(s) + alpha(d)), opacity);
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            subtract(red(s), red(d)),
+                            subtract(green(s), green(d)),
+                            subtract(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case STAMP:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d,
+                            stamp(red(s), red(d)),
+                            stamp(green(s), green(d)),
+                            stamp(blue(s), blue(d)),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case RED:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d, red(s), green(d), blue(d),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case GREEN:
+                // the same channel as in the original SwingX code
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d, red(d), green(d), blue(s),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case BLUE:
+                // the same channel as in the original SwingX code
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    dst[i] = mix(d, red(d), green(s), blue(d),
+                            unionAlpha(s, d), opacity);
+                }
+                break;
+            case HUE:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    ColorUtilities.RGBtoHSL(red(s), green(s), blue(s), srcHSL);
+                    ColorUtilities.RGBtoHSL(red(d), green(d), blue(d), dstHSL);
+                    ColorUtilities.HSLtoRGB(srcHSL[0], dstHSL[1], dstHSL[2], rgb);
+                    dst[i] = mix(d, rgb[0], rgb[1], rgb[2], unionAlpha(s, d), opacity);
+                }
+                break;
+            case SATURATION:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    ColorUtilities.RGBtoHSL(red(s), green(s), blue(s), srcHSL);
+                    ColorUtilities.RGBtoHSL(red(d), green(d), blue(d), dstHSL);
+                    ColorUtilities.HSLtoRGB(dstHSL[0], srcHSL[1], dstHSL[2], rgb);
+                    dst[i] = mix(d, rgb[0], rgb[1], rgb[2], unionAlpha(s, d), opacity);
+                }
+                break;
+            case COLOR:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    ColorUtilities.RGBtoHSL(red(s), green(s), blue(s), srcHSL);
+                    ColorUtilities.RGBtoHSL(red(d), green(d), blue(d), dstHSL);
+                    ColorUtilities.HSLtoRGB(srcHSL[0], srcHSL[1], dstHSL[2], rgb);
+                    dst[i] = mix(d, rgb[0], rgb[1], rgb[2], unionAlpha(s, d), opacity);
+                }
+                break;
+            case LUMINOSITY:
+                for (int i = 0; i < width; i++) {
+                    int s = src[i];
+                    int d = dst[i];
+                    ColorUtilities.RGBtoHSL(red(s), green(s), blue(s), srcHSL);
+                    ColorUtilities.RGBtoHSL(red(d), green(d), blue(d), dstHSL);
+                    ColorUtilities.HSLtoRGB(dstHSL[0], dstHSL[1], srcHSL[2], rgb);
+                    dst[i] = mix(d, rgb[0], rgb[1], rgb[2], unionAlpha(s, d), opacity);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Blender not implemented for " + mode.name());
         }
     }
+
+    /**
+     * Mixes the blended channel values with the destination pixel according to the opacity.
+     */
+    private static int mix(int d, int r, int g, int b, int a, float opacity) {
+        int dr = red(d);
+        int dg = green(d);
+        int db = blue(d);
+        int da = alpha(d);
+        return (((int) (da + (a - da) * opacity) & 0xFF) << 24) |
+                (((int) (dr + (r - dr) * opacity) & 0xFF) << 16) |
+                (((int) (dg + (g - dg) * opacity) & 0xFF) << 8) |
+                ((int) (db + (b - db) * opacity) & 0xFF);
+    }
+
+    private static int red(int pixel) {
+        return (pixel >> 16) & 0xFF;
+    }
+
+    private static int green(int pixel) {
+        return (pixel >> 8) & 0xFF;
+    }
+
+    private static int blue(int pixel) {
+        return pixel & 0xFF;
+    }
+
+    private static int alpha(int pixel) {
+        return (pixel >> 24) & 0xFF;
+    }
+
+    private static int unionAlpha(int s, int d) {
+        int sa = alpha(s);
+        int da = alpha(d);
+        return Math.min(255, sa + da - (sa * da) / 255);
+    }
+
+    private static int average(int s, int d) {
+        return (s + d) >> 1;
+    }
+
+    private static int multiply(int s, int d) {
+        return (s * d) >> 8;
+    }
+
+    private static int screen(int s, int d) {
+        return 255 - (((255 - s) * (255 - d)) >> 8);
+    }
+
+    private static int darken(int s, int d) {
+        return Math.min(s, d);
+    }
+
+    private static int lighten(int s, int d) {
+        return Math.max(s, d);
+    }
+
+    private static int overlay(int s, int d) {
+        return (d < 128) ? ((d * s) >> 7) :
+                (255 - (((255 - d) * (255 - s)) >> 7));
+    }
+
+    private static int hardLight(int s, int d) {
+        return (s < 128) ? ((d * s) >> 7) :
+                (255 - (((255 - s) * (255 - d)) >> 7));
+    }
+
+    private static int softLight(int s, int d) {
+        int m = s * d / 255;
+        return m + s * (255 - ((255 - s) * (255 - d) / 255) - m) / 255;
+    }
+
+    private static int difference(int s, int d) {
+        return Math.abs(d - s);
+    }
+
+    private static int negation(int s, int d) {
+        return 255 - Math.abs(255 - d - s);
+    }
+
+    private static int exclusion(int s, int d) {
+        return (d + s) - ((d * s) >> 7);
+    }
+
+    private static int colorDodge(int s, int d) {
+        return s == 255 ? 255 :
+                Math.min((d << 8) / (255 - s), 255);
+    }
+
+    private static int inverseColorDodge(int s, int d) {
+        return d == 255 ? 255 :
+                Math.min((s << 8) / (255 - d), 255);
+    }
+
+    private static int softDodge(int s, int d) {
+        return d + s < 256 ?
+                (s == 255 ? 255 : Math.min(255, (d << 7) / (255 - s))) :
+                Math.max(0, 255 - (((255 - s) << 7) / d));
+    }
+
+    private static int colorBurn(int s, int d) {
+        return s == 0 ? 0 :
+                Math.max(0, 255 - (((255 - d) << 8) / s));
+    }
+
+    private static int inverseColorBurn(int s, int d) {
+        return d == 0 ? 0 :
+                Math.max(0, 255 - (((255 - s) << 8) / d));
+    }
+
+    private static int softBurn(int s, int d) {
+        return d + s < 256 ?
+                (d == 255 ? 255 : Math.min(255, (s << 7) / (255 - d))) :
+                Math.max(0, 255 - (((255 - d) << 7) / s));
+    }
+
+    private static int reflect(int s, int d) {
+        return s == 255 ? 255 :
+                Math.min(255, d * d / (255 - s));
+    }
+
+    private static int glow(int s, int d) {
+        return d == 255 ? 255 :
+                Math.min(255, s * s / (255 - d));
+    }
+
+    private static int freeze(int s, int d) {
+        return s == 0 ? 0 :
+                Math.max(0, 255 - (255 - d) * (255 - d) / s);
+    }
+
+    private static int heat(int s, int d) {
+        return d == 0 ? 0 :
+                Math.max(0, 255 - (255 - s) * (255 - s) / d);
+    }
+
+    private static int add(int s, int d) {
+        return Math.min(255, s + d);
+    }
+
+    private static int subtract(int s, int d) {
+        return Math.max(0, s + d - 256);
+    }
+
+    private static int stamp(int s, int d) {
+        return Math.max(0, Math.min(255, d + 2 * s - 256));
+    }
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import pixelitor.utils.ImageUtils;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * The red, green and blue histograms of the composite image of a
+ * {@link Composition}. They are calculated lazily, and when the composite
+ * image is updated only in some regions, the counts of the old pixels
+ * in these regions are subtracted and the counts of the new pixels are added.
+ *
+ * For very big images only every n-th row is counted, and
+ * the counts are multiplied by n.
+ */
+public class CompositeHistogram {
+    public static final int NUM_BINS = 256;
+
+    // smaller images are scanned on the calling thread
+    private static final int MIN_PIXELS_FOR_PARALLEL = 1_000_000;
+
+    // bigger images are sampled
+    private static final long MAX_COUNTED_PIXELS = 16_000_000;
+
+    private final int[] reds = new int[NUM_BINS];
+    private final int[] greens = new int[NUM_BINS];
+    private final int[] blues = new int[NUM_BINS];
+
+    // only every rowStep-th row is counted
+    private int rowStep = 1;
+
+    private boolean valid = false;
+
+    CompositeHistogram() {
+    }
+
+    /**
+     * Calculates the histograms if necessary. The given
+     * composite image must be up-to-date.
+     */
+    void update(BufferedImage composite) {
+        if (!valid) {
+            calcFull(composite);
+            valid = true;
+        }
+    }
+
+    public int[] getReds() {
+        assert valid;
+        return reds.clone();
+    }
+
+    public int[] getGreens() {
+        assert valid;
+        return greens.clone();
+    }
+
+    public int[] getBlues() {
+        assert valid;
+        return blues.clone();
+    }
+
+    /**
+     * Returns true if only every n-th row of the image was counted
+     */
+    public boolean isSampled() {
+        return rowStep > 1;
+    }
+
+    void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Must be called before the given region of the composite image is updated
+     */
+    void beforeRegionUpdate(BufferedImage composite, Rectangle region) {
+        if (valid) {
+            if (ImageUtils.hasPackedIntArray(composite)) {
+                countRegion(composite, region, -rowStep);
+            } else {
+                // getting the pixels would copy the whole image
+                valid = false;
+            }
+        }
+    }
+
+    /**
+     * Must be called after the given region of the composite image was updated
+     */
+    void afterRegionUpdate(BufferedImage composite, Rectangle region) {
+        if (valid) {
+            countRegion(composite, region, rowStep);
+        }
+    }
+
+    private void countRegion(BufferedImage composite, Rectangle region, int weight) {
+        int[] pixels = ImageUtils.getPixelsAsArray(composite);
+        int width = composite.getWidth();
+
+        // the same rows are counted as in a full calculation
+        int firstRow = (region.y + rowStep - 1) / rowStep * rowStep;
+        int maxY = region.y + region.height;
+        int maxX = region.x + region.width;
+        for (int y = firstRow; y < maxY; y += rowStep) {
+            int rowStart = y * width;
+            for (int x = region.x; x < maxX; x++) {
+                int rgb = pixels[rowStart + x];
+                if ((rgb >>> 24) > 0) {
+                    reds[(rgb >>> 16) & 0xFF] += weight;
+                    greens[(rgb >>> 8) & 0xFF] += weight;
+                    blues[rgb & 0xFF] += weight;
+                }
+            }
+        }
+    }
+
+    private void calcFull(BufferedImage composite) {
+        int width = composite.getWidth();
+        int height = composite.getHeight();
+        long numPixels = (long) width * height;
+        rowStep = (int) Math.max(1, (numPixels + MAX_COUNTED_PIXELS - 1) / MAX_COUNTED_PIXELS);
+
+        int[] pixels = ImageUtils.getPixelsAsArray(composite);
+        int numRows = (height + rowStep - 1) / rowStep;
+        int[][] counts;
+        if (numPixels / rowStep < MIN_PIXELS_FOR_PARALLEL
+                || ThreadPool.getNumThreads() < 2 || ThreadPool.isPoolThread()) {
+            counts = countRows(pixels, width, 0, numRows, rowStep);
+        } else {
+            counts = countRowsInParallel(pixels, width, numRows, rowStep);
+        }
+
+        for (int i = 0; i < NUM_BINS; i++) {
+            reds[i] = counts[0][i] * rowStep;
+            greens[i] = counts[1][i] * rowStep;
+            blues[i] = counts[2][i] * rowStep;
+        }
+    }
+
+    private static int[][] countRowsInParallel(int[] pixels, int width,
+                                               int numRows, int rowStep) {
+        int numTasks = ThreadPool.getNumThreads();
+        int rowsPerTask = (numRows + numTasks - 1) / numTasks;
+        List<Future<int[][]>> futures = new ArrayList<>(numTasks);
+        for (int first = 0; first < numRows; first += rowsPerTask) {
+            int from = first;
+            int to = Math.min(numRows, first + rowsPerTask);
+            futures.add(ThreadPool.submit2(() ->
+                    countRows(pixels, width, from, to, rowStep)));
+        }
+
+        int[][] sum = new int[3][NUM_BINS];
+        for (Future<int[][]> future : futures) {
+            int[][] counts;
+            try {
+                counts = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            for (int channel = 0; channel < 3; channel++) {
+                for (int i = 0; i < NUM_BINS; i++) {
+                    sum[channel][i] += counts[channel][i];
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Counts the given range of the sampled rows
+     * into new red, green and blue arrays
+     */
+    private static int[][] countRows(int[] pixels, int width,
+                                     int fromRow, int toRow, int rowStep) {
+        int[] r = new int[NUM_BINS];
+        int[] g = new int[NUM_BINS];
+        int[] b = new int[NUM_BINS];
+        for (int row = fromRow; row < toRow; row++) {
+            int rowStart = row * rowStep * width;
+            int rowEnd = rowStart + width;
+            for (int i = rowStart; i < rowEnd; i++) {
+                int rgb = pixels[i];
+                if ((rgb >>> 24) > 0) {
+                    r[(rgb >>> 16) & 0xFF]++;
+                    g[(rgb >>> 8) & 0xFF]++;
+                    b[rgb & 0xFF]++;
+                }
+            }
+        }
+        return new int[][]{r, g, b};
+    }
+}
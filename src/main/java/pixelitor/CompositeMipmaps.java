@@ -0,0 +1,239 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import pixelitor.utils.ImageUtils;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+
+/**
+ * A lazily built mipmap pyramid of the composite image of a {@link Composition}.
+ * Level n is the composite image downscaled by 2^n, so that zoomed-out views
+ * can paint a pre-downscaled image instead of scaling the full-resolution
+ * composite image at every repaint.
+ *
+ * The levels are not rebuilt when the composite image is updated
+ * only in some regions, only these regions are downscaled again.
+ */
+public class CompositeMipmaps {
+    public static final int MAX_LEVEL = 6;
+
+    // if there are more, the level is rebuilt from scratch
+    private static final int MAX_DIRTY_REGIONS = 16;
+
+    // index 0 would be the composite image itself, it's not stored here
+    private final BufferedImage[] levels = new BufferedImage[MAX_LEVEL + 1];
+
+    // the changed regions of each level, in image-space coordinates
+    private final List<List<Rectangle>> dirtyRegions = new ArrayList<>();
+
+    CompositeMipmaps() {
+        for (int i = 0; i <= MAX_LEVEL; i++) {
+            dirtyRegions.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Returns the mipmap level that should be painted at the given
+     * zoom scaling, or 0 if the composite image itself should be used.
+     * The returned level is never smaller than the scaling, so that
+     * no detail is lost when painting it.
+     */
+    public static int levelFor(double scaling) {
+        int level = 0;
+        // the small tolerance is for zoom levels like 12.5%
+        while (level < MAX_LEVEL && scaling * 2 <= 1.0001) {
+            scaling *= 2;
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Returns the given level, updating it from the given,
+     * already up-to-date composite image if necessary.
+     */
+    BufferedImage getLevel(BufferedImage composite, int level) {
+        assert level > 0 && level <= MAX_LEVEL : "level = " + level;
+
+        BufferedImage src;
+        if (level == 1) {
+            src = composite;
+        } else {
+            src = getLevel(composite, level - 1);
+        }
+
+        int width = levelSize(composite.getWidth(), level);
+        int height = levelSize(composite.getHeight(), level);
+        BufferedImage dest = levels[level];
+        List<Rectangle> regions = dirtyRegions.get(level);
+        if (dest == null || dest.getWidth() != width || dest.getHeight() != height) {
+            if (dest != null) {
+                dest.flush();
+            }
+            dest = new BufferedImage(width, height, TYPE_INT_ARGB_PRE);
+            levels[level] = dest;
+            downscale(src, dest, new Rectangle(0, 0, width, height));
+        } else {
+            for (Rectangle region : regions) {
+                Rectangle levelRegion = toLevel(region, level)
+                        .intersection(new Rectangle(0, 0, width, height));
+                if (!levelRegion.isEmpty()) {
+                    downscale(src, dest, levelRegion);
+                }
+            }
+        }
+        regions.clear();
+        return dest;
+    }
+
+    /**
+     * Marks the given image-space region of the composite image
+     * as changed in all the levels that were already built.
+     */
+    void regionChanged(Rectangle region) {
+        for (int level = 1; level <= MAX_LEVEL; level++) {
+            if (levels[level] == null) {
+                continue;
+            }
+            List<Rectangle> regions = dirtyRegions.get(level);
+            Rectangle merged = new Rectangle(region);
+            for (Iterator<Rectangle> it = regions.iterator(); it.hasNext(); ) {
+                Rectangle existing = it.next();
+                if (existing.intersects(merged)) {
+                    merged.add(existing);
+                    it.remove();
+                }
+            }
+            regions.add(merged);
+
+            if (regions.size() > MAX_DIRTY_REGIONS) {
+                // it's simpler to rebuild it
+                levels[level].flush();
+                levels[level] = null;
+                regions.clear();
+            }
+        }
+    }
+
+    /**
+     * Throws away all the levels, they will be rebuilt when needed
+     */
+    void invalidate() {
+        for (int level = 1; level <= MAX_LEVEL; level++) {
+            if (levels[level] != null) {
+                levels[level].flush();
+                levels[level] = null;
+            }
+            dirtyRegions.get(level).clear();
+        }
+    }
+
+    private static int levelSize(int size, int level) {
+        // round up, so that the last, partial pixels are also included
+        return (size + (1 << level) - 1) >> level;
+    }
+
+    /**
+     * Converts an image-space rectangle into the coordinates of the given level
+     */
+    private static Rectangle toLevel(Rectangle r, int level) {
+        int x1 = r.x >> level;
+        int y1 = r.y >> level;
+        int x2 = levelSize(r.x + r.width, level);
+        int y2 = levelSize(r.y + r.height, level);
+        return new Rectangle(x1, y1, x2 - x1, y2 - y1);
+    }
+
+    /**
+     * Calculates the given region of the destination image by averaging
+     * 2x2 blocks of the source image, which is twice as big.
+     * Averaging premultiplied values gives the correct result
+     * also for the semi-transparent pixels.
+     */
+    private static void downscale(BufferedImage src, BufferedImage dest, Rectangle destRegion) {
+        int srcWidth = src.getWidth();
+        int srcHeight = src.getHeight();
+
+        int srcX = destRegion.x * 2;
+        int srcY = destRegion.y * 2;
+        int[] srcPixels;
+        int srcOffset;
+        int srcStride;
+        if (src.getType() == TYPE_INT_ARGB_PRE) {
+            srcPixels = ImageUtils.getPixelsAsArray(src);
+            srcOffset = 0;
+            srcStride = srcWidth;
+        } else {
+            // the result of an adjustment layer can have any
+            // type, copy the needed part into a known format
+            int regionWidth = Math.min(destRegion.width * 2, srcWidth - srcX);
+            int regionHeight = Math.min(destRegion.height * 2, srcHeight - srcY);
+            BufferedImage tmp = new BufferedImage(regionWidth, regionHeight, TYPE_INT_ARGB_PRE);
+            Graphics2D g = tmp.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(src, -srcX, -srcY, null);
+            g.dispose();
+
+            srcPixels = ImageUtils.getPixelsAsArray(tmp);
+            srcStride = regionWidth;
+            srcOffset = -srcY * srcStride - srcX;
+        }
+
+        int[] destPixels = ImageUtils.getPixelsAsArray(dest);
+        int destWidth = dest.getWidth();
+        int maxX = destRegion.x + destRegion.width;
+        int maxY = destRegion.y + destRegion.height;
+
+        for (int y = destRegion.y; y < maxY; y++) {
+            int sy1 = y * 2;
+            int sy2 = Math.min(sy1 + 1, srcHeight - 1);
+            int row1 = srcOffset + sy1 * srcStride;
+            int row2 = srcOffset + sy2 * srcStride;
+            int destIndex = y * destWidth + destRegion.x;
+            for (int x = destRegion.x; x < maxX; x++) {
+                int sx1 = x * 2;
+                int sx2 = Math.min(sx1 + 1, srcWidth - 1);
+
+                int p1 = srcPixels[row1 + sx1];
+                int p2 = srcPixels[row1 + sx2];
+                int p3 = srcPixels[row2 + sx1];
+                int p4 = srcPixels[row2 + sx2];
+
+                // the +2 rounds to the nearest value
+                int a = ((p1 >>> 24) + (p2 >>> 24) + (p3 >>> 24) + (p4 >>> 24) + 2) >> 2;
+                int r = (((p1 >> 16) & 0xFF) + ((p2 >> 16) & 0xFF)
+                        + ((p3 >> 16) & 0xFF) + ((p4 >> 16) & 0xFF) + 2) >> 2;
+                int g = (((p1 >> 8) & 0xFF) + ((p2 >> 8) & 0xFF)
+                        + ((p3 >> 8) & 0xFF) + ((p4 >> 8) & 0xFF) + 2) >> 2;
+                int b = ((p1 & 0xFF) + (p2 & 0xFF)
+                        + (p3 & 0xFF) + (p4 & 0xFF) + 2) >> 2;
+
+                destPixels[destIndex++] = a << 24 | r << 16 | g << 8 | b;
+            }
+        }
+    }
+}
@@ -75,6 +75,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -98,6 +99,13 @@ public class Composition implements Serializable {
     // serialization is used for saving in the pxc format
     private static final long serialVersionUID = 1L;
 
+    // above this many separate dirty regions it's
+    // simpler to recalculate the whole composite image
+    private static final int MAX_DIRTY_REGIONS = 16;
+
+    // smaller composite images are always calculated on the EDT
+    private static final int MIN_PIXELS_FOR_BACKGROUND_COMPOSITE = 2_000_000;
+
     // a counter for the names of new layers
     private int newLayerCount = 1;
 
@@ -117,6 +125,34 @@ public class Composition implements Serializable {
 
     private transient BufferedImage compositeImage;
 
+    // the canvas regions (in image space) that changed since the
+    // composite image was calculated, they are recomposited
+    // the next time the composite image is requested
+    private transient List<Rectangle> dirtyRegions = new ArrayList<>();
+
+    // the flattened layers bellow and above the active layer
+    private transient LayerStacks layerStacks = new LayerStacks();
+
+    // the downscaled versions of the composite image for zoomed-out views
+    private transient CompositeMipmaps mipmaps = new CompositeMipmaps();
+
+    // the histograms of the composite image, updated together with it
+    private transient CompositeHistogram histogram = new CompositeHistogram();
+
+    // The last composite image before the cache was invalidated.
+    // The view can paint it while the new one is calculated in the background.
+    private transient BufferedImage lastCompositeImage;
+
+    // increased each time the composite image is invalidated,
+    // so that outdated background calculations can be detected
+    private transient long compositeGeneration;
+
+    private transient boolean compositingInBackground;
+
+    // the regions that changed while the composite
+    // image was calculated in the background
+    private transient List<Rectangle> regionsChangedInBackground = new ArrayList<>();
+
     private transient View view;
 
     private transient Selection selection;
@@ -219,6 +255,12 @@ public class Composition implements Serializable {
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         // init transient variables
         compositeImage = null; // will be set when needed
+        dirtyRegions = new ArrayList<>();
+        layerStacks = new LayerStacks();
+        mipmaps = new CompositeMipmaps();
+        histogram = new CompositeHistogram();
+        lastCompositeImage = null;
+        regionsChangedInBackground = new ArrayList<>();
         file = null; // will be set later
         dirty = false;
         view = null; // will be set later
@@ -400,6 +442,8 @@ public class Composition implements Serializable {
             bellowLayer.setImage(result);
         }
         g.dispose();
+        // the image was changed in place
+        bellowLayer.contentChanged();
 
         bellowLayer.updateIconImage();
 
@@ -470,6 +514,18 @@ public class Composition implements Serializable {
         Layer oldLayer = activeLayer;
         activeLayer = newActiveLayer;
 
+        // the cached stacks were calculated for the old active layer
+        layerStacks.invalidate();
+
+        // the active layer is edited directly, but the inactive
+        // layers can be stored in less memory until they are needed
+        if (newActiveLayer instanceof ImageLayer) {
+            ((ImageLayer) newActiveLayer).restoreFromTiles();
+        }
+        if (oldLayer instanceof ImageLayer && layerList.contains(oldLayer)) {
+            ((ImageLayer) oldLayer).storeInTilesIfUseful();
+        }
+
         if (updateGUI) {
             activeLayer.activateUI();
             Layers.activeLayerChanged(newActiveLayer, false);
@@ -655,7 +711,8 @@ public class Composition implements Serializable {
                 selection.moveWhileDragging(relImX, relImY);
             }
         }
-        imageChanged();
+        // only the active layer or its mask moves
+        layerImageChanged(activeLayer, FULL);
     }
 
     public void endMovement(MoveMode mode) {
@@ -692,7 +749,7 @@ public class Composition implements Serializable {
         }
 
         int numLayers = getNumLayers();
-        BufferedImage bi = getCompositeImage();
+        BufferedImage bi = takeCompositeImage();
 
         Layer flattened = new ImageLayer(this, bi, "flattened");
         new LayerAdder(this)
@@ -813,28 +870,26 @@ public class Composition implements Serializable {
 
 //        BufferedImage imageSoFar = ImageUtils.createCompatibleImage(getCanvasWidth(), getCanvasHeight());
 
-        BufferedImage imageSoFar = new BufferedImage(
-                canvas.getImWidth(), canvas.getImHeight(), TYPE_INT_ARGB_PRE);
-        Graphics2D g = imageSoFar.createGraphics();
+        return calculateCompositeImage(layerList, activeLayer,
+                canvas.getImWidth(), canvas.getImHeight());
+    }
 
-        boolean firstVisibleLayer = true;
-        for (Layer layer : layerList) {
-            if (layer.isVisible()) {
-                BufferedImage result = layer.applyLayer(g, imageSoFar, firstVisibleLayer);
-                if (result != null) { // adjustment layer or watermarking text layer
-                    imageSoFar = result;
-                    if (g != null) {
-                        g.dispose();
-                    }
-                    g = imageSoFar.createGraphics();
+    // the layers and the other state are given as arguments,
+    // because this can also run outside the EDT
+    private BufferedImage calculateCompositeImage(List<Layer> layers, Layer active,
+                                                  int width, int height) {
+        if (LayerStacks.shouldBeUsedFor(layers, active)) {
+            synchronized (layerStacks) {
+                if (!layerStacks.isValidFor(layers, active, width, height)) {
+                    layerStacks.rebuild(layers, active, width, height);
                 }
-                firstVisibleLayer = false;
+                return layerStacks.createComposite(layers);
             }
         }
 
-        g.dispose();
-
-        return imageSoFar;
+        BufferedImage imageSoFar = new BufferedImage(width, height, TYPE_INT_ARGB_PRE);
+        return TiledCompositor.applyLayers(layers, 0, layers.size(),
+                imageSoFar, true);
     }
 
     public String generateNewLayerName() {
@@ -844,7 +899,14 @@ public class Composition implements Serializable {
     }
 
     public void repaintRegion(PPoint start, PPoint end, double thickness) {
-        invalidateCompositeCache();
+        double minX = Math.min(start.getImX(), end.getImX()) - thickness;
+        double minY = Math.min(start.getImY(), end.getImY()) - thickness;
+        double maxX = Math.max(start.getImX(), end.getImX()) + thickness;
+        double maxY = Math.max(start.getImY(), end.getImY()) + thickness;
+        // the brushes paint on the active layer
+        activeLayer.contentChanged();
+        addDirtyRegion(new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY));
+
         if (view != null) { // during reload image it can be null
             view.repaintRegion(start, end, thickness);
             view.repaintNavigator(false);
@@ -852,7 +914,8 @@ public class Composition implements Serializable {
     }
 
     public void repaintRegion(PRectangle area) {
-        invalidateCompositeCache();
+        activeLayer.contentChanged();
+        addDirtyRegion(area.getIm());
         if (view != null) { // during reload image it can be null
             view.repaintRegion(area);
             view.repaintNavigator(false);
@@ -868,7 +931,7 @@ public class Composition implements Serializable {
 
     public void addNewLayerFromComposite() {
         ImageLayer newLayer = new ImageLayer(this,
-                getCompositeImage(), "Composite");
+                takeCompositeImage(), "Composite");
 
         new LayerAdder(this)
                 .withHistory("New Layer from Composite")
@@ -1138,14 +1201,270 @@ public class Composition implements Serializable {
 
     /**
      * Returns the composite image, which has the same dimensions as the canvas.
+     * The returned image is cached and it can be updated in place when
+     * parts of the canvas change, therefore callers that keep
+     * a reference to it should make a copy.
      */
     public BufferedImage getCompositeImage() {
-        if(compositeImage == null) {
-            compositeImage = calculateCompositeImage();
+        if (compositeImage == null) {
+            setNewCompositeImage(calculateCompositeImage());
+        } else if (!dirtyRegions.isEmpty()) {
+            updateDirtyRegions();
         }
         return compositeImage;
     }
 
+    /**
+     * Returns a copy of the up-to-date composite image, which is not
+     * affected by later edits. Must be called on the EDT, the copy
+     * can be then used on any thread.
+     */
+    public BufferedImage getCompositeImageCopy() {
+        return ImageUtils.copyImage(getCompositeImage());
+    }
+
+    private void setNewCompositeImage(BufferedImage newImage) {
+        compositeImage = newImage;
+        lastCompositeImage = null;
+        dirtyRegions.clear();
+        mipmaps.invalidate();
+        histogram.invalidate();
+    }
+
+    /**
+     * Returns the histograms of the up-to-date composite image, or null
+     * if the composite image of a big canvas is being calculated in the
+     * background. In this case the histograms panel is updated when
+     * the calculation is finished.
+     */
+    public CompositeHistogram getHistogram() {
+        if (compositeImage == null && canCompositeInBackground()) {
+            startBackgroundComposite();
+            return null;
+        }
+        histogram.update(getCompositeImage());
+        return histogram;
+    }
+
+    /**
+     * Returns the image that should be painted by the view at the given
+     * mipmap level. If the composite image must be recalculated for a big
+     * canvas, then this happens in the background and until it's ready,
+     * the previous composite image (the last frame) is returned.
+     * The view is repainted when the new composite image is available.
+     */
+    public BufferedImage getViewImage(int mipmapLevel) {
+        if (compositeImage == null && canCompositeInBackground()) {
+            startBackgroundComposite();
+            if (mipmapLevel == 0) {
+                return lastCompositeImage;
+            }
+            return mipmaps.getLevel(lastCompositeImage, mipmapLevel);
+        }
+        return getCompositeMipmap(mipmapLevel);
+    }
+
+    private boolean canCompositeInBackground() {
+        if (lastCompositeImage == null || view == null) {
+            return false;
+        }
+        int width = canvas.getImWidth();
+        int height = canvas.getImHeight();
+        if (lastCompositeImage.getWidth() != width
+                || lastCompositeImage.getHeight() != height) {
+            return false;
+        }
+        return (long) width * height >= MIN_PIXELS_FOR_BACKGROUND_COMPOSITE;
+    }
+
+    /**
+     * Starts calculating the composite image on a background thread,
+     * unless a calculation is already running. Only one calculation runs
+     * at a time, the later requests are coalesced into the next one.
+     */
+    private void startBackgroundComposite() {
+        if (compositingInBackground) {
+            return;
+        }
+        compositingInBackground = true;
+        regionsChangedInBackground.clear();
+
+        long generation = compositeGeneration;
+        List<Layer> layers = new ArrayList<>(layerList);
+        Layer active = activeLayer;
+        int width = canvas.getImWidth();
+        int height = canvas.getImHeight();
+
+        CompletableFuture
+                .supplyAsync(() -> calculateCompositeImage(layers, active, width, height),
+                        TiledCompositor.getBackgroundExecutor())
+                .whenComplete((img, e) -> EventQueue.invokeLater(
+                        () -> backgroundCompositeFinished(generation, img, e)));
+    }
+
+    private void backgroundCompositeFinished(long generation, BufferedImage img, Throwable e) {
+        assert EventQueue.isDispatchThread();
+        compositingInBackground = false;
+
+        if (compositeImage != null) {
+            // it was calculated on the EDT in the meantime
+            return;
+        }
+        if (e != null) {
+            // the layers might have changed during the calculation,
+            // let the next repaint calculate it on the EDT
+            lastCompositeImage = null;
+        } else if (generation == compositeGeneration) {
+            setNewCompositeImage(img);
+            // the edits during the calculation only affected some
+            // regions, and these can be updated on the EDT
+            for (Rectangle region : regionsChangedInBackground) {
+                addDirtyRegion(region);
+            }
+            if (isActive()) {
+                // the histograms were not calculated synchronously
+                HistogramsPanel.INSTANCE.updateFrom(this);
+            }
+        }
+        // if the result is outdated, it is dropped, and the
+        // repaint will start a new calculation
+        regionsChangedInBackground.clear();
+
+        if (view != null) {
+            view.repaint();
+        }
+    }
+
+    /**
+     * Returns the composite image downscaled by 2^level, see
+     * {@link CompositeMipmaps#levelFor(double)}. Like the composite image,
+     * the returned image is cached and can be updated in place.
+     */
+    public BufferedImage getCompositeMipmap(int level) {
+        BufferedImage composite = getCompositeImage();
+        if (level == 0) {
+            return composite;
+        }
+        return mipmaps.getLevel(composite, level);
+    }
+
+    /**
+     * Returns the up-to-date composite image and removes it from the
+     * cache, so that it can be used as the image of a new layer.
+     */
+    private BufferedImage takeCompositeImage() {
+        BufferedImage img = getCompositeImage();
+        compositeImage = null;
+        return img;
+    }
+
+    /**
+     * Marks the given image-space region as changed. The composite image
+     * is not thrown away, only the given region will be recalculated.
+     */
+    private void addDirtyRegion(Rectangle2D area) {
+        if (compositeImage == null) {
+            if (compositingInBackground) {
+                // the running calculation might have missed this change
+                regionsChangedInBackground.add(area.getBounds());
+            }
+            return; // a full recalculation is needed anyway
+        }
+
+        // round outwards, so that the antialiased edges are also included
+        Rectangle region = area.getBounds();
+        region.grow(1, 1);
+        region = region.intersection(canvas.getImBounds());
+        if (region.isEmpty()) {
+            return;
+        }
+
+        // merge it with the existing regions that it touches
+        // in order to keep the number of regions small
+        for (Iterator<Rectangle> it = dirtyRegions.iterator(); it.hasNext(); ) {
+            Rectangle existing = it.next();
+            if (existing.intersects(region)) {
+                region.add(existing);
+                it.remove();
+            }
+        }
+        dirtyRegions.add(region);
+
+        if (dirtyRegions.size() > MAX_DIRTY_REGIONS) {
+            invalidateCompositeCache();
+        }
+    }
+
+    /**
+     * Recomposites only the dirty regions of the cached composite image
+     */
+    private void updateDirtyRegions() {
+        assert compositeImage != null;
+
+        boolean useStacks = layerStacks.isValidFor(layerList, activeLayer,
+                canvas.getImWidth(), canvas.getImHeight());
+        if (!canUpdateRegions(useStacks)) {
+            // adjustment layers and watermarked text layers
+            // need the full image bellow them
+            invalidateCompositeCache();
+            setNewCompositeImage(calculateCompositeImage());
+            return;
+        }
+
+        for (Rectangle region : dirtyRegions) {
+            mipmaps.regionChanged(region);
+            histogram.beforeRegionUpdate(compositeImage, region);
+
+            Graphics2D g = compositeImage.createGraphics();
+            g.clip(region);
+            if (useStacks) {
+                layerStacks.paintRegion(layerList, g, compositeImage, region);
+            } else {
+                recompositeRegion(g, region);
+            }
+            g.dispose();
+
+            histogram.afterRegionUpdate(compositeImage, region);
+        }
+        dirtyRegions.clear();
+    }
+
+    private void recompositeRegion(Graphics2D g, Rectangle region) {
+        // clear the region, because the layers are painted from scratch
+        g.setComposite(AlphaComposite.Clear);
+        g.fill(region);
+
+        boolean firstVisibleLayer = true;
+        for (Layer layer : layerList) {
+            if (layer.isVisible()) {
+                BufferedImage result = layer.applyLayer(g, compositeImage, firstVisibleLayer);
+                assert result == null;
+                firstVisibleLayer = false;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the composite image can be calculated
+     * region by region, because no visible layer needs the
+     * whole image bellow it. If the layer stacks are used,
+     * only the active layer and the layers above it matter.
+     */
+    private boolean canUpdateRegions(boolean useStacks) {
+        if (compositeImage.getWidth() != canvas.getImWidth()
+                || compositeImage.getHeight() != canvas.getImHeight()) {
+            return false;
+        }
+        int firstIndex = useStacks ? layerStacks.getActiveIndex() : 0;
+        for (int i = firstIndex; i < layerList.size(); i++) {
+            Layer layer = layerList.get(i);
+            if (layer.isVisible() && layer.isAdjustment()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void imageChanged() {
         imageChanged(FULL);
     }
@@ -1159,8 +1478,26 @@ public class Composition implements Serializable {
      * and additional actions might be necessary
      */
     public void imageChanged(ImageChangeActions actions, boolean sizeChanged) {
+        // it's not known which layers changed
+        for (Layer layer : layerList) {
+            layer.contentChanged();
+        }
         invalidateCompositeCache();
+        runImageChangeActions(actions, sizeChanged);
+    }
+
+    /**
+     * Similar to {@link #imageChanged(ImageChangeActions)}, but only the given
+     * layer (or layer mask) changed, therefore the cached data
+     * depending only on the other layers can be kept.
+     */
+    public void layerImageChanged(Layer layer, ImageChangeActions actions) {
+        layer.contentChanged();
+        invalidateCompositeCache();
+        runImageChangeActions(actions, false);
+    }
 
+    private void runImageChangeActions(ImageChangeActions actions, boolean sizeChanged) {
         if (actions.repaintNeeded()) {
             if (view != null) {
                 view.repaint();
@@ -1176,8 +1513,12 @@ public class Composition implements Serializable {
     private void invalidateCompositeCache() {
         if(compositeImage != null) {
             compositeImage.flush();
+            // can be still painted until the new one is ready
+            lastCompositeImage = compositeImage;
         }
         compositeImage = null;
+        dirtyRegions.clear();
+        compositeGeneration++;
     }
 
     public boolean isActive() {
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import pixelitor.layers.BlendingMode;
+import pixelitor.layers.Layer;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+
+/**
+ * The cached, flattened images of the layers bellow and above
+ * the active layer of a {@link Composition}.
+ *
+ * When only the active layer changes (painting, moving, filter previews),
+ * the composite image can be calculated with a few image draws
+ * instead of applying every layer again.
+ * The cache is valid as long as the layer versions
+ * bellow and above the active layer don't change.
+ *
+ * The methods are synchronized, because the composite image
+ * can be also calculated outside the EDT.
+ */
+class LayerStacks {
+    // with fewer layers the stacks would not save anything
+    private static final int MIN_NUM_LAYERS = 3;
+
+    // the layers bellow the active layer, null if there are none visible
+    private BufferedImage belowImage;
+
+    // the layers above the active layer, null if there are none
+    // visible, or if they couldn't be flattened independently
+    private BufferedImage aboveImage;
+
+    // whether the layers above the active layer could be flattened
+    // independently of the image bellow them. This is possible if they
+    // are all normal layers, because "source over" is associative.
+    private boolean aboveFlattened;
+
+    private boolean belowHasVisible;
+
+    // the state for which the stack images were calculated
+    private Layer activeLayer;
+    private int activeIndex;
+    private int numLayers;
+    private int width;
+    private int height;
+    private long belowVersion;
+    private long aboveVersion;
+
+    /**
+     * Returns true if it's worth using the stacks for the given layers
+     */
+    static boolean shouldBeUsedFor(List<Layer> layers, Layer active) {
+        return active != null && layers.size() >= MIN_NUM_LAYERS;
+    }
+
+    synchronized boolean isValidFor(List<Layer> layers, Layer active, int width, int height) {
+        if (activeLayer == null || activeLayer != active) {
+            return false;
+        }
+        if (layers.size() != numLayers || this.width != width || this.height != height) {
+            return false;
+        }
+        if (layers.get(activeIndex) != active) {
+            return false;
+        }
+        return belowVersion == maxVersion(layers, 0, activeIndex)
+                && aboveVersion == maxVersion(layers, activeIndex + 1, numLayers);
+    }
+
+    /**
+     * Recalculates the stack images for the given active layer
+     */
+    synchronized void rebuild(List<Layer> layers, Layer active, int width, int height) {
+        invalidate();
+
+        activeLayer = active;
+        activeIndex = layers.indexOf(active);
+        assert activeIndex != -1;
+        numLayers = layers.size();
+        this.width = width;
+        this.height = height;
+        belowVersion = maxVersion(layers, 0, activeIndex);
+        aboveVersion = maxVersion(layers, activeIndex + 1, numLayers);
+
+        belowHasVisible = hasVisible(layers, 0, activeIndex);
+        if (belowHasVisible) {
+            belowImage = TiledCompositor.applyLayers(layers, 0, activeIndex,
+                    createEmptyImage(), true);
+        }
+
+        aboveFlattened = canBeFlattened(layers, activeIndex + 1, numLayers);
+        if (aboveFlattened && hasVisible(layers, activeIndex + 1, numLayers)) {
+            aboveImage = TiledCompositor.applyLayers(layers, activeIndex + 1, numLayers,
+                    createEmptyImage(), true);
+        }
+    }
+
+    /**
+     * Calculates the full composite image from the stack images
+     */
+    synchronized BufferedImage createComposite(List<Layer> layers) {
+        BufferedImage imageSoFar = createEmptyImage();
+        if (belowImage != null) {
+            Graphics2D g = imageSoFar.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(belowImage, 0, 0, null);
+            g.dispose();
+        }
+
+        imageSoFar = TiledCompositor.applyLayers(layers, activeIndex, activeIndex + 1,
+                imageSoFar, !belowHasVisible);
+
+        boolean firstVisibleLayer = !belowHasVisible && !activeLayer.isVisible();
+        if (aboveFlattened) {
+            if (aboveImage != null) {
+                Graphics2D g = imageSoFar.createGraphics();
+                g.drawImage(aboveImage, 0, 0, null);
+                g.dispose();
+            }
+        } else {
+            imageSoFar = TiledCompositor.applyLayers(layers, activeIndex + 1, numLayers,
+                    imageSoFar, firstVisibleLayer);
+        }
+        return imageSoFar;
+    }
+
+    /**
+     * Recalculates only the clipped region of the given composite image.
+     * The graphics must be clipped to the region, and the active layer
+     * and the layers above it must not need the full image bellow them.
+     */
+    synchronized void paintRegion(List<Layer> layers, Graphics2D g,
+                     BufferedImage composite, Rectangle region) {
+        if (belowImage != null) {
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(belowImage, 0, 0, null);
+        } else {
+            g.setComposite(AlphaComposite.Clear);
+            g.fill(region);
+        }
+
+        boolean firstVisibleLayer = !belowHasVisible;
+        if (activeLayer.isVisible()) {
+            BufferedImage result = activeLayer.applyLayer(g, composite, firstVisibleLayer);
+            assert result == null;
+            firstVisibleLayer = false;
+        }
+
+        if (aboveFlattened) {
+            if (aboveImage != null) {
+                g.setComposite(AlphaComposite.SrcOver);
+                g.drawImage(aboveImage, 0, 0, null);
+            }
+        } else {
+            for (int i = activeIndex + 1; i < numLayers; i++) {
+                Layer layer = layers.get(i);
+                if (layer.isVisible()) {
+                    BufferedImage result = layer.applyLayer(g, composite, firstVisibleLayer);
+                    assert result == null;
+                    firstVisibleLayer = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the active layer for which the stacks were calculated
+     */
+    synchronized int getActiveIndex() {
+        return activeIndex;
+    }
+
+    synchronized void invalidate() {
+        if (belowImage != null) {
+            belowImage.flush();
+            belowImage = null;
+        }
+        if (aboveImage != null) {
+            aboveImage.flush();
+            aboveImage = null;
+        }
+        activeLayer = null;
+    }
+
+    private BufferedImage createEmptyImage() {
+        return new BufferedImage(width, height, TYPE_INT_ARGB_PRE);
+    }
+
+    private static boolean hasVisible(List<Layer> layers, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (layers.get(i).isVisible()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean canBeFlattened(List<Layer> layers, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Layer layer = layers.get(i);
+            if (layer.isVisible()) {
+                if (layer.isAdjustment() || layer.getBlendingMode() != BlendingMode.NORMAL) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the biggest version in the given index range. As the layer
+     * versions are globally increasing, it changes whenever any of the layers
+     * in the range changes.
+     */
+    private static long maxVersion(List<Layer> layers, int from, int to) {
+        long max = 0;
+        for (int i = from; i < to; i++) {
+            max = Math.max(max, layers.get(i).getVersion());
+        }
+        return max;
+    }
+}
@@ -20,22 +20,42 @@ package pixelitor;
 import com.jhlabs.image.AbstractBufferedImageOp;
 import pixelitor.utils.ProgressTracker;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
- * A thread pool for parallel execution on multiple CPU cores
+ * A thread pool for parallel execution on multiple CPU cores.
+ *
+ * It's a work-stealing {@link ForkJoinPool}, so a pool thread waiting
+ * for other tasks of the pool (for example a filter running inside a
+ * resize task) helps executing them instead of blocking.
  */
 public class ThreadPool {
     private static final int NUM_CORES = Runtime.getRuntime().availableProcessors();
 
-    private static final ExecutorService executorService =
-            Executors.newFixedThreadPool(NUM_CORES);
+    // with the automatic grain size every thread gets about this many chunks
+    private static final int CHUNKS_PER_THREAD = 8;
+
+    // how often the progress is reported while waiting for a parallel loop
+    private static final int PROGRESS_INTERVAL_MILLIS = 50;
+
+    private static final ForkJoinPool executorService =
+            new ForkJoinPool(NUM_CORES, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                    null, false);
 
     private ThreadPool() {
     }
@@ -55,10 +75,133 @@ public class ThreadPool {
         return executorService.submit(task);
     }
 
+    /**
+     * Runs the given body for every index in the given range (from
+     * inclusive, to exclusive) in parallel, and waits until all are done.
+     * The range is split into chunks adapted to the number of threads,
+     * see {@link #parallelFor(int, int, int, IntConsumer, ProgressTracker)}.
+     */
+    public static void parallelFor(int from, int to, IntConsumer body, ProgressTracker pt) {
+        parallelFor(from, to, 1, body, pt);
+    }
+
+    /**
+     * Runs the given body for every index in the given range (from
+     * inclusive, to exclusive) in parallel, and waits until all are done.
+     *
+     * The range is recursively halved until the chunks are small enough
+     * for the number of threads, but not smaller than the given
+     * grain size, and the idle threads steal the chunks of
+     * the busy ones. The given {@link ProgressTracker} receives one unit
+     * per index on the calling thread.
+     *
+     * If the calling thread is interrupted, the chunks that were not
+     * started yet are skipped, and after the running ones
+     * are finished, a {@link CancellationException} is thrown.
+     */
+    public static void parallelFor(int from, int to, int grain,
+                                   IntConsumer body, ProgressTracker pt) {
+        parallelForBands(from, to, grain, (bandFrom, bandTo) -> {
+            for (int i = bandFrom; i < bandTo; i++) {
+                body.accept(i);
+            }
+        }, pt);
+    }
+
+    /**
+     * Splits the given range of rows (from inclusive, to exclusive) into
+     * bands, and runs the given task for each band in parallel, like
+     * {@link #parallelFor(int, int, int, IntConsumer, ProgressTracker)}.
+     * Useful for the calculations which have some per-band setup cost,
+     * such as sliding windows or scratch arrays.
+     *
+     * The bands are at least minBandHeight rows high (except
+     * if the range is smaller), and don't overlap.
+     */
+    public static void parallelForBands(int from, int to, int minBandHeight,
+                                        BandTask task, ProgressTracker pt) {
+        assert pt != null;
+        assert minBandHeight > 0 : "minBandHeight = " + minBandHeight;
+
+        if (from >= to) {
+            return;
+        }
+        int grain = Math.max(minBandHeight, (to - from) / (NUM_CORES * CHUNKS_PER_THREAD));
+        if (NUM_CORES < 2) {
+            forSerially(from, to, grain, task, pt);
+            return;
+        }
+
+        ParallelLoop loop = new ParallelLoop(from, to, grain, task);
+        if (isPoolThread()) {
+            // nested use: this thread takes part in the work
+            // instead of blocking a pool thread while waiting
+            loop.invoke();
+            pt.unitsDone(to - from);
+            return;
+        }
+
+        executorService.execute(loop);
+        int reported = 0;
+        try {
+            while (true) {
+                try {
+                    loop.get(PROGRESS_INTERVAL_MILLIS, MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    int numDone = loop.numDone.get();
+                    pt.unitsDone(numDone - reported);
+                    reported = numDone;
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelAndJoin(loop);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while waiting");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (RuntimeException e) {
+            // thrown by the progress tracker
+            cancelAndJoin(loop);
+            throw e;
+        }
+        pt.unitsDone(to - from - reported);
+    }
+
+    /**
+     * Skips the chunks that were not started yet, and waits for the
+     * running ones, because they write into the arrays of the caller,
+     * which can be reused as soon as the caller returns.
+     */
+    private static void cancelAndJoin(ParallelLoop loop) {
+        loop.cancelled = true;
+        loop.quietlyJoin();
+    }
+
+    /**
+     * The single-threaded version of the parallel loop
+     */
+    private static void forSerially(int from, int to, int grain,
+                                    BandTask task, ProgressTracker pt) {
+        int chunkStart = from;
+        while (chunkStart < to) {
+            // like in the parallel version, a remainder smaller
+            // than the grain size is added to the last chunk
+            int chunkEnd = to - chunkStart < 2 * grain ? to : chunkStart + grain;
+            task.run(chunkStart, chunkEnd);
+            pt.unitsDone(chunkEnd - chunkStart);
+            chunkStart = chunkEnd;
+        }
+    }
+
     /**
      * Waits until all the given futures complete their
      * computation, and updates the given
      * {@link ProgressTracker} in the meantime.
+     *
+     * If the waiting thread is interrupted (because the result
+     * is not needed anymore), the remaining tasks are cancelled
+     * and a {@link CancellationException} is thrown.
      */
     public static void waitFor(Iterable<Future<?>> futures, ProgressTracker pt) {
         assert pt != null;
@@ -71,7 +214,9 @@ public class ThreadPool {
                 // necessarily the same as the finish order, but
                 // good enough in practice
                 pt.unitDone();
-            } catch (InterruptedException | ExecutionException e) {
+            } catch (InterruptedException e) {
+                throw cancelAll(futures);
+            } catch (ExecutionException e) {
                 e.printStackTrace();
             }
         }
@@ -86,7 +231,7 @@ public class ThreadPool {
                 future.get();
                 pt.unitDone();
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                throw cancelAll(Arrays.asList(futures));
             } catch (ExecutionException e) {
                 e.getCause().printStackTrace();
             }
@@ -96,25 +241,112 @@ public class ThreadPool {
     /**
      * Similar to waitFor, but works with futures
      * that return an int array representing a line, and
-     * updates the given destination image with the new pixels.
+     * updates the given region of the destination image with the new pixels.
      */
-    public static void waitFor2(Future<int[]>[] futures, BufferedImage dst, int width, ProgressTracker pt) {
+    public static void waitFor2(Future<int[]>[] futures, BufferedImage dst,
+                                Rectangle region, ProgressTracker pt) {
         assert pt != null;
 
         try {
             for (int i = 0; i < futures.length; i++) {
                 var lineFuture = futures[i];
                 int[] linePixels = lineFuture.get();
-                AbstractBufferedImageOp.setRGB(dst, 0, i, width, 1, linePixels);
+                AbstractBufferedImageOp.setRGB(dst, region.x, region.y + i,
+                        region.width, 1, linePixels);
 
                 pt.unitDone();
             }
-        } catch (InterruptedException | ExecutionException e) {
+        } catch (InterruptedException e) {
+            throw cancelAll(Arrays.asList(futures));
+        } catch (ExecutionException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Cancels the given tasks after the waiting thread was interrupted,
+     * and returns the exception that should be thrown.
+     */
+    private static CancellationException cancelAll(Iterable<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(false);
+        }
+        // keep the interrupted status for the caller
+        Thread.currentThread().interrupt();
+        return new CancellationException("interrupted while waiting");
+    }
+
     public static Executor getExecutor() {
         return executorService;
     }
+
+    public static int getNumThreads() {
+        return NUM_CORES;
+    }
+
+    /**
+     * Returns true if the current thread belongs to this pool. Such threads
+     * usually shouldn't split their work into parallel tasks, because
+     * the other threads of the pool are probably also busy.
+     */
+    public static boolean isPoolThread() {
+        Thread thread = Thread.currentThread();
+        return thread instanceof ForkJoinWorkerThread
+                && ((ForkJoinWorkerThread) thread).getPool() == executorService;
+    }
+
+    /**
+     * A task that processes a band of rows (or any other range of indices)
+     */
+    @FunctionalInterface
+    public interface BandTask {
+        /**
+         * Processes the rows from minY (inclusive) to maxY (exclusive)
+         */
+        void run(int minY, int maxY);
+    }
+
+    /**
+     * A chunk of a parallel loop, which splits itself while it's too big.
+     */
+    private static class ParallelLoop extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final BandTask task;
+
+        // shared by all the chunks of a loop
+        private final AtomicInteger numDone;
+        private volatile boolean cancelled;
+        private final ParallelLoop root;
+
+        ParallelLoop(int from, int to, int grain, BandTask task) {
+            this(from, to, grain, task, new AtomicInteger(), null);
+        }
+
+        private ParallelLoop(int from, int to, int grain, BandTask task,
+                             AtomicInteger numDone, ParallelLoop root) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.task = task;
+            this.numDone = numDone;
+            this.root = root == null ? this : root;
+        }
+
+        @Override
+        protected void compute() {
+            if (root.cancelled) {
+                return;
+            }
+            if (to - from < 2 * grain) {
+                task.run(from, to);
+                numDone.addAndGet(to - from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ParallelLoop(from, mid, grain, task, numDone, root),
+                    new ParallelLoop(mid, to, grain, task, numDone, root));
+        }
+    }
 }
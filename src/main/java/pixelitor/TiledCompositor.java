@@ -0,0 +1,208 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import pixelitor.layers.Layer;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Applies the layers of a composition on an image. For big images the
+ * consecutive layers that allow it are painted in horizontal tiles
+ * on the {@link ThreadPool}, while the adjustment layers and watermarked
+ * text layers (which need the whole image bellow them) and the
+ * other layers are applied on the whole image, in the layer order.
+ */
+class TiledCompositor {
+    // smaller images are composited on the calling thread
+    private static final int MIN_PIXELS_FOR_TILES = 512 * 512;
+
+    private static final int MIN_TILE_HEIGHT = 32;
+
+    // the composites calculated in the background don't run on a pool
+    // thread, because then the tiles (and the banded blending
+    // composites) would be painted serially
+    private static final ExecutorService backgroundExecutor =
+            Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "Background Compositor");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private TiledCompositor() {
+    }
+
+    /**
+     * Returns the executor of the composites that are
+     * calculated in the background, outside the {@link ThreadPool}
+     */
+    static Executor getBackgroundExecutor() {
+        return backgroundExecutor;
+    }
+
+    /**
+     * Applies the visible layers in the given index range on the given
+     * image and returns the result, which is either the given image
+     * or the image returned by an adjustment layer.
+     * The given image must be the composite of the layers bellow the range.
+     */
+    static BufferedImage applyLayers(List<Layer> layers, int from, int to,
+                                     BufferedImage imageSoFar,
+                                     boolean firstVisibleLayer) {
+        if (!shouldUseTiles(imageSoFar)) {
+            return applySerially(layers, from, to, imageSoFar, firstVisibleLayer);
+        }
+
+        int i = from;
+        while (i < to) {
+            Layer layer = layers.get(i);
+            if (!layer.isVisible()) {
+                i++;
+                continue;
+            }
+            if (!layer.canBePaintedInTiles()) {
+                imageSoFar = applySerially(layers, i, i + 1, imageSoFar, firstVisibleLayer);
+                firstVisibleLayer = false;
+                i++;
+                continue;
+            }
+
+            // find the run of layers that can be painted together in tiles
+            int runEnd = i + 1;
+            while (runEnd < to && canBeInRun(layers.get(runEnd))) {
+                runEnd++;
+            }
+            applyInTiles(layers, i, runEnd, imageSoFar, firstVisibleLayer);
+            firstVisibleLayer = false;
+            i = runEnd;
+        }
+        return imageSoFar;
+    }
+
+    private static boolean shouldUseTiles(BufferedImage img) {
+        if (ThreadPool.getNumThreads() < 2 || ThreadPool.isPoolThread()) {
+            return false;
+        }
+        return (long) img.getWidth() * img.getHeight() >= MIN_PIXELS_FOR_TILES;
+    }
+
+    private static boolean canBeInRun(Layer layer) {
+        return !layer.isVisible() || layer.canBePaintedInTiles();
+    }
+
+    /**
+     * The single-threaded version, used also for the layers
+     * that can't be painted in tiles.
+     */
+    private static BufferedImage applySerially(List<Layer> layers, int from, int to,
+                                               BufferedImage imageSoFar,
+                                               boolean firstVisibleLayer) {
+        Graphics2D g = imageSoFar.createGraphics();
+        for (int i = from; i < to; i++) {
+            Layer layer = layers.get(i);
+            if (layer.isVisible()) {
+                BufferedImage result;
+                if (layer.isAdjustment()) {
+                    // the result can be cached as long as the layers bellow don't change
+                    result = layer.applyLayer(g, imageSoFar, firstVisibleLayer,
+                            calcStampBellow(layers, i));
+                } else {
+                    result = layer.applyLayer(g, imageSoFar, firstVisibleLayer);
+                }
+                if (result != null) { // adjustment layer or watermarking text layer
+                    imageSoFar = result;
+                    g.dispose();
+                    g = imageSoFar.createGraphics();
+                }
+                firstVisibleLayer = false;
+            }
+        }
+        g.dispose();
+        return imageSoFar;
+    }
+
+    /**
+     * Returns a value that changes whenever the composite of the layers
+     * bellow the given index changes. The layer versions are globally
+     * increasing, so their maximum changes if any of these layers changes
+     * or a new layer is added. Deleting a layer changes the index, and all
+     * other changes (like reordering or hiding layers) update all versions.
+     */
+    private static long calcStampBellow(List<Layer> layers, int index) {
+        long maxVersion = 0;
+        for (int i = 0; i < index; i++) {
+            maxVersion = Math.max(maxVersion, layers.get(i).getVersion());
+        }
+        return ((long) index << 48) ^ maxVersion;
+    }
+
+    /**
+     * Paints the given layers tile by tile on the pool threads. The tiles
+     * don't overlap, so every pixel is still calculated in the layer order.
+     */
+    private static void applyInTiles(List<Layer> layers, int from, int to,
+                                     BufferedImage img, boolean firstVisibleLayer) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int numTiles = ThreadPool.getNumThreads() * 2;
+        int tileHeight = Math.max(MIN_TILE_HEIGHT, (height + numTiles - 1) / numTiles);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int y = 0; y < height; y += tileHeight) {
+            Rectangle tile = new Rectangle(0, y, width, Math.min(tileHeight, height - y));
+            futures.add(ThreadPool.submit(() ->
+                    paintTile(layers, from, to, img, tile, firstVisibleLayer)));
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    private static void paintTile(List<Layer> layers, int from, int to,
+                                  BufferedImage img, Rectangle tile,
+                                  boolean firstVisibleLayer) {
+        Graphics2D g = img.createGraphics();
+        g.clip(tile);
+        for (int i = from; i < to; i++) {
+            Layer layer = layers.get(i);
+            if (layer.isVisible()) {
+                BufferedImage result = layer.applyLayer(g, img, firstVisibleLayer);
+                assert result == null;
+                firstVisibleLayer = false;
+            }
+        }
+        g.dispose();
+    }
+}
@@ -54,7 +54,7 @@ public class Contours extends ParametrizedFilter {
         int iterations = lineThickness.getValue();
         if (iterations > 0) {
             var morphology = new MorphologyFilter(NAME);
-            morphology.setIterations(iterations);
+            morphology.setRadius(iterations);
             morphology.setKernel(MorphologyFilter.KERNEL_DIAMOND);
             morphology.setOp(MorphologyFilter.OP_ERODE);
 
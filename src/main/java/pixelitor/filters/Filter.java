@@ -109,9 +109,18 @@ public abstract class Filter implements Serializable {
             } else {
                 dr.filterWithoutDialogFinished(dest, cr, getName());
             }
-        } catch (OutOfMemoryError e) {
-            Dialogs.showOutOfMemoryDialog(e);
         } catch (Throwable e) {
+            showException(dr, e);
+        }
+    }
+
+    /**
+     * Reports an error that happened while running this filter on the given drawable.
+     */
+    public void showException(Drawable dr, Throwable e) {
+        if (e instanceof OutOfMemoryError) {
+            Dialogs.showOutOfMemoryDialog((OutOfMemoryError) e);
+        } else {
             Layer layer = (Layer) dr;
             if (layer instanceof LayerMask) {
                 layer = layer.getOwner();
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * A request to calculate only a region of a filter's result, typically
+ * the visible part of a zoomed-in image, so that a preview can be shown
+ * before the whole image is calculated.
+ *
+ * The request is bound to the calling thread, and it's claimed
+ * by the first image operation that supports it (currently the point
+ * and transform filters), which then calculates only this region of its
+ * destination, and copies the source pixels elsewhere. Other image
+ * operations ignore it and calculate the whole image.
+ */
+public final class PreviewRegion {
+    private static final ThreadLocal<PreviewRegion> requests = new ThreadLocal<>();
+
+    private final Rectangle bounds;
+    private boolean claimed = false;
+
+    // the destination image that was calculated only in the region
+    private BufferedImage partialImage;
+
+    private PreviewRegion(Rectangle bounds) {
+        this.bounds = bounds;
+    }
+
+    /**
+     * Requests that the filters running on the calling thread calculate
+     * only the given region (in the coordinates of the filter source
+     * image) until {@link #end()} is called.
+     */
+    public static PreviewRegion start(Rectangle bounds) {
+        PreviewRegion request = new PreviewRegion(bounds);
+        requests.set(request);
+        return request;
+    }
+
+    public static void end() {
+        requests.remove();
+    }
+
+    /**
+     * Returns the region that should be calculated in the given
+     * destination image, or null if the whole image should be calculated.
+     * Only the first call after {@link #start(Rectangle)} can return a region.
+     */
+    public static Rectangle claim(BufferedImage dst) {
+        PreviewRegion request = requests.get();
+        if (request == null || request.claimed) {
+            return null;
+        }
+        request.claimed = true;
+
+        Rectangle region = request.bounds.intersection(
+                new Rectangle(0, 0, dst.getWidth(), dst.getHeight()));
+        if (region.isEmpty()) {
+            return null;
+        }
+        request.partialImage = dst;
+        return region;
+    }
+
+    /**
+     * Returns true if no filter claimed the region, which
+     * means that the whole image was calculated.
+     */
+    public boolean isUnclaimed() {
+        return !claimed;
+    }
+
+    /**
+     * Returns true if the given filter result is correct inside the region.
+     * This is not the case if the region was claimed by an intermediate
+     * step of a filter whose result is then processed further.
+     */
+    public boolean isPartialResult(BufferedImage result) {
+        return partialImage != null && partialImage == result;
+    }
+}
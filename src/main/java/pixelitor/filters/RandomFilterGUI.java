@@ -39,7 +39,7 @@ import static pixelitor.ChangeReason.PREVIEWING;
 public class RandomFilterGUI extends FilterGUI {
     private final JPanel realSettingsPanel;
     private final Drawable dr;
-    private JPanel lastFilterPanel;
+    private FilterGUI lastFilterPanel;
     private final RandomFilterSource filterSource;
     private final JPanel northPanel;
     private final JButton backButton;
@@ -81,6 +81,7 @@ public class RandomFilterGUI extends FilterGUI {
     }
 
     private void showFilter(Filter newFilter) {
+        cancelPreviews();
         if (lastFilterPanel != null) {
             realSettingsPanel.remove(lastFilterPanel);
         }
@@ -105,4 +106,22 @@ public class RandomFilterGUI extends FilterGUI {
             filter.startOn(dr, PREVIEWING);
         }
     }
+
+    @Override
+    public void finishPreviews() {
+        if (lastFilterPanel != null) {
+            // the previews are scheduled by the GUI of the actual filter
+            lastFilterPanel.finishPreviews();
+        } else {
+            super.finishPreviews();
+        }
+    }
+
+    @Override
+    public void cancelPreviews() {
+        if (lastFilterPanel != null) {
+            lastFilterPanel.cancelPreviews();
+        }
+        super.cancelPreviews();
+    }
 }
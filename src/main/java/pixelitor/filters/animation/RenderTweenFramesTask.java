@@ -163,7 +163,11 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
         var comp = dr.getComp();
         comp.repaint();
 
-        return comp.getCompositeImage();
+        // the composite image is updated on the EDT, so
+        // a copy of it is also taken there
+        BufferedImage[] frame = new BufferedImage[1];
+        GUIUtils.invokeAndWait(() -> frame[0] = comp.getCompositeImageCopy());
+        return frame[0];
     }
 
     @Override
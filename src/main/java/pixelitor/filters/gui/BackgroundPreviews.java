@@ -0,0 +1,270 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.gui;
+
+import pixelitor.Build;
+import pixelitor.Composition;
+import pixelitor.filters.Filter;
+import pixelitor.filters.FilterUtils;
+import pixelitor.filters.PreviewRegion;
+import pixelitor.gui.View;
+import pixelitor.gui.utils.GUIUtils;
+import pixelitor.layers.Drawable;
+import pixelitor.utils.Messages;
+import pixelitor.utils.test.RandomGUITest;
+
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static pixelitor.ChangeReason.PREVIEWING;
+
+/**
+ * Calculates the filter previews of big images on a background thread,
+ * so that the filter dialogs remain responsive while a preview is calculated.
+ *
+ * A new preview request cancels the running one by interrupting its
+ * thread. The filters that report their progress are stopped
+ * by their {@link pixelitor.utils.ProgressTracker}, the others run
+ * to completion, but the results of outdated previews are never shown.
+ *
+ * If the image is zoomed in, the visible region is calculated and shown
+ * first (for the filters that support it, see {@link PreviewRegion}),
+ * and then the whole image is calculated in the same background task.
+ *
+ * The methods of this class must be called on the EDT.
+ */
+public final class BackgroundPreviews {
+    // the previews of smaller images are calculated on the EDT
+    private static final int MIN_PIXELS_FOR_BACKGROUND = 512 * 512;
+
+    // extra pixels calculated around the visible region
+    private static final int REGION_MARGIN = 64;
+
+    // the filters are not thread-safe, so the previews run one after the other
+    private static final ExecutorService executor =
+            Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "Filter Preview");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // the latest requested preview, or null if its result was already shown
+    private static volatile Preview current;
+
+    // true while a filter runs on the background thread, even if it was cancelled
+    private static volatile boolean calculating;
+
+    private BackgroundPreviews() {
+    }
+
+    /**
+     * Starts calculating the preview of the given filter on the given drawable.
+     */
+    static void start(Filter filter, Drawable dr, Component busyCursorParent) {
+        cancel();
+
+        BufferedImage src = dr.getFilterSourceImage();
+        if (!shouldRunInBackground(src)) {
+            filter.run(dr, PREVIEWING, busyCursorParent);
+            return;
+        }
+
+        Preview preview = new Preview(filter, dr, src, calcVisibleRegion(dr, src));
+        current = preview;
+        preview.future = executor.submit(preview::calculate);
+    }
+
+    private static boolean shouldRunInBackground(BufferedImage src) {
+        if (Build.isUnitTesting() || RandomGUITest.isRunning()) {
+            // the tests expect the preview to be ready immediately
+            return false;
+        }
+        return (long) src.getWidth() * src.getHeight() >= MIN_PIXELS_FOR_BACKGROUND;
+    }
+
+    /**
+     * Returns the visible region of the filter source image with a margin,
+     * or null if most of the image is visible anyway.
+     */
+    private static Rectangle calcVisibleRegion(Drawable dr, BufferedImage src) {
+        Composition comp = dr.getComp();
+        View view = comp.getView();
+        if (view == null || comp.hasSelection()) {
+            // with a selection the source image is only the selected part
+            return null;
+        }
+
+        Rectangle region = view.componentToImageSpace(view.getVisiblePart()).getBounds();
+        region.translate(-dr.getTx(), -dr.getTy());
+        region.grow(REGION_MARGIN, REGION_MARGIN);
+        region = region.intersection(new Rectangle(0, 0, src.getWidth(), src.getHeight()));
+        if (region.isEmpty()) {
+            return null;
+        }
+
+        long regionPixels = (long) region.width * region.height;
+        long imagePixels = (long) src.getWidth() * src.getHeight();
+        if (regionPixels * 2 > imagePixels) {
+            return null;
+        }
+        return region;
+    }
+
+    /**
+     * Cancels the running preview, its result will not be shown.
+     */
+    static void cancel() {
+        if (current != null) {
+            current.future.cancel(true);
+            current = null;
+        }
+    }
+
+    /**
+     * Returns true if a (possibly cancelled) preview is still calculated.
+     * The filter objects must not be used on another thread in the meantime.
+     */
+    static boolean isCalculating() {
+        return calculating;
+    }
+
+    /**
+     * Waits until the latest preview is ready and shows it.
+     * This must be called before a filter dialog is accepted.
+     */
+    static void finish(Component busyCursorParent) {
+        Preview preview = current;
+        if (preview == null) {
+            return;
+        }
+        if (!preview.future.isDone()) {
+            GUIUtils.runWithBusyCursor(busyCursorParent, preview::waitUntilDone);
+        }
+        preview.show();
+    }
+
+    private static class Preview {
+        private final Filter filter;
+        private final Drawable dr;
+        private final BufferedImage src;
+        private final Rectangle region;
+        private final long startTime = System.nanoTime();
+
+        private Future<?> future;
+
+        // written on the background thread, read on the EDT
+        private volatile BufferedImage result;
+        private volatile Throwable error;
+
+        private Preview(Filter filter, Drawable dr, BufferedImage src, Rectangle region) {
+            this.filter = filter;
+            this.dr = dr;
+            this.src = src;
+            this.region = region;
+        }
+
+        private void calculate() {
+            if (current != this) {
+                // a newer preview was requested before this one started
+                return;
+            }
+            calculating = true;
+            try {
+                if (region != null) {
+                    calculateRegion();
+                }
+                if (result == null && current == this) {
+                    result = filter.transformImage(src);
+                }
+            } catch (CancellationException e) {
+                return;
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                calculating = false;
+            }
+            EventQueue.invokeLater(this::show);
+        }
+
+        /**
+         * Calculates and shows the visible region first. If the filter
+         * doesn't support regions, the whole result is calculated here.
+         */
+        private void calculateRegion() {
+            PreviewRegion request = PreviewRegion.start(region);
+            BufferedImage partial;
+            try {
+                partial = filter.transformImage(src);
+            } finally {
+                PreviewRegion.end();
+            }
+
+            if (request.isUnclaimed()) {
+                result = partial;
+            } else if (request.isPartialResult(partial)) {
+                EventQueue.invokeLater(() -> showPartial(partial));
+            }
+        }
+
+        private void showPartial(BufferedImage partial) {
+            if (current == this && dr.isPreviewing()) {
+                dr.changePreviewImage(partial, filter.getName(), PREVIEWING);
+            }
+        }
+
+        private void waitUntilDone() {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                error = e.getCause();
+            }
+        }
+
+        private void show() {
+            assert EventQueue.isDispatchThread();
+
+            if (current != this || !dr.isPreviewing()) {
+                // outdated, or the dialog was already closed
+                return;
+            }
+            current = null;
+
+            if (error != null) {
+                filter.showException(dr, error);
+                return;
+            }
+            if (result == null) {
+                return;
+            }
+            dr.changePreviewImage(result, filter.getName(), PREVIEWING);
+
+            long totalTime = (System.nanoTime() - startTime) / 1_000_000;
+            Messages.showPerformanceMessage(filter.getName(), totalTime);
+            FilterUtils.setLastFilter(filter);
+        }
+    }
+}
@@ -22,8 +22,6 @@ import pixelitor.layers.Drawable;
 
 import javax.swing.*;
 
-import static pixelitor.ChangeReason.PREVIEWING;
-
 /**
  * The superclass of all filter configuration panels
  */
@@ -31,6 +29,15 @@ public abstract class FilterGUI extends JPanel implements PreviewExecutor {
     protected Filter filter;
     private final Drawable dr;
 
+    private final PreviewScheduler previewScheduler =
+            new PreviewScheduler(this::startPreview);
+
+    // the proxy previews are scheduled separately, because
+    // they should never delay the full-resolution previews
+    private final PreviewScheduler proxyScheduler =
+            new PreviewScheduler(this::startProxyPreview);
+    private ParamSet proxyParams;
+
     protected FilterGUI(Filter filter, Drawable dr) {
         this.filter = filter;
         this.dr = dr;
@@ -38,6 +45,42 @@ public abstract class FilterGUI extends JPanel implements PreviewExecutor {
 
     @Override
     public void runFilterPreview() {
-        filter.run(dr, PREVIEWING, this);
+        proxyScheduler.cancel();
+        previewScheduler.schedule();
+    }
+
+    private void startPreview() {
+        BackgroundPreviews.start(filter, dr, this);
+    }
+
+    /**
+     * Shows a quick, downscaled preview while a slider is dragged
+     */
+    protected void runProxyPreview(ParamSet params) {
+        proxyParams = params;
+        proxyScheduler.schedule();
+    }
+
+    private void startProxyPreview() {
+        ProxyPreviews.run(filter, proxyParams, dr);
+    }
+
+    /**
+     * Runs the pending preview and waits until it's ready.
+     * Must be called before the filter dialog is accepted.
+     */
+    public void finishPreviews() {
+        proxyScheduler.cancel();
+        previewScheduler.runPending();
+        BackgroundPreviews.finish(this);
+    }
+
+    /**
+     * Discards the pending and running previews.
+     */
+    public void cancelPreviews() {
+        proxyScheduler.cancel();
+        previewScheduler.cancel();
+        BackgroundPreviews.cancel();
     }
 }
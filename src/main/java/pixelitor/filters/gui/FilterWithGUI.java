@@ -48,8 +48,14 @@ public abstract class FilterWithGUI extends Filter {
                 .name("filterDialog")
                 .content(gui)
                 .withScrollbars()
-                .okAction(() -> dr.onFilterDialogAccepted(getName()))
-                .cancelAction(dr::onFilterDialogCanceled)
+                .okAction(() -> {
+                    gui.finishPreviews();
+                    dr.onFilterDialogAccepted(getName());
+                })
+                .cancelAction(() -> {
+                    gui.cancelPreviews();
+                    dr.onFilterDialogCanceled();
+                })
                 .show();
     }
 }
@@ -218,6 +218,16 @@ public class GroupedRangeParam extends AbstractFilterParam {
         return this;
     }
 
+    /**
+     * See {@link RangeParam#scaledWithImage()}
+     */
+    public GroupedRangeParam scaledWithImage() {
+        for (RangeParam param : rangeParams) {
+            param.scaledWithImage();
+        }
+        return this;
+    }
+
     public float getValueAsPercentage(int index) {
         return rangeParams[index].getPercentageValF();
     }
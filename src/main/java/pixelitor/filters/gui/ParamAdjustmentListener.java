@@ -25,4 +25,11 @@ public interface ParamAdjustmentListener {
     ParamAdjustmentListener EMPTY = () -> {};
 
     void paramAdjusted();
+
+    /**
+     * Called when a value changes while a slider is still dragged.
+     * The final value triggers {@link #paramAdjusted()} when it is released.
+     */
+    default void paramAdjusting() {
+    }
 }
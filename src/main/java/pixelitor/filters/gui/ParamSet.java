@@ -27,6 +27,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.Supplier;
 
 import static pixelitor.filters.gui.FilterSetting.EnabledReason.FINAL_ANIMATION_SETTING;
 
@@ -192,6 +193,52 @@ public class ParamSet {
         }
     }
 
+    /**
+     * Returns the current values of the parameters. Comparing it with
+     * a previously returned list shows whether any parameter changed.
+     */
+    public List<Object> getParamValues() {
+        List<Object> values = new ArrayList<>(paramList.size());
+        for (FilterParam param : paramList) {
+            values.add(param.getParamValue());
+        }
+        return values;
+    }
+
+    /**
+     * Runs the given task while the values of the parameters declared with
+     * {@link RangeParam#scaledWithImage()} are temporarily multiplied by the
+     * given factor, for example when the filter runs on a downscaled image.
+     */
+    public <T> T runScaled(double factor, Supplier<T> task) {
+        List<RangeParam> scaledParams = new ArrayList<>();
+        for (FilterParam param : paramList) {
+            if (param instanceof RangeParam) {
+                scaledParams.add((RangeParam) param);
+            } else if (param instanceof GroupedRangeParam) {
+                GroupedRangeParam group = (GroupedRangeParam) param;
+                for (int i = 0; i < group.getNumParams(); i++) {
+                    scaledParams.add(group.getRangeParam(i));
+                }
+            }
+        }
+        scaledParams.removeIf(param -> !param.isScaledWithImage());
+
+        double[] savedValues = new double[scaledParams.size()];
+        for (int i = 0; i < savedValues.length; i++) {
+            RangeParam param = scaledParams.get(i);
+            savedValues[i] = param.getValueAsDouble();
+            param.setValueNoGUI(Math.max(param.getMinimum(), savedValues[i] * factor));
+        }
+        try {
+            return task.get();
+        } finally {
+            for (int i = 0; i < savedValues.length; i++) {
+                scaledParams.get(i).setValueNoGUI(savedValues[i]);
+            }
+        }
+    }
+
     public boolean hasGradient() {
         return Utils.anyMatch(paramList, p -> p instanceof GradientParam);
     }
@@ -124,6 +124,14 @@ public class ParametrizedFilterGUI extends FilterGUI implements ParamAdjustmentL
         runFilterPreview();
     }
 
+    @Override
+    public void paramAdjusting() {
+        if (hasShowOriginal()) {
+            showOriginalCB.deselectWithoutTriggering();
+        }
+        runProxyPreview(((ParametrizedFilter) filter).getParamSet());
+    }
+
     private boolean hasShowOriginal() {
         return showOriginalCB != null;
     }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.gui;
+
+import pixelitor.Build;
+import pixelitor.utils.test.RandomGUITest;
+
+import javax.swing.*;
+
+/**
+ * Coalesces the bursts of preview requests (for example while a
+ * slider is moved) into at most one pending preview.
+ *
+ * A new preview starts only after a minimum interval has elapsed since the
+ * start of the last one, or after the duration of the last one if that was
+ * longer, so that the EDT can process the user input between the previews.
+ * The pending preview always runs with the latest settings, therefore
+ * the final values are always rendered.
+ *
+ * The methods of this class must be called on the EDT.
+ */
+class PreviewScheduler {
+    // about 30 previews per second
+    static final int DEFAULT_MIN_INTERVAL_MILLIS = 33;
+
+    private final Runnable preview;
+    private final int minIntervalMillis;
+    private final Timer timer;
+
+    private long lastStartMillis;
+    private long lastDurationMillis;
+
+    PreviewScheduler(Runnable preview) {
+        this(preview, DEFAULT_MIN_INTERVAL_MILLIS);
+    }
+
+    PreviewScheduler(Runnable preview, int minIntervalMillis) {
+        this.preview = preview;
+        this.minIntervalMillis = minIntervalMillis;
+        timer = new Timer(minIntervalMillis, e -> runNow());
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Requests a new preview, which runs either immediately or later.
+     */
+    void schedule() {
+        if (Build.isUnitTesting() || RandomGUITest.isRunning()) {
+            // the tests expect the preview to be ready immediately
+            runNow();
+            return;
+        }
+        if (timer.isRunning()) {
+            // the pending preview will use the latest settings
+            return;
+        }
+
+        long interval = Math.max(minIntervalMillis, lastDurationMillis);
+        long wait = lastStartMillis + interval - System.currentTimeMillis();
+        if (wait <= 0) {
+            runNow();
+        } else {
+            timer.setInitialDelay((int) wait);
+            timer.start();
+        }
+    }
+
+    /**
+     * Runs the pending preview immediately, if there is one.
+     */
+    void runPending() {
+        if (timer.isRunning()) {
+            timer.stop();
+            runNow();
+        }
+    }
+
+    /**
+     * Discards the pending preview, if there is one.
+     */
+    void cancel() {
+        timer.stop();
+    }
+
+    boolean hasPending() {
+        return timer.isRunning();
+    }
+
+    private void runNow() {
+        lastStartMillis = System.currentTimeMillis();
+        preview.run();
+        lastDurationMillis = System.currentTimeMillis() - lastStartMillis;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.gui;
+
+import pixelitor.CompositeMipmaps;
+import pixelitor.filters.Filter;
+import pixelitor.gui.View;
+import pixelitor.layers.Drawable;
+import pixelitor.utils.ImageUtils;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static java.awt.RenderingHints.KEY_INTERPOLATION;
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+import static java.awt.image.BufferedImage.TYPE_CUSTOM;
+import static pixelitor.ChangeReason.PREVIEWING;
+
+/**
+ * Shows quick previews while a slider of a filter is dragged: the filter runs
+ * on a downscaled proxy of the source image, and the upscaled result is shown
+ * until the full-resolution preview replaces it after the slider is released.
+ *
+ * The proxy is downscaled by a power of two matched to the zoom of the view,
+ * so that in zoomed-out views it's almost indistinguishable from the real
+ * preview. The params that are distances in pixels are scaled for the proxy,
+ * see {@link RangeParam#scaledWithImage()}.
+ */
+final class ProxyPreviews {
+    // smaller images don't need proxies
+    private static final int MIN_PIXELS_FOR_PROXY = 1024 * 1024;
+
+    // 1/8 resolution
+    private static final int MAX_PROXY_LEVEL = 3;
+
+    private ProxyPreviews() {
+    }
+
+    /**
+     * Shows the filter applied on a proxy image, if the image is big enough.
+     */
+    static void run(Filter filter, ParamSet params, Drawable dr) {
+        BackgroundPreviews.cancel();
+        if (BackgroundPreviews.isCalculating()) {
+            // the filter object is still used by a cancelled preview,
+            // try again at the next slider movement
+            return;
+        }
+
+        BufferedImage src = dr.getFilterSourceImage();
+        if (src.getType() == TYPE_CUSTOM) {
+            // can't be scaled with ImageUtils
+            return;
+        }
+        int level = calcProxyLevel(src, dr.getComp().getView());
+        if (level == 0) {
+            return;
+        }
+
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int divisor = 1 << level;
+        BufferedImage proxySrc = ImageUtils.getFasterScaledInstance(src,
+                Math.max(1, width / divisor), Math.max(1, height / divisor),
+                VALUE_INTERPOLATION_BILINEAR, true);
+
+        BufferedImage proxyResult;
+        try {
+            proxyResult = params.runScaled(1.0 / divisor,
+                    () -> filter.transformImage(proxySrc));
+        } catch (RuntimeException e) {
+            // the full-resolution preview will report the problem
+            return;
+        }
+
+        dr.changePreviewImage(upscale(proxyResult, width, height),
+                filter.getName(), PREVIEWING);
+    }
+
+    /**
+     * Returns the number of times the proxy should be halved,
+     * or 0 if no proxy should be used.
+     */
+    static int calcProxyLevel(BufferedImage src, View view) {
+        if ((long) src.getWidth() * src.getHeight() < MIN_PIXELS_FOR_PROXY) {
+            return 0;
+        }
+        int level = 1;
+        if (view != null) {
+            level = Math.max(level, CompositeMipmaps.levelFor(view.getScaling()));
+        }
+        return Math.min(level, MAX_PROXY_LEVEL);
+    }
+
+    private static BufferedImage upscale(BufferedImage img, int width, int height) {
+        BufferedImage upscaled = ImageUtils.createImageWithSameCM(img, width, height);
+        Graphics2D g = upscaled.createGraphics();
+        g.setRenderingHint(KEY_INTERPOLATION, VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(img, 0, 0, width, height, null);
+        g.dispose();
+        return upscaled;
+    }
+}
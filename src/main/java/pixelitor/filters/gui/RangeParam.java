@@ -63,6 +63,9 @@ public class RangeParam extends AbstractFilterParam implements BoundedRangeModel
     private boolean adjustMaxAccordingToImage = false;
     private double maxToImageSizeRatio;
 
+    // true if the value is a distance in pixels
+    private boolean scaledWithImage = false;
+
     public RangeParam(String name, int min, double def, int max) {
         this(name, min, def, max, true, BORDER);
     }
@@ -299,8 +302,12 @@ public class RangeParam extends AbstractFilterParam implements BoundedRangeModel
         if (Math.abs(v - value) > 0.001) { // there are max 2 decimal places in the GUI
             value = v;
             fireStateChanged(); // update the GUI
-            if (!adjusting && trigger && adjustmentListener != null) {
-                adjustmentListener.paramAdjusted(); // run the filter
+            if (trigger && adjustmentListener != null) {
+                if (adjusting) {
+                    adjustmentListener.paramAdjusting(); // quick preview
+                } else {
+                    adjustmentListener.paramAdjusted(); // run the filter
+                }
             }
         }
     }
@@ -401,6 +408,19 @@ public class RangeParam extends AbstractFilterParam implements BoundedRangeModel
         return this;
     }
 
+    /**
+     * Declares that the value is a distance in pixels (like a blur radius),
+     * which must be scaled when the filter runs on a downscaled image.
+     */
+    public RangeParam scaledWithImage() {
+        scaledWithImage = true;
+        return this;
+    }
+
+    public boolean isScaledWithImage() {
+        return scaledWithImage;
+    }
+
     @Override
     public boolean canBeAnimated() {
         return true;
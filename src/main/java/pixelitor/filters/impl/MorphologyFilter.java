@@ -18,16 +18,36 @@
 package pixelitor.filters.impl;
 
 import com.jhlabs.image.WholeImageFilter;
+import pixelitor.ThreadPool;
 import pixelitor.filters.Morphology;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.ProgressTracker;
+import pixelitor.utils.SubtaskProgressTracker;
 
 import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
 
 /**
  * The implementation of the {@link Morphology} filter.
+ *
+ * The running minimums and maximums along lines are calculated with
+ * the van Herk/Gil-Werman algorithm, which needs about three comparisons
+ * per pixel for any radius. The square structuring element is separated
+ * into a horizontal and a vertical line. The diamond is decomposed into
+ * a diagonal and an anti-diagonal line (which give a rotated square
+ * containing every second pixel of the diamond) followed by one or two
+ * passes with the 3x3 cross. The results are the same as iterating
+ * the 3x3 square or cross radius times.
+ *
+ * The channels are filtered as separate 8-bit planes, and TYPE_BYTE_GRAY
+ * images (layer masks) are filtered without conversion. The pixels outside
+ * the image are ignored, which is the same as padding the planes with
+ * the neutral value of the operation (255 for erode, 0 for dilate).
  */
 public class MorphologyFilter extends WholeImageFilter {
-    private int iterations = 1;
-
     public static final int OP_ERODE = 1;
     public static final int OP_DILATE = 2;
     private int op;
@@ -36,6 +56,14 @@ public class MorphologyFilter extends WholeImageFilter {
     public static final int KERNEL_SQUARE = 4;
     private int kernel;
 
+    private int radius = 1;
+
+    // the directions of the line passes
+    private static final int ROWS = 0;
+    private static final int COLUMNS = 1;
+    private static final int DIAGONALS = 2;
+    private static final int ANTI_DIAGONALS = 3;
+
     public MorphologyFilter(String filterName) {
         super(filterName);
     }
@@ -48,99 +76,367 @@ public class MorphologyFilter extends WholeImageFilter {
         this.op = op;
     }
 
-    public void setIterations(int iterations) {
-        this.iterations = iterations;
+    /**
+     * Sets the radius of the structuring element, which has
+     * the same effect as applying the 3x3 version radius times.
+     */
+    public void setRadius(int radius) {
+        this.radius = radius;
+    }
+
+    @Override
+    public BufferedImage filter(BufferedImage src, BufferedImage dst) {
+        if (src.getType() != TYPE_BYTE_GRAY) {
+            return super.filter(src, dst);
+        }
+
+        if (dst == null) {
+            dst = createCompatibleDestImage(src, null);
+        }
+        int width = src.getWidth();
+        int height = src.getHeight();
+        byte[] inPixels = ImageUtils.getGrayPixelsAsByteArray(src);
+        byte[] outPixels = ImageUtils.getGrayPixelsAsByteArray(dst);
+
+        pt = createProgressTracker(height);
+        Plane plane = new Plane(width, height, calcMargin(), neutralValue());
+        plane.setValues(inPixels);
+        filterPlane(plane, createPassTracker(plane, 1, height));
+        plane.getValues(outPixels);
+        finishProgressTracker();
+
+        return dst;
     }
 
     @Override
     protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
         int[] outPixels = new int[width * height];
-        int numPixels = inPixels.length;
-        short[] inA = new short[numPixels];
-        short[] inR = new short[numPixels];
-        short[] inG = new short[numPixels];
-        short[] inB = new short[numPixels];
-
-        pt = createProgressTracker(iterations);
-        for (int it = 0; it < iterations; it++) {
-            if (it > 0) {
-                System.arraycopy(outPixels, 0, inPixels, 0, numPixels);
-            }
-            for (int i = 0; i < numPixels; i++) {
-                int rgb = inPixels[i];
-                inA[i] = (short) ((rgb >> 24) & 0xff);
-                inR[i] = (short) ((rgb >> 16) & 0xff);
-                inG[i] = (short) ((rgb >> 8) & 0xff);
-                inB[i] = (short) (rgb & 0xff);
-            }
 
-            int index = 0;
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    short a = 0xff;
-                    short r = 0xff;
-                    short g = 0xff;
-                    short b = 0xff;
-
-                    if (op == OP_DILATE) {
-                        r = 0;
-                        g = 0;
-                        b = 0;
-                    }
+        // like in the iterated version, dilation makes everything opaque
+        boolean opaqueResult = op == OP_DILATE;
+        int numPlanes = opaqueResult ? 3 : 4;
 
-                    for (int dy = -1; dy <= 1; dy++) {
-                        int iy = y + dy;
-                        if (0 <= iy && iy < height) {
-                            int xOffset = iy * width;
-                            for (int dx = -1; dx <= 1; dx++) {
-                                if (kernel == KERNEL_DIAMOND) {
-                                    if (dx == dy && dx != 0) {
-                                        continue;
-                                    }
-                                    if (dx == -dy && dx != 0) {
-                                        continue;
-                                    }
-                                }
-
-                                int ix = x + dx;
-                                if (0 <= ix && ix < width) {
-                                    int comparedIndex = xOffset + ix;
-
-                                    if (op == OP_ERODE) {
-                                        a = min(a, inA[comparedIndex]);
-                                        r = min(r, inR[comparedIndex]);
-                                        g = min(g, inG[comparedIndex]);
-                                        b = min(b, inB[comparedIndex]);
-                                    } else {
-                                        a = max(a, inA[comparedIndex]);
-                                        r = max(r, inR[comparedIndex]);
-                                        g = max(g, inG[comparedIndex]);
-                                        b = max(b, inB[comparedIndex]);
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    outPixels[index++] = a << 24 | r << 16 | g << 8 | b;
-                }
+        pt = createProgressTracker(height);
+        Plane plane = new Plane(width, height, calcMargin(), neutralValue());
+        ProgressTracker passTracker = createPassTracker(plane, numPlanes, height);
+        for (int shift = 0; shift < numPlanes * 8; shift += 8) {
+            plane.setChannel(inPixels, shift);
+            filterPlane(plane, passTracker);
+            plane.addChannelTo(outPixels, shift);
+        }
+        if (opaqueResult) {
+            for (int i = 0; i < outPixels.length; i++) {
+                outPixels[i] |= 0xFF_00_00_00;
             }
-            pt.unitDone();
         }
         finishProgressTracker();
+
         return outPixels;
     }
 
-    private static short min(short a, short b) {
-        return (a <= b) ? a : b;
+    /**
+     * The square can be separated without any margin, because
+     * the intersection of a rectangle with the image is also
+     * a rectangle, but the lines of the diamond decomposition
+     * need the intermediate values around the image.
+     */
+    private int calcMargin() {
+        return kernel == KERNEL_SQUARE ? 0 : radius;
     }
 
-    private static short max(short a, short b) {
-        return (a >= b) ? a : b;
+    private int neutralValue() {
+        return op == OP_ERODE ? 0xFF : 0;
+    }
+
+    /**
+     * Returns a tracker which converts the lines of all
+     * the passes into the given number of work units.
+     */
+    private ProgressTracker createPassTracker(Plane plane, int numPlanes, int workUnits) {
+        long numLines = 0;
+        for (int direction : getLineDirections()) {
+            numLines += plane.getNumLines(direction);
+        }
+        numLines += (long) getNumCrossPasses() * plane.height;
+        return new SubtaskProgressTracker(
+                (double) workUnits / (numLines * numPlanes), pt);
+    }
+
+    private int[] getLineDirections() {
+        if (kernel == KERNEL_SQUARE) {
+            return new int[]{ROWS, COLUMNS};
+        }
+        if (getDiagonalRadius() > 0) {
+            return new int[]{DIAGONALS, ANTI_DIAGONALS};
+        }
+        return new int[0];
+    }
+
+    /**
+     * The diagonal lines give a rotated square with the corners
+     * at 2 * diagonalRadius, the rest is added by the cross passes.
+     */
+    private int getDiagonalRadius() {
+        return radius % 2 == 1 ? radius / 2 : radius / 2 - 1;
+    }
+
+    private int getNumCrossPasses() {
+        if (kernel == KERNEL_SQUARE) {
+            return 0;
+        }
+        return radius % 2 == 1 ? 1 : 2;
+    }
+
+    private void filterPlane(Plane plane, ProgressTracker passTracker) {
+        boolean min = op == OP_ERODE;
+        int lineRadius = kernel == KERNEL_SQUARE ? radius : getDiagonalRadius();
+        for (int direction : getLineDirections()) {
+            plane.filterLines(direction, lineRadius, min, passTracker);
+        }
+        for (int i = 0; i < getNumCrossPasses(); i++) {
+            plane.filterCross(min, passTracker);
+        }
     }
 
     @Override
     public String toString() {
         return "Blur/Minimum";
     }
-}
 
+    /**
+     * The values of an 8-bit channel, with a margin of
+     * neutral values around the image
+     */
+    private static class Plane {
+        private final int imgWidth;
+        private final int imgHeight;
+        private final int margin;
+        private final int neutral;
+
+        // the padded size
+        private final int width;
+        private final int height;
+
+        private byte[] values;
+        private byte[] tmp;
+
+        Plane(int imgWidth, int imgHeight, int margin, int neutral) {
+            this.imgWidth = imgWidth;
+            this.imgHeight = imgHeight;
+            this.margin = margin;
+            this.neutral = neutral;
+            width = imgWidth + 2 * margin;
+            height = imgHeight + 2 * margin;
+            values = new byte[width * height];
+        }
+
+        void setChannel(int[] pixels, int shift) {
+            Arrays.fill(values, (byte) neutral);
+            for (int y = 0; y < imgHeight; y++) {
+                int index = y * imgWidth;
+                int planeIndex = (y + margin) * width + margin;
+                for (int x = 0; x < imgWidth; x++) {
+                    values[planeIndex++] = (byte) (pixels[index++] >>> shift);
+                }
+            }
+        }
+
+        void addChannelTo(int[] pixels, int shift) {
+            for (int y = 0; y < imgHeight; y++) {
+                int index = y * imgWidth;
+                int planeIndex = (y + margin) * width + margin;
+                for (int x = 0; x < imgWidth; x++) {
+                    pixels[index++] |= (values[planeIndex++] & 0xFF) << shift;
+                }
+            }
+        }
+
+        void setValues(byte[] gray) {
+            Arrays.fill(values, (byte) neutral);
+            for (int y = 0; y < imgHeight; y++) {
+                System.arraycopy(gray, y * imgWidth,
+                        values, (y + margin) * width + margin, imgWidth);
+            }
+        }
+
+        void getValues(byte[] gray) {
+            for (int y = 0; y < imgHeight; y++) {
+                System.arraycopy(values, (y + margin) * width + margin,
+                        gray, y * imgWidth, imgWidth);
+            }
+        }
+
+        int getNumLines(int direction) {
+            switch (direction) {
+                case ROWS:
+                    return height;
+                case COLUMNS:
+                    return width;
+                case DIAGONALS:
+                case ANTI_DIAGONALS:
+                    return width + height - 1;
+                default:
+                    throw new IllegalStateException("direction = " + direction);
+            }
+        }
+
+        /**
+         * Replaces every value with the minimum or maximum of the
+         * values within the given radius along lines in the given direction.
+         * The lines are independent, so they are filtered in place.
+         */
+        void filterLines(int direction, int lineRadius, boolean min, ProgressTracker pt) {
+            int numLines = getNumLines(direction);
+            int maxLength = Math.max(width, height);
+            ThreadPool.parallelForBands(0, numLines, 1, (first, last) -> {
+                LineFilter lineFilter = new LineFilter(maxLength, lineRadius, neutral, min);
+                for (int line = first; line < last; line++) {
+                    filterLine(direction, line, lineFilter);
+                }
+            }, pt);
+        }
+
+        private void filterLine(int direction, int line, LineFilter lineFilter) {
+            int start;
+            int step;
+            int length;
+            switch (direction) {
+                case ROWS:
+                    start = line * width;
+                    step = 1;
+                    length = width;
+                    break;
+                case COLUMNS:
+                    start = line;
+                    step = width;
+                    length = height;
+                    break;
+                case DIAGONALS:
+                    // starting from the top row, then from the left column
+                    step = width + 1;
+                    if (line < width) {
+                        start = line;
+                        length = Math.min(width - line, height);
+                    } else {
+                        int y = line - width + 1;
+                        start = y * width;
+                        length = Math.min(height - y, width);
+                    }
+                    break;
+                case ANTI_DIAGONALS:
+                    // starting from the top row, then from the right column
+                    step = width - 1;
+                    if (line < width) {
+                        start = line;
+                        length = Math.min(line + 1, height);
+                    } else {
+                        int y = line - width + 1;
+                        start = y * width + width - 1;
+                        length = Math.min(height - y, width);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("direction = " + direction);
+            }
+            lineFilter.filter(values, start, step, length);
+        }
+
+        /**
+         * Applies the 3x3 cross (the center and its four neighbors)
+         */
+        void filterCross(boolean min, ProgressTracker pt) {
+            if (tmp == null) {
+                tmp = new byte[values.length];
+            }
+            byte[] in = values;
+            byte[] out = tmp;
+            ThreadPool.parallelForBands(0, height, 1, (minY, maxY) -> {
+                for (int y = minY; y < maxY; y++) {
+                    int index = y * width;
+                    for (int x = 0; x < width; x++, index++) {
+                        int v = in[index] & 0xFF;
+                        if (x > 0) {
+                            v = select(min, v, in[index - 1] & 0xFF);
+                        }
+                        if (x < width - 1) {
+                            v = select(min, v, in[index + 1] & 0xFF);
+                        }
+                        if (y > 0) {
+                            v = select(min, v, in[index - width] & 0xFF);
+                        }
+                        if (y < height - 1) {
+                            v = select(min, v, in[index + width] & 0xFF);
+                        }
+                        out[index] = (byte) v;
+                    }
+                }
+            }, pt);
+            tmp = values;
+            values = out;
+        }
+    }
+
+    /**
+     * The van Herk/Gil-Werman running minimum or maximum along a line.
+     * The line is divided into blocks of the window size, and the
+     * result for a window is the combination of a suffix value in
+     * one block and a prefix value in the next one.
+     */
+    private static class LineFilter {
+        private final int radius;
+        private final int windowSize;
+        private final int neutral;
+        private final boolean min;
+
+        // the line with radius neutral values at both ends
+        private final int[] padded;
+        private final int[] prefix;
+        private final int[] suffix;
+
+        LineFilter(int maxLength, int radius, int neutral, boolean min) {
+            this.radius = radius;
+            this.neutral = neutral;
+            this.min = min;
+            windowSize = 2 * radius + 1;
+
+            // rounded up to whole blocks
+            int numBlocks = (maxLength + 2 * radius + windowSize - 1) / windowSize;
+            int size = numBlocks * windowSize;
+            padded = new int[size];
+            prefix = new int[size];
+            suffix = new int[size];
+        }
+
+        void filter(byte[] values, int start, int step, int length) {
+            int size = (length + 2 * radius + windowSize - 1) / windowSize * windowSize;
+            Arrays.fill(padded, 0, size, neutral);
+            for (int i = 0, index = start; i < length; i++, index += step) {
+                padded[radius + i] = values[index] & 0xFF;
+            }
+
+            for (int blockStart = 0; blockStart < size; blockStart += windowSize) {
+                int blockEnd = blockStart + windowSize - 1;
+                prefix[blockStart] = padded[blockStart];
+                for (int i = blockStart + 1; i <= blockEnd; i++) {
+                    prefix[i] = select(min, prefix[i - 1], padded[i]);
+                }
+                suffix[blockEnd] = padded[blockEnd];
+                for (int i = blockEnd - 1; i >= blockStart; i--) {
+                    suffix[i] = select(min, suffix[i + 1], padded[i]);
+                }
+            }
+
+            // the window of the i-th value is [i, i + 2 * radius] in the padded line
+            for (int i = 0, index = start; i < length; i++, index += step) {
+                values[index] = (byte) select(min, suffix[i], prefix[i + 2 * radius]);
+            }
+        }
+    }
+
+    private static int select(boolean min, int a, int b) {
+        if (min) {
+            return Math.min(a, b);
+        }
+        return Math.max(a, b);
+    }
+}
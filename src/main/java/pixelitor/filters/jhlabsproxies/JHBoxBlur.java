@@ -43,7 +43,7 @@ public class JHBoxBlur extends ParametrizedFilter {
         super(ShowOriginal.YES);
 
         setParams(
-                radius,
+                radius.scaledWithImage(),
                 numberOfIterations,
                 hpSharpening
         );
@@ -42,7 +42,7 @@ public class JHGaussianBlur extends ParametrizedFilter {
         super(ShowOriginal.YES);
 
         setParams(
-                radius.withDecimalPlaces(1),
+                radius.withDecimalPlaces(1).scaledWithImage(),
                 hpSharpening
         );
     }
@@ -44,7 +44,7 @@ public class JHLensBlur extends ParametrizedFilter {
         super(ShowOriginal.YES);
 
         setParams(
-                amount.withDecimalPlaces(1),
+                amount.withDecimalPlaces(1).scaledWithImage(),
                 numberOfSides,
                 bloomFactor,
                 bloomThreshold,
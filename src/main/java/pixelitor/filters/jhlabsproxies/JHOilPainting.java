@@ -56,7 +56,7 @@ public class JHOilPainting extends ParametrizedFilter {
         super(ShowOriginal.YES);
 
         setParams(
-                brushSize.withAdjustedRange(0.04),
+                brushSize.withAdjustedRange(0.04).scaledWithImage(),
                 coarseness,
                 detailQuality
         );
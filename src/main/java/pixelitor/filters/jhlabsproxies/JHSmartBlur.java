@@ -42,7 +42,7 @@ public class JHSmartBlur extends ParametrizedFilter {
         super(ShowOriginal.YES);
 
         setParams(
-                radiusParam,
+                radiusParam.scaledWithImage(),
                 threshold,
                 hpSharpening
         );
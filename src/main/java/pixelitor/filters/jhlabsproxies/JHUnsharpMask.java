@@ -41,7 +41,7 @@ public class JHUnsharpMask extends ParametrizedFilter {
 
         setParams(
                 amount,
-                radius,
+                radius.scaledWithImage(),
                 threshold
         );
     }
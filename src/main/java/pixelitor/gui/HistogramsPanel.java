@@ -17,17 +17,16 @@
 
 package pixelitor.gui;
 
+import pixelitor.CompositeHistogram;
 import pixelitor.Composition;
 import pixelitor.OpenImages;
 import pixelitor.utils.CompActivationListener;
-import pixelitor.utils.ImageUtils;
 
 import javax.swing.*;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.GridLayout;
-import java.awt.image.BufferedImage;
 import java.util.Objects;
 
 import static java.awt.BorderLayout.CENTER;
@@ -49,7 +48,7 @@ public class HistogramsPanel extends JPanel implements CompActivationListener {
     private final HistogramPainter red;
     private final HistogramPainter green;
     private final HistogramPainter blue;
-    private static final int HISTOGRAM_RESOLUTION = 256;
+    private static final int HISTOGRAM_RESOLUTION = CompositeHistogram.NUM_BINS;
 
     private boolean logarithmic;
 
@@ -116,25 +115,16 @@ public class HistogramsPanel extends JPanel implements CompActivationListener {
         if (!isShown()) {
             return;
         }
-        BufferedImage image = comp.getCompositeImage();
-
-        int[] reds = new int[HISTOGRAM_RESOLUTION];
-        int[] blues = new int[HISTOGRAM_RESOLUTION];
-        int[] greens = new int[HISTOGRAM_RESOLUTION];
-
-        int[] data = ImageUtils.getPixelsAsArray(image);
-        for (int rgb : data) {
-            int a = (rgb >>> 24) & 0xFF;
-            if (a > 0) {
-                int r = (rgb >>> 16) & 0xFF;
-                int g = (rgb >>> 8) & 0xFF;
-                int b = rgb & 0xFF;
-
-                reds[r]++;
-                greens[g]++;
-                blues[b]++;
-            }
+        // only the changed regions are counted again
+        CompositeHistogram histogram = comp.getHistogram();
+        if (histogram == null) {
+            // the old histograms are shown until the composite
+            // image calculated in the background is ready
+            return;
         }
+        int[] reds = histogram.getReds();
+        int[] greens = histogram.getGreens();
+        int[] blues = histogram.getBlues();
 
         if (logarithmic) {
             for (int i = 0; i < HISTOGRAM_RESOLUTION; i++) {
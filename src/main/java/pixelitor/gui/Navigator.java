@@ -19,6 +19,7 @@ package pixelitor.gui;
 
 import org.jdesktop.swingx.painter.CheckerboardPainter;
 import pixelitor.Canvas;
+import pixelitor.CompositeMipmaps;
 import pixelitor.OpenImages;
 import pixelitor.colors.ColorUtils;
 import pixelitor.gui.utils.DialogBuilder;
@@ -307,8 +308,11 @@ public class Navigator extends JComponent
 
         var origTransform = g2.getTransform();
 
-        g2.scale(imgScalingRatio, imgScalingRatio);
-        g2.drawImage(view.getComp().getCompositeImage(), 0, 0, null);
+        // the thumbnail is usually much smaller than the image
+        int mipmapLevel = CompositeMipmaps.levelFor(imgScalingRatio);
+        double mipmapScaling = imgScalingRatio * (1 << mipmapLevel);
+        g2.scale(mipmapScaling, mipmapScaling);
+        g2.drawImage(view.getComp().getViewImage(mipmapLevel), 0, 0, null);
         g2.setTransform(origTransform);
 
         g2.setStroke(VIEW_BOX_STROKE);
@@ -21,6 +21,7 @@ import org.jdesktop.swingx.painter.CheckerboardPainter;
 import pixelitor.Build;
 import pixelitor.Canvas;
 import pixelitor.CanvasMargins;
+import pixelitor.CompositeMipmaps;
 import pixelitor.Composition;
 import pixelitor.ConsistencyChecks;
 import pixelitor.Layers;
@@ -364,8 +365,20 @@ public class View extends JComponent
             assert mask != null : "no mask in " + maskViewMode;
             mask.paintLayerOnGraphics(g2, true);
         } else {
-            BufferedImage compositeImage = comp.getCompositeImage();
-            ImageUtils.drawImageWithClipping(g2, compositeImage);
+            // for big images this can be the last frame, while
+            // the new composite image is calculated in the background
+            int mipmapLevel = CompositeMipmaps.levelFor(scaling);
+            BufferedImage viewImage = comp.getViewImage(mipmapLevel);
+            if (mipmapLevel == 0) {
+                ImageUtils.drawImageWithClipping(g2, viewImage);
+            } else {
+                // when zoomed out, paint a pre-downscaled image
+                var imageSpaceTransform = g2.getTransform();
+                int factor = 1 << mipmapLevel;
+                g2.scale(factor, factor);
+                ImageUtils.drawImageWithClipping(g2, viewImage);
+                g2.setTransform(imageSpaceTransform);
+            }
 
             if (maskViewMode.showRuby()) {
                 LayerMask mask = comp.getActiveLayer().getMask();
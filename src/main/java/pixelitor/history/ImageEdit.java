@@ -19,11 +19,15 @@ package pixelitor.history;
 
 import pixelitor.Composition;
 import pixelitor.layers.Drawable;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.MappedTileStore;
+import pixelitor.utils.SparseTiledImage;
 import pixelitor.utils.debug.DebugNode;
 
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import java.awt.image.BufferedImage;
+import java.io.UncheckedIOException;
 import java.lang.ref.SoftReference;
 
 /**
@@ -31,7 +35,15 @@ import java.lang.ref.SoftReference;
  */
 public class ImageEdit extends FadeableEdit {
     private final boolean ignoreSelection;
+    private static final long MIN_PIXELS_FOR_TILED_BACKUP = 1024 * 1024;
+
+    // only one of these is used: big, mostly transparent
+    // backup images are stored in sparse tiles, and huge backup
+    // images are stored out of the heap (therefore they are
+    // referenced strongly, they can't cause out of memory errors)
     private SoftReference<BufferedImage> imgRef;
+    private SoftReference<SparseTiledImage> tiledRef;
+    private SparseTiledImage outOfCoreBackup;
     protected Drawable dr;
 
     private final boolean canRepeat;
@@ -48,7 +60,7 @@ public class ImageEdit extends FadeableEdit {
 //        Utils.debugImage(backupImage, "Backup for " + name);
         
         // the backup image is stored in an SoftReference
-        imgRef = new SoftReference<>(backupImage);
+        setBackup(backupImage);
         this.dr = dr;
         this.canRepeat = canRepeat;
 
@@ -71,8 +83,8 @@ public class ImageEdit extends FadeableEdit {
     // the backup should never be identical to the active image
     // otherwise the backup might be also edited
     private void checkBackupDifferentFromActive() {
-        BufferedImage layerImage = dr.getImage();
-        if (layerImage == imgRef.get()) {
+        // doesn't copy a shared image or restore a tiled one only for checking
+        if (imgRef != null && dr.usesImage(imgRef.get())) {
             throw new IllegalStateException("backup image is identical to the active one");
         }
     }
@@ -99,21 +111,23 @@ public class ImageEdit extends FadeableEdit {
      * Returns true if successful
      */
     private boolean swapImages()  {
-        BufferedImage backupImage = imgRef.get();
+        BufferedImage backupImage = getBackupImage();
         if(backupImage == null) {
             return false;
         }
 
         BufferedImage tmp;
         if (ignoreSelection) {
-            tmp = dr.getImage();
+            // the current image is not modified, it only becomes
+            // the backup, so it doesn't have to be copied if it's shared
+            tmp = dr.getImageForReading();
         } else {
             tmp = dr.getSelectedSubImage(false);
         }
         dr.changeImageForUndoRedo(backupImage, ignoreSelection);
 
         // create new backup image from tmp
-        imgRef = new SoftReference<>(tmp);
+        setBackup(tmp);
 
         if(!embedded) {
             comp.imageChanged();
@@ -128,21 +142,58 @@ public class ImageEdit extends FadeableEdit {
     public void die() {
         super.die();
 
-        BufferedImage backupImage = imgRef.get();
-        if(backupImage != null) {
-            backupImage.flush();
+        if (imgRef != null) {
+            BufferedImage backupImage = imgRef.get();
+            if (backupImage != null) {
+                backupImage.flush();
+            }
         }
 
         imgRef = null;
+        tiledRef = null;
+        outOfCoreBackup = null;
         dr = null;
     }
 
+    private void setBackup(BufferedImage backupImage) {
+        imgRef = null;
+        tiledRef = null;
+        outOfCoreBackup = null;
+
+        if (MappedTileStore.isWorthStoring(backupImage)) {
+            try {
+                outOfCoreBackup = SparseTiledImage.fromImageOutOfCore(backupImage);
+                return;
+            } catch (UncheckedIOException e) {
+                // no scratch file, continue with the heap
+            }
+        }
+        // the tiles are created only if the image is known to be
+        // sparse, because the copy of a dense image would be wasted
+        if ((long) backupImage.getWidth() * backupImage.getHeight() >= MIN_PIXELS_FOR_TILED_BACKUP
+                && ImageUtils.hasPackedIntArray(backupImage)
+                && SparseTiledImage.isMostlyEmpty(backupImage)) {
+            tiledRef = new SoftReference<>(SparseTiledImage.fromImage(backupImage));
+            return;
+        }
+        imgRef = new SoftReference<>(backupImage);
+    }
+
     @Override
     public BufferedImage getBackupImage() {
         if(imgRef != null) {
             // this still could be null
             return imgRef.get();
         }
+        if (outOfCoreBackup != null) {
+            return outOfCoreBackup.toImage();
+        }
+        if (tiledRef != null) {
+            SparseTiledImage tiles = tiledRef.get();
+            if (tiles != null) {
+                return tiles.toImage();
+            }
+        }
         return null;
     }
 
@@ -155,11 +206,15 @@ public class ImageEdit extends FadeableEdit {
     public DebugNode getDebugNode() {
         var node = super.getDebugNode();
 
-        BufferedImage img = imgRef.get();
+        BufferedImage img = imgRef == null ? null : imgRef.get();
         if (img != null) {
             node.addInt("backup image width", img.getWidth());
             node.addInt("backup image height", img.getHeight());
         }
+        SparseTiledImage tiles = tiledRef == null ? outOfCoreBackup : tiledRef.get();
+        if (tiles != null) {
+            node.addString("tiled backup image", tiles.toString());
+        }
 
         return node;
     }
@@ -66,15 +66,20 @@ public class OpenRaster {
     private OpenRaster() {
     }
 
-    public static void uncheckedWrite(Composition comp, File outFile, boolean addMergedImage) {
+    /**
+     * Writes the given composition. The merged image should be a copy of
+     * the composite image taken on the EDT, or null if it's not needed.
+     */
+    public static void uncheckedWrite(Composition comp, File outFile, BufferedImage mergedImage) {
         try {
-            write(comp, outFile, addMergedImage);
+            write(comp, outFile, mergedImage);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    public static void write(Composition comp, File outFile, boolean addMergedImage) throws IOException {
+    public static void write(Composition comp, File outFile, BufferedImage mergedImage) throws IOException {
+        boolean addMergedImage = mergedImage != null;
         ProgressTracker pt = new StatusBarProgressTracker("Writing " + outFile.getName(), 100);
 
         FileOutputStream fos = new FileOutputStream(outFile);
@@ -104,8 +109,7 @@ public class OpenRaster {
         if (addMergedImage) {
             zos.putNextEntry(new ZipEntry(MERGED_IMAGE_NAME));
             ProgressTracker subTaskTracker = new SubtaskProgressTracker(workRatio, pt);
-            BufferedImage img = comp.getCompositeImage();
-            TrackedIO.writeToStream(img, zos, "PNG", subTaskTracker);
+            TrackedIO.writeToStream(mergedImage, zos, "PNG", subTaskTracker);
             zos.closeEntry();
         }
 
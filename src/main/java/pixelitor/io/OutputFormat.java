@@ -39,7 +39,7 @@ public enum OutputFormat {
     }, ORA(true, true) {
         @Override
         public Runnable getSaveTask(Composition comp, SaveSettings settings) {
-            return () -> OpenRaster.uncheckedWrite(comp, settings.getFile(), false);
+            return () -> OpenRaster.uncheckedWrite(comp, settings.getFile(), null);
         }
     };
 
@@ -54,11 +54,13 @@ public enum OutputFormat {
     public Runnable getSaveTask(Composition comp, SaveSettings settings) {
         assert !supportsMultipleLayers; // overwritten for multi-layered formats
 
-        return () -> saveSingleLayered(comp, settings);
+        // the composite image is copied on the EDT, because the
+        // cached one can be updated while the IO thread is saving
+        BufferedImage img = comp.getCompositeImageCopy();
+        return () -> saveSingleLayered(img, settings);
     }
 
-    private void saveSingleLayered(Composition comp, SaveSettings settings) {
-        BufferedImage img = comp.getCompositeImage();
+    private void saveSingleLayered(BufferedImage img, SaveSettings settings) {
         if (!supportsAlpha) {
             // no alpha support, convert first to RGB
             img = ImageUtils.convertToRGB(img, false);
@@ -20,6 +20,7 @@ package pixelitor.io;
 import pixelitor.Composition;
 import pixelitor.utils.Messages;
 import pixelitor.utils.ProgressTracker;
+import pixelitor.utils.SparseTiledImage;
 import pixelitor.utils.StatusBarProgressTracker;
 import pixelitor.utils.SubtaskProgressTracker;
 
@@ -164,6 +165,41 @@ public class PXCFormat {
 
     // when deserializing, the progress tracking
     // is done at the InputStream level, not here
+    /**
+     * Writes an image stored in tiles in the same format as
+     * {@link #serializeImage(ObjectOutputStream, BufferedImage)}, but
+     * one row of tiles at a time, so that the whole image is never
+     * restored (possibly from out of the heap) only for saving it.
+     */
+    public static void serializeTiledImage(ObjectOutputStream out,
+                                           SparseTiledImage tiles) throws IOException {
+        int imgType = tiles.getType();
+        int imgWidth = tiles.getWidth();
+        int imgHeight = tiles.getHeight();
+        assert imgType != TYPE_BYTE_GRAY;
+
+        out.writeInt(imgWidth);
+        out.writeInt(imgHeight);
+        out.writeInt(imgType);
+
+        ProgressTracker pt = getImageTracker();
+
+        int tileSize = SparseTiledImage.TILE_SIZE;
+        int numTileRows = (imgHeight + tileSize - 1) / tileSize;
+        int[] pixels = new int[imgWidth * tileSize];
+        int percentDone = 0;
+        for (int ty = 0; ty < numTileRows; ty++) {
+            int numRows = tiles.copyTileRowPixels(ty, pixels);
+            int length = numRows * imgWidth;
+            for (int i = 0; i < length; i++) {
+                out.writeInt(pixels[i]);
+            }
+            int newPercentDone = (ty + 1) * 100 / numTileRows;
+            pt.unitsDone(newPercentDone - percentDone);
+            percentDone = newPercentDone;
+        }
+    }
+
     public static BufferedImage deserializeImage(ObjectInputStream in) throws IOException {
         int width = in.readInt();
         int height = in.readInt();
@@ -19,6 +19,7 @@ package pixelitor.layers;
 
 import pixelitor.Composition;
 import pixelitor.filters.Filter;
+import pixelitor.filters.ParametrizedFilter;
 import pixelitor.filters.gui.FilterWithGUI;
 import pixelitor.utils.Utils;
 
@@ -79,6 +80,14 @@ public class AdjustmentLayer extends Layer {
         return filter.transformImage(src);
     }
 
+    @Override
+    protected Object getAdjustmentSettings() {
+        if (filter instanceof ParametrizedFilter) {
+            return ((ParametrizedFilter) filter).getParamSet().getParamValues();
+        }
+        return null;
+    }
+
     @Override
     public void paintLayerOnGraphics(Graphics2D g, boolean firstVisibleLayer) {
         throw new UnsupportedOperationException();
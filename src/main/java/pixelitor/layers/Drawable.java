@@ -31,6 +31,18 @@ import java.awt.image.BufferedImage;
 public interface Drawable {
     BufferedImage getImage();
 
+    /**
+     * Returns the image without copying it, even if its pixels are
+     * shared with a duplicate. The caller must not modify it.
+     */
+    BufferedImage getImageForReading();
+
+    /**
+     * Returns true if the given image is the current image (compared by
+     * identity), without copying or restoring the current image.
+     */
+    boolean usesImage(BufferedImage img);
+
     void setImage(BufferedImage newImage);
 
     void startPreviewing();
@@ -41,6 +53,11 @@ public interface Drawable {
 
     void stopPreviewing();
 
+    /**
+     * Returns true while a filter preview (or the original image) is shown
+     */
+    boolean isPreviewing();
+
     void tweenCalculatingStarted();
 
     void tweenCalculatingEnded();
@@ -17,6 +17,7 @@
 
 package pixelitor.layers;
 
+import org.jdesktop.swingx.painter.CheckerboardPainter;
 import pixelitor.ChangeReason;
 import pixelitor.Composition;
 import pixelitor.ConsistencyChecks;
@@ -35,7 +36,9 @@ import pixelitor.io.PXCFormat;
 import pixelitor.tools.Tools;
 import pixelitor.utils.ImageTrimUtil;
 import pixelitor.utils.ImageUtils;
+import pixelitor.utils.MappedTileStore;
 import pixelitor.utils.Messages;
+import pixelitor.utils.SparseTiledImage;
 import pixelitor.utils.Utils;
 import pixelitor.utils.VisibleForTesting;
 import pixelitor.utils.test.Assertions;
@@ -55,13 +58,20 @@ import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import static java.awt.RenderingHints.KEY_INTERPOLATION;
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR;
 import static java.awt.RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
 import static java.lang.String.format;
 import static java.util.Objects.requireNonNull;
 import static pixelitor.ChangeReason.REPEAT_LAST;
+import static pixelitor.Composition.ImageChangeActions.FULL;
 import static pixelitor.Composition.ImageChangeActions.INVALIDATE_CACHE;
 import static pixelitor.Composition.ImageChangeActions.REPAINT;
 import static pixelitor.compactions.Flip.Direction.HORIZONTAL;
@@ -105,8 +115,33 @@ public class ImageLayer extends ContentLayer implements Drawable {
     /**
      * The regular image content of this image layer.
      * Transient because BufferedImage can't be directly serialized.
+     * It's null while the content is stored in the sparse tiled image.
      */
-    protected transient BufferedImage image = null;
+    protected transient volatile BufferedImage image = null;
+
+    /**
+     * The content of a big, mostly transparent layer
+     * while it isn't the active layer
+     */
+    private transient volatile SparseTiledImage tiledImage;
+
+    /**
+     * The images that are (or were) used by more than one layer, because
+     * a layer was duplicated, with the number of layers sharing them.
+     * The layers copy them before the first modification, and when
+     * only one layer remains, it can modify the image without copying.
+     * The images are compared by identity, and an image is forgotten
+     * when it's not used anymore, neither by a layer nor by the history.
+     *
+     * The count is decreased only when a layer copies the image.
+     * A layer that replaces its image in other ways is still counted,
+     * because the old image can still be used by its history.
+     */
+    private static final Map<BufferedImage, Integer> shareCounts = new WeakHashMap<>();
+
+    // big layers are checked for transparent tiles, but only once per version
+    private static final long MIN_PIXELS_FOR_TILED_STORAGE = 1024 * 1024;
+    private transient long tiledStorageCheckedVersion = -1;
 
     /**
      * The image shown during filter previews.
@@ -244,7 +279,12 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
-        PXCFormat.serializeImage(out, image);
+        SparseTiledImage tiles = tiledImage;
+        if (tiles != null) {
+            PXCFormat.serializeTiledImage(out, tiles);
+        } else {
+            PXCFormat.serializeImage(out, image);
+        }
     }
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
@@ -254,6 +294,8 @@ public class ImageLayer extends ContentLayer implements Drawable {
         previewImage = null;
         filterSourceImage = null;
         image = null;
+        tiledImage = null;
+        tiledStorageCheckedVersion = -1;
         trimmedBoundingBox = null;
 
         in.defaultReadObject();
@@ -261,17 +303,31 @@ public class ImageLayer extends ContentLayer implements Drawable {
         imageContentChanged = false;
     }
 
+    /**
+     * Returns a duplicate that initially shares the pixels with this
+     * layer, so that duplicating is fast and doesn't need extra memory.
+     * The image is copied only when one of the layers is modified.
+     */
     @Override
     public ImageLayer duplicate(boolean compCopy) {
-        BufferedImage imageCopy = copyImage(image);
-        if (imageCopy == null) {
-            // there was an out of memory error
-            return null;
-        }
         String duplicateName = compCopy ? name : Utils.createCopyName(name);
 
-        ImageLayer d = new ImageLayer(comp, imageCopy, duplicateName,
-                null, translationX, translationY);
+        ImageLayer d;
+        synchronized (this) {
+            SparseTiledImage tiles = tiledImage;
+            if (tiles != null) {
+                // the tiles are immutable, they can be simply shared
+                d = new ImageLayer(comp, duplicateName, null);
+                d.tiledImage = tiles;
+                d.setTranslation(translationX, translationY);
+            } else {
+                synchronized (shareCounts) {
+                    shareCounts.merge(image, 2, (count, two) -> count + 1);
+                }
+                d = new ImageLayer(comp, image, duplicateName,
+                        null, translationX, translationY);
+            }
+        }
         d.setOpacity(getOpacity(), false, false, true);
         d.setBlendingMode(getBlendingMode(), false, false, false);
 
@@ -280,20 +336,145 @@ public class ImageLayer extends ContentLayer implements Drawable {
         return d;
     }
 
+    /**
+     * Returns the image, which the caller can also modify.
+     */
     @Override
     public BufferedImage getImage() {
+        BufferedImage img = getImageForReading();
+        if (isShared(img)) {
+            unshareImage();
+        }
         return image;
     }
 
+    @Override
+    public boolean usesImage(BufferedImage img) {
+        return img != null && img == image;
+    }
+
+    private static boolean isShared(BufferedImage img) {
+        synchronized (shareCounts) {
+            return shareCounts.containsKey(img);
+        }
+    }
+
+    /**
+     * Returns the image without copying it if its pixels
+     * are shared with a duplicate. The caller must not modify it.
+     */
+    @Override
+    public BufferedImage getImageForReading() {
+        if (image == null && tiledImage != null) {
+            restoreFromTiles();
+        }
+        return image;
+    }
+
+    /**
+     * Gives this layer its own copy of the image if its pixels are
+     * shared with a duplicate. This is the "copy" in copy-on-write.
+     */
+    private synchronized void unshareImage() {
+        if (isShared(image)) {
+            // not copied with ImageUtils.copyImage, because an OutOfMemoryError
+            // must reach the caller unchanged (the shared pixels must not be
+            // modified), and the caller shows the out of memory dialog
+            WritableRaster raster = image.copyData(null);
+            BufferedImage sharedImage = image;
+            image = new BufferedImage(image.getColorModel(), raster,
+                    image.isAlphaPremultiplied(), null);
+
+            synchronized (shareCounts) {
+                // if only one layer remains, it doesn't have to copy
+                shareCounts.computeIfPresent(sharedImage,
+                        (img, count) -> count > 2 ? count - 1 : null);
+            }
+        }
+    }
+
+    /**
+     * Stores the image of a big layer in sparse tiles, if most of its
+     * tiles are fully transparent, or in tiles out of the heap, if the
+     * layer is so big that it would take a considerable part of the heap.
+     * This is called when the layer stops being the active layer,
+     * the image is restored when it's needed again.
+     */
+    public synchronized void storeInTilesIfUseful() {
+        if (image == null || state != NORMAL || tmpDrawingLayer != null) {
+            return;
+        }
+        if ((long) image.getWidth() * image.getHeight() < MIN_PIXELS_FOR_TILED_STORAGE
+                || !ImageUtils.hasPackedIntArray(image)) {
+            return;
+        }
+        if (tiledStorageCheckedVersion == getVersion()) {
+            // it was already found to be not sparse enough
+            return;
+        }
+
+        SparseTiledImage tiles = createTilesIfUseful(image);
+        if (tiles != null) {
+            // in this order, so that a concurrent painting never sees both as null
+            tiledImage = tiles;
+            BufferedImage oldImage = image;
+            image = null;
+            oldImage.flush();
+        } else {
+            tiledStorageCheckedVersion = getVersion();
+        }
+    }
+
+    /**
+     * Returns the given image in tiles, or null if it's not worth storing
+     * it that way. The heap tiles are created only after checking that
+     * the image is sparse, without copying anything.
+     */
+    private static SparseTiledImage createTilesIfUseful(BufferedImage img) {
+        if (!SparseTiledImage.isZeroTransparent(img.getColorModel())) {
+            // the empty tiles couldn't be skipped while painting
+            return null;
+        }
+        if (MappedTileStore.isWorthStoring(img)) {
+            try {
+                return SparseTiledImage.fromImageOutOfCore(img);
+            } catch (UncheckedIOException e) {
+                // no scratch file, the image stays on the heap
+                return null;
+            }
+        }
+        if (SparseTiledImage.isMostlyEmpty(img)) {
+            return SparseTiledImage.fromImage(img);
+        }
+        return null;
+    }
+
+    /**
+     * Makes sure that the image isn't stored in sparse tiles,
+     * this is called when the layer becomes the active layer.
+     */
+    public synchronized void restoreFromTiles() {
+        SparseTiledImage tiles = tiledImage;
+        if (tiles != null) {
+            image = tiles.toImage();
+            tiledImage = null;
+        }
+    }
+
+    public boolean isStoredInTiles() {
+        return tiledImage != null;
+    }
+
     private void setPreviewWithSelection(BufferedImage newImage) {
         previewImage = replaceSelectedPart(previewImage, newImage, false);
     }
 
     private void setImageWithSelection(BufferedImage newImage, boolean isUndoRedo) {
-        image = replaceSelectedPart(image, newImage, isUndoRedo);
+        // with a selection the new image is drawn into the current one
+        image = replaceSelectedPart(getImage(), newImage, isUndoRedo);
         imageRefChanged();
 
-        comp.imageChanged(INVALIDATE_CACHE);
+        comp.layerImageChanged(this, INVALIDATE_CACHE);
     }
 
     /**
@@ -356,6 +537,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
     public void setImage(BufferedImage newImage) {
         BufferedImage oldRef = image;
         image = requireNonNull(newImage);
+        tiledImage = null;
         imageRefChanged();
 
         assert Assertions.checkRasterMinimum(newImage);
@@ -414,7 +596,12 @@ public class ImageLayer extends ContentLayer implements Drawable {
         imageRefChanged();
 
         previewImage = null;
-        comp.imageChanged();
+        comp.layerImageChanged(this, FULL);
+    }
+
+    @Override
+    public boolean isPreviewing() {
+        return state == PREVIEW || state == SHOW_ORIGINAL;
     }
 
     @Override
@@ -494,7 +681,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
             if (shouldRefresh) {
                 imageRefChanged();
-                comp.imageChanged();
+                comp.layerImageChanged(this, FULL);
             }
         } else {
             imageContentChanged = true; // history will be necessary
@@ -502,7 +689,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
             setPreviewWithSelection(img);
             setState(PREVIEW);
             imageRefChanged();
-            comp.imageChanged();
+            comp.layerImageChanged(this, FULL);
         }
     }
 
@@ -548,7 +735,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         // not the actual one
         filterSourceImage = null;
         updateIconImage();
-        comp.imageChanged();
+        comp.layerImageChanged(this, FULL);
         invalidateTrimCache();
         Tools.editedObjectChanged(this);
     }
@@ -570,6 +757,12 @@ public class ImageLayer extends ContentLayer implements Drawable {
      * Returns the image bounds relative to the canvas
      */
     public Rectangle getImageBounds() {
+        SparseTiledImage tiles = tiledImage;
+        if (tiles != null) {
+            // no need to restore the image for its size
+            return new Rectangle(translationX, translationY,
+                    tiles.getWidth(), tiles.getHeight());
+        }
         return new Rectangle(
                 translationX, translationY,
                 image.getWidth(), image.getHeight());
@@ -583,7 +776,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
     public Rectangle getEffectiveBoundingBox() {
         // cache trimmed rect until better solution is found
         if (trimmedBoundingBox == null) {
-            trimmedBoundingBox = ImageTrimUtil.getTrimRect(getImage());
+            trimmedBoundingBox = ImageTrimUtil.getTrimRect(getImageForReading());
         }
 
         return new Rectangle(
@@ -603,11 +796,12 @@ public class ImageLayer extends ContentLayer implements Drawable {
     public int getMouseHitPixelAtPoint(Point p) {
         int x = p.x - translationX;
         int y = p.y - translationY;
-        if (x >= 0 && y >= 0 && x < image.getWidth() && y < image.getHeight()) {
+        Rectangle bounds = getImageBounds();
+        if (x >= 0 && y >= 0 && x < bounds.width && y < bounds.height) {
+            int imagePixel = getRGBWithoutRestoring(x, y);
             if (hasMask() && getMask().isMaskEnabled()) {
                 int maskPixel = getMask().getMouseHitPixelAtPoint(p);
                 if (maskPixel != 0) {
-                    int imagePixel = image.getRGB(x, y);
                     float maskAlpha = (maskPixel & 0xff) / 255.0f;
                     int imageAlpha = (imagePixel >> 24) & 0xff;
                     int layerAlpha = (int) (imageAlpha * maskAlpha);
@@ -615,12 +809,20 @@ public class ImageLayer extends ContentLayer implements Drawable {
                 }
             }
 
-            return image.getRGB(x, y);
+            return imagePixel;
         }
 
         return 0x00000000;
     }
 
+    private int getRGBWithoutRestoring(int x, int y) {
+        SparseTiledImage tiles = tiledImage;
+        if (tiles != null) {
+            return tiles.getRGB(x, y);
+        }
+        return image.getRGB(x, y);
+    }
+
     private boolean checkImageDoesNotCoverCanvas() {
         Rectangle canvasBounds = comp.getCanvasImBounds();
         Rectangle imageBounds = getImageBounds();
@@ -640,7 +842,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
             Graphics2D g = bi.createGraphics();
             int drawX = current.x - target.x;
             int drawY = current.y - target.y;
-            g.drawImage(image, drawX, drawY, null);
+            g.drawImage(getImageForReading(), drawX, drawY, null);
             g.dispose();
 
             translationX = target.x - canvasBounds.x;
@@ -660,22 +862,23 @@ public class ImageLayer extends ContentLayer implements Drawable {
     public BufferedImage getImageForFilterDialogs() {
         var selection = comp.getSelection();
         if (selection == null) {
-            return image;
+            return getImage();
         }
 
         Rectangle selBounds = selection.getShapeBounds(1);
 
-        assert image.getRaster().getBounds().contains(selBounds) :
-                "image bounds = " + image.getRaster().getBounds()
+        assert getImage().getRaster().getBounds().contains(selBounds) :
+                "image bounds = " + getImage().getRaster().getBounds()
                         + ", selection bounds = " + selBounds;
 
-        return image.getSubimage(
+        return getImage().getSubimage(
                 selBounds.x, selBounds.y,
                 selBounds.width, selBounds.height);
     }
 
     @Override
     public void flip(Flip.Direction direction) {
+        restoreFromTiles();
         var imageTransform = direction.createImageTransform(this);
         int txAbs = -getTx();
         int tyAbs = -getTy();
@@ -709,6 +912,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public void rotate(Rotate.SpecialAngle angle) {
+        restoreFromTiles();
         int tx = getTx();
         int ty = getTy();
         int txAbs = -tx;
@@ -771,13 +975,14 @@ public class ImageLayer extends ContentLayer implements Drawable {
         if (tmpDrawingLayer == null) {
             return;
         }
-        Graphics2D g = image.createGraphics();
+        Graphics2D g = getImage().createGraphics();
 
         tmpDrawingLayer.paintOn(g, -getTx(), -getTy());
         g.dispose();
 
         tmpDrawingLayer.dispose();
         tmpDrawingLayer = null;
+        contentChanged();
     }
 
     public BufferedImage createCanvasSizedTmpImage() {
@@ -788,8 +993,58 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public BufferedImage getCanvasSizedSubImage() {
+        // the returned image can be modified by the caller
+        return getCanvasSizedSubImage(getImage());
+    }
+
+    /**
+     * Returns a task that creates the thumbnail of the canvas-sized part
+     * of the current image, and can run outside the EDT. The image is not
+     * copied if it's shared with a duplicate, and if it's stored in tiles,
+     * then the tiles are painted directly into a small image, so that
+     * the whole image is never restored for a thumbnail.
+     */
+    Supplier<BufferedImage> createThumbnailTask(int size, CheckerboardPainter painter) {
+        assert EventQueue.isDispatchThread();
+
+        SparseTiledImage tiles = tiledImage;
+        if (tiles == null) {
+            BufferedImage img = getCanvasSizedSubImage(image);
+            return () -> ImageUtils.createThumbnail(img, size, painter);
+        }
+        Rectangle canvasBounds = new Rectangle(-getTx(), -getTy(),
+                canvas.getImWidth(), canvas.getImHeight());
+        return () -> createThumbnailFromTiles(tiles, canvasBounds, size, painter);
+    }
+
+    private static BufferedImage createThumbnailFromTiles(SparseTiledImage tiles,
+                                                          Rectangle canvasBounds,
+                                                          int size,
+                                                          CheckerboardPainter painter) {
+        // the tiles are painted into an image which is at most
+        // 4 times bigger than the thumbnail, like in the first
+        // step of downscaling a normal image
+        Dimension thumbSize = ImageUtils.calcThumbDimensions(
+                canvasBounds.width, canvasBounds.height, size);
+        int width = Math.min(canvasBounds.width, 4 * thumbSize.width);
+        int height = Math.min(canvasBounds.height, 4 * thumbSize.height);
+
+        BufferedImage scaled = new BufferedImage(width, height, TYPE_INT_ARGB_PRE);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(KEY_INTERPOLATION, VALUE_INTERPOLATION_BILINEAR);
+        g.scale(width / (double) canvasBounds.width,
+                height / (double) canvasBounds.height);
+        tiles.paintOn(g, -canvasBounds.x, -canvasBounds.y);
+        g.dispose();
+
+        BufferedImage thumb = ImageUtils.createThumbnail(scaled, size, painter);
+        scaled.flush();
+        return thumb;
+    }
+
+    private BufferedImage getCanvasSizedSubImage(BufferedImage img) {
         if (!isBigLayer()) {
-            return image;
+            return img;
         }
 
         int x = -getTx();
@@ -805,14 +1060,14 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
         BufferedImage subImage;
         try {
-            subImage = image.getSubimage(x, y, canvasWidth, canvasHeight);
+            subImage = img.getSubimage(x, y, canvasWidth, canvasHeight);
         } catch (RasterFormatException e) {
             System.out.printf("ImageLayer.getCanvasSizedSubImage x = %d, y = %d, " +
                             "canvasWidth = %d, canvasHeight = %d, " +
                             "imageWidth = %d, imageHeight = %d%n",
                     x, y, canvasWidth, canvasHeight,
-                    image.getWidth(), image.getHeight());
-            WritableRaster raster = image.getRaster();
+                    img.getWidth(), img.getHeight());
+            WritableRaster raster = img.getRaster();
 
             System.out.printf("ImageLayer.getCanvasSizedSubImage " +
                             "minX = %d, minY = %d, width = %d, height=%d %n",
@@ -844,13 +1099,13 @@ public class ImageLayer extends ContentLayer implements Drawable {
         var selection = comp.getSelection();
         if (selection == null) { // no selection => return full image
             if (copyIfNoSelection) {
-                return copyImage(image);
+                return copyImage(getImageForReading());
             }
-            return image;
+            return getImage();
         }
 
         // there is selection
-        return ImageUtils.getSelectionSizedPartFrom(image,
+        return ImageUtils.getSelectionSizedPartFrom(getImageForReading(),
                 selection, getTx(), getTy());
     }
 
@@ -876,6 +1131,8 @@ public class ImageLayer extends ContentLayer implements Drawable {
             return;
         }
 
+        restoreFromTiles();
+
         int cropWidth = (int) cropRect.getWidth();
         int cropHeight = (int) cropRect.getHeight();
         assert cropWidth > 0 : "cropRect = " + cropRect;
@@ -928,7 +1185,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
     }
 
     public void toCanvasSizeWithHistory() {
-        BufferedImage backupImage = getImage();
+        BufferedImage backupImage = getImageForReading();
         // must be created before the change
         var translationEdit = new TranslationEdit(comp, this, true);
 
@@ -943,6 +1200,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
      * Returns true if something was changed.
      */
     public boolean toCanvasSize() {
+        restoreFromTiles();
         int imageWidth = image.getWidth();
         int imageHeight = image.getHeight();
         int canvasWidth = canvas.getImWidth();
@@ -1011,7 +1269,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         ContentLayerMoveEdit edit;
         boolean needsEnlarging = checkImageDoesNotCoverCanvas();
         if (needsEnlarging) {
-            BufferedImage backupImage = getImage();
+            BufferedImage backupImage = getImageForReading();
             enlargeImage(comp.getCanvasImBounds());
             edit = new ContentLayerMoveEdit(this, backupImage, oldTx, oldTy);
         } else {
@@ -1023,6 +1281,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public CompletableFuture<Void> resize(Dimension newSize) {
+        restoreFromTiles();
         boolean bigLayer = isBigLayer();
 
         int imgTargetWidth = newSize.width;
@@ -1079,9 +1338,35 @@ public class ImageLayer extends ContentLayer implements Drawable {
         return !canvasBounds.contains(layerBounds);
     }
 
+    @Override
+    public boolean canBePaintedInTiles() {
+        // the masked image is cached, so the mask is not a problem
+        return isPaintingCacheable();
+    }
+
+    @Override
+    protected boolean isPaintingCacheable() {
+        // during a brush stroke or while dragging a shape
+        // the tool also paints into the layer
+        if (tmpDrawingLayer != null) {
+            return false;
+        }
+        return !(Tools.isShapesDrawing() && isActive());
+    }
+
     @Override
     public void paintLayerOnGraphics(Graphics2D g, boolean firstVisibleLayer) {
         BufferedImage visibleImage = getVisibleImage();
+        if (visibleImage == null) {
+            SparseTiledImage tiles = tiledImage;
+            if (tiles != null) {
+                // an inactive layer: there is no tmp drawing layer or shape
+                tiles.paintOn(g, getTx(), getTy());
+                return;
+            }
+            // it was restored in the meantime
+            visibleImage = image;
+        }
 
         if (tmpDrawingLayer == null) {
             paintLayerOnGraphicsWOTmpLayer(g, visibleImage, firstVisibleLayer);
@@ -1156,6 +1441,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
         switch (state) {
             case NORMAL:
+                // null if the image is stored in sparse tiles
                 visibleImage = image;
                 break;
             case PREVIEW:
@@ -1186,7 +1472,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
             setState(PREVIEW);
         }
         imageRefChanged();
-        comp.imageChanged(REPAINT);
+        comp.layerImageChanged(this, REPAINT);
     }
 
     private void setState(State newState) {
@@ -1199,7 +1485,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public void debugImages() {
-        Utils.debugImage(image, "image");
+        Utils.debugImage(getImageForReading(), "image");
         if (previewImage != null) {
             Utils.debugImage(previewImage, "previewImage");
         } else {
@@ -1236,12 +1522,12 @@ public class ImageLayer extends ContentLayer implements Drawable {
      */
     public BufferedImage applyLayerMask(boolean addToHistory) {
         // the image reference will not be replaced
-        BufferedImage oldImage = copyImage(image);
+        BufferedImage oldImage = copyImage(getImage());
 
         LayerMask oldMask = mask;
         MaskViewMode oldMode = comp.getView().getMaskViewMode();
 
-        mask.applyToImage(image);
+        mask.applyToImage(getImage());
         deleteMask(false);
 
         if (addToHistory) {
@@ -1280,15 +1566,15 @@ public class ImageLayer extends ContentLayer implements Drawable {
                 + ", canvasHeight=" + canvas.getImHeight()
                 + ", tx=" + translationX
                 + ", ty=" + translationY
-                + ", imgWidth=" + image.getWidth()
-                + ", imgHeight=" + image.getHeight()
+                + ", imgWidth=" + getImageBounds().width
+                + ", imgHeight=" + getImageBounds().height
                 + '}';
     }
 
     @Override
     public String toString() {
         return getClass().getSimpleName()
-                + "{img=" + image.getWidth() + "x" + image.getHeight()
+                + "{img=" + getImageBounds().width + "x" + getImageBounds().height
                 + ", state=" + state
                 + ", super=" + super.toString()
                 + '}';
@@ -55,9 +55,12 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.awt.AlphaComposite.DstIn;
 import static java.awt.AlphaComposite.SRC_OVER;
@@ -97,6 +100,26 @@ public abstract class Layer implements Serializable {
 
     private transient List<LayerChangeListener> layerChangeListeners;
 
+    // A stamp that is increased every time the appearance of the layer
+    // might have changed. The values come from a global counter,
+    // so they are never reused, and the cached data depending
+    // on the layer can be validated by comparing them.
+    private transient volatile long version;
+    private static final AtomicLong versionCounter = new AtomicLong();
+
+    // The layer image with the mask applied, reused while the layer
+    // version doesn't change. Soft reference, because it's canvas-sized.
+    private transient SoftReference<BufferedImage> maskedImageCache;
+    private transient long maskedImageVersion;
+
+    // The result of an adjustment layer or watermarked text layer with
+    // the mask applied, reused while the image bellow, the layer version
+    // and the adjustment settings don't change.
+    private transient SoftReference<BufferedImage> adjustedImageCache;
+    private transient long adjustedImageBelowStamp;
+    private transient long adjustedImageVersion;
+    private transient Object adjustedImageSettings;
+
     /**
      * Whether the edited image is the layer image or
      * the layer mask image.
@@ -121,6 +144,7 @@ public abstract class Layer implements Serializable {
             ui = Lazy.of(this::createUI);
         }
         layerChangeListeners = new ArrayList<>();
+        version = versionCounter.incrementAndGet();
     }
 
     // can be called on any thread
@@ -133,6 +157,7 @@ public abstract class Layer implements Serializable {
 
         in.defaultReadObject();
         layerChangeListeners = new ArrayList<>();
+        version = versionCounter.incrementAndGet();
 
         // Creates a layer button only for real layers, because
         // layer masks use the button of their owner.
@@ -180,6 +205,21 @@ public abstract class Layer implements Serializable {
         }
     }
 
+    /**
+     * Signals that the pixels or the compositing settings of this
+     * layer might have changed. For layer masks, the owner also changes.
+     */
+    public void contentChanged() {
+        version = versionCounter.incrementAndGet();
+        if (owner != null) {
+            owner.contentChanged();
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
     public LayerUI getUI() {
         return ui.get();
     }
@@ -492,19 +532,120 @@ public abstract class Layer implements Serializable {
         return null;
     }
 
+    /**
+     * The same as {@link #applyLayer(Graphics2D, BufferedImage, boolean)},
+     * but adjustment layers and watermarked text layers can reuse their
+     * previous result. The given stamp identifies the content of imageSoFar:
+     * it must be different whenever the image bellow this layer changes.
+     */
+    public BufferedImage applyLayer(Graphics2D g,
+                                    BufferedImage imageSoFar,
+                                    boolean firstVisibleLayer,
+                                    long imageSoFarStamp) {
+        if (!isAdjustment || firstVisibleLayer) {
+            return applyLayer(g, imageSoFar, firstVisibleLayer);
+        }
+
+        BufferedImage adjusted = getCachedAdjustedImage(imageSoFar, imageSoFarStamp);
+
+        // the cached image must not be modified by the layers above,
+        // therefore it's always painted on the image bellow
+        Graphics2D ig = imageSoFar.createGraphics();
+        if (!useMask() && isNormalAndOpaque()) {
+            ig.setComposite(AlphaComposite.Src);
+        } else {
+            setupDrawingComposite(ig, false);
+        }
+        ig.drawImage(adjusted, 0, 0, null);
+        ig.dispose();
+        return imageSoFar;
+    }
+
+    private synchronized BufferedImage getCachedAdjustedImage(BufferedImage imageSoFar, long imageSoFarStamp) {
+        // read before the calculation, because this can run on a pool
+        // thread while the layer is changed, and then the new version
+        // must not be attached to an image calculated from the old state
+        long currentVersion = version;
+        Object settings = getAdjustmentSettings();
+        BufferedImage adjusted = adjustedImageCache == null ? null : adjustedImageCache.get();
+        if (adjusted != null
+                && adjustedImageBelowStamp == imageSoFarStamp
+                && adjustedImageVersion == currentVersion
+                && Objects.equals(adjustedImageSettings, settings)
+                && adjusted.getWidth() == imageSoFar.getWidth()
+                && adjusted.getHeight() == imageSoFar.getHeight()) {
+            return adjusted;
+        }
+
+        adjusted = actOnImageFromLayerBellow(imageSoFar);
+        if (adjusted == imageSoFar) {
+            // the image bellow will be modified by the layers above
+            adjusted = ImageUtils.copyImage(adjusted);
+        }
+        if (useMask()) {
+            mask.applyToImage(adjusted);
+        }
+
+        adjustedImageCache = new SoftReference<>(adjusted);
+        adjustedImageBelowStamp = imageSoFarStamp;
+        adjustedImageVersion = currentVersion;
+        adjustedImageSettings = settings;
+        return adjusted;
+    }
+
+    /**
+     * Returns an object representing the current settings of an adjustment
+     * layer, if they can change without changing the layer version.
+     */
+    protected Object getAdjustmentSettings() {
+        return null;
+    }
+
     // used by the non-adjustment stuff
     // This method assumes that the composite of the graphics is already
     // set up according to the transparency and blending mode
     public abstract void paintLayerOnGraphics(Graphics2D g, boolean firstVisibleLayer);
 
     /**
-     * Returns the masked image for the non-adjustment case.
-     * The returned image is canvas-sized, and the masks and the
+     * Paints the layer with the mask applied for the non-adjustment case.
+     * The masked image is canvas-sized, and the masks and the
      * translations are taken into account
      */
     private void paintLayerOnGraphicsWithMask(Graphics2D g, boolean firstVisibleLayer) {
-        // 1. create the masked image
-        // TODO the masked image should be cached
+        // 1. get or create the masked image
+        BufferedImage maskedImage;
+        if (isPaintingCacheable()) {
+            maskedImage = getCachedMaskedImage(firstVisibleLayer);
+        } else {
+            maskedImage = createMaskedImage(firstVisibleLayer);
+        }
+
+        // 2. paint the masked image onto the graphics
+//            g.drawImage(maskedImage, getTx(), getTy(), null);
+        setupDrawingComposite(g, firstVisibleLayer);
+        g.drawImage(maskedImage, 0, 0, null);
+    }
+
+    // synchronized, because the tiles of the composite
+    // image can be painted on several threads
+    private synchronized BufferedImage getCachedMaskedImage(boolean firstVisibleLayer) {
+        // read before the calculation, see getCachedAdjustedImage
+        long currentVersion = version;
+        BufferedImage maskedImage = maskedImageCache == null ? null : maskedImageCache.get();
+        if (maskedImage != null
+                && maskedImageVersion == currentVersion
+                && maskedImage.getWidth() == canvas.getImWidth()
+                && maskedImage.getHeight() == canvas.getImHeight()) {
+            return maskedImage;
+        }
+
+        maskedImage = createMaskedImage(firstVisibleLayer);
+        maskedImageCache = new SoftReference<>(maskedImage);
+        maskedImageVersion = currentVersion;
+        return maskedImage;
+    }
+
+    private BufferedImage createMaskedImage(boolean firstVisibleLayer) {
         BufferedImage maskedImage = new BufferedImage(
                 canvas.getImWidth(), canvas.getImHeight(), TYPE_INT_ARGB);
         Graphics2D mig = maskedImage.createGraphics();
@@ -513,11 +654,16 @@ public abstract class Layer implements Serializable {
         mig.drawImage(mask.getTransparencyImage(),
                 mask.getTx(), mask.getTy(), null);
         mig.dispose();
+        return maskedImage;
+    }
 
-        // 2. paint the masked image onto the graphics
-//            g.drawImage(maskedImage, getTx(), getTy(), null);
-        setupDrawingComposite(g, firstVisibleLayer);
-        g.drawImage(maskedImage, 0, 0, null);
+    /**
+     * Returns true if the painted pixels depend only on the state
+     * tracked by the layer version, and not on an unfinished
+     * tool operation, so that they can be cached.
+     */
+    protected boolean isPaintingCacheable() {
+        return true;
     }
 
     /**
@@ -588,6 +734,23 @@ public abstract class Layer implements Serializable {
         return maskEditing;
     }
 
+    /**
+     * Returns true for adjustment layers and watermarked text layers,
+     * which act on the composite image bellow them
+     */
+    public boolean isAdjustment() {
+        return isAdjustment;
+    }
+
+    /**
+     * Returns true if this layer can be painted at the same time from
+     * several threads on differently clipped Graphics objects of the same
+     * image, which allows the composite image to be calculated in tiles.
+     */
+    public boolean canBePaintedInTiles() {
+        return false;
+    }
+
     /**
      * Returns true if the layer is in normal mode and the opacity is 100%
      */
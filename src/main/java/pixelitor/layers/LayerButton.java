@@ -20,7 +20,6 @@ package pixelitor.layers;
 import com.bric.util.JVM;
 import org.jdesktop.swingx.painter.CheckerboardPainter;
 import pixelitor.Build;
-import pixelitor.ThreadPool;
 import pixelitor.gui.PixelitorWindow;
 import pixelitor.gui.View;
 import pixelitor.utils.Icons;
@@ -39,7 +38,6 @@ import static javax.swing.BorderFactory.createCompoundBorder;
 import static javax.swing.BorderFactory.createLineBorder;
 import static javax.swing.BorderFactory.createMatteBorder;
 import static pixelitor.layers.LayerButtonLayout.thumbSize;
-import static pixelitor.utils.ImageUtils.createThumbnail;
 
 /**
  * The selectable and draggable component representing
@@ -364,20 +362,14 @@ public class LayerButton extends JToggleButton implements LayerUI {
 
         boolean isMask = layer instanceof LayerMask;
 
-        BufferedImage img = layer.getCanvasSizedSubImage();
-
-        Runnable notEDT = () -> {
-            CheckerboardPainter painter = null;
-            if (!isMask) {
-                painter = checkerBoardPainter;
-            }
-
-            BufferedImage thumb = createThumbnail(img, thumbSize, painter);
+        CheckerboardPainter painter = null;
+        if (!isMask) {
+            painter = checkerBoardPainter;
+        }
 
-            SwingUtilities.invokeLater(() ->
-                    updateIconOnEDT(layer, isMask, thumb));
-        };
-        ThreadPool.submit(notEDT);
+        // the repeated requests for the same layer are coalesced
+        LayerThumbnails.request(layer, layer.createThumbnailTask(thumbSize, painter),
+                thumb -> updateIconOnEDT(layer, isMask, thumb));
     }
 
     private void updateIconOnEDT(ImageLayer layer, boolean isMask, BufferedImage thumb) {
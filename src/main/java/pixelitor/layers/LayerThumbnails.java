@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import java.awt.EventQueue;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Creates the layer and mask thumbnails on a low-priority background thread.
+ *
+ * If the thumbnail of the same layer (or mask) is requested several
+ * times before the processing of the first request starts
+ * (for example while undoing many edits), only the last one is created.
+ */
+class LayerThumbnails {
+    private static final ExecutorService executor =
+            Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "Layer Thumbnails");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+
+    // the requests that were not started yet, guarded by its own lock
+    private static final Map<ImageLayer, Request> waiting = new HashMap<>();
+
+    private LayerThumbnails() {
+    }
+
+    /**
+     * Requests a thumbnail for the given layer, which will be created
+     * by the given task. When it is ready, the given callback receives it on the EDT.
+     */
+    static void request(ImageLayer layer, Supplier<BufferedImage> thumbTask,
+                        Consumer<BufferedImage> onEDT) {
+        Request request = new Request(thumbTask, onEDT);
+        boolean alreadyWaiting;
+        synchronized (waiting) {
+            alreadyWaiting = waiting.put(layer, request) != null;
+        }
+        if (!alreadyWaiting) {
+            executor.execute(() -> process(layer));
+        }
+    }
+
+    private static void process(ImageLayer layer) {
+        Request request;
+        synchronized (waiting) {
+            request = waiting.remove(layer);
+        }
+        BufferedImage thumb = request.thumbTask.get();
+        EventQueue.invokeLater(() -> request.onEDT.accept(thumb));
+    }
+
+    private static class Request {
+        private final Supplier<BufferedImage> thumbTask;
+        private final Consumer<BufferedImage> onEDT;
+
+        private Request(Supplier<BufferedImage> thumbTask,
+                        Consumer<BufferedImage> onEDT) {
+            this.thumbTask = thumbTask;
+            this.onEDT = onEDT;
+        }
+    }
+}
@@ -128,7 +128,7 @@ public class MaskFromColorRangePanel extends JPanel {
             changeColorPickerImage(true);
         } else if (srcBasedOnLayer) {
             // change to composite-based
-            srcImage = comp.getCompositeImage();
+            srcImage = comp.getCompositeImageCopy();
             srcBasedOnLayer = false;
             changeColorPickerImage(true);
         }
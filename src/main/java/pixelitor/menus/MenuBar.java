@@ -866,9 +866,7 @@ public class MenuBar extends JMenuBar {
         sub.buildFilter(JHReduceNoise.NAME, JHReduceNoise::new)
                 .noGUI()
                 .add();
-        sub.buildFilter(JHMedian.NAME, JHMedian::new)
-                .noGUI()
-                .add();
+        sub.addFilter(JHMedian.NAME, JHMedian::new);
 
         sub.addSeparator();
 
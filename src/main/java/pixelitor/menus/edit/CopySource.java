@@ -99,7 +99,8 @@ public enum CopySource {
     }, COMPOSITE {
         @Override
         BufferedImage getImage(Composition comp) {
-            return comp.getCompositeImage();
+            // the clipboard must not change with the later edits
+            return comp.getCompositeImageCopy();
         }
 
         @Override
@@ -25,6 +25,7 @@ import pixelitor.io.FileChoosers;
 import pixelitor.io.OpenRaster;
 
 import javax.swing.*;
+import java.awt.image.BufferedImage;
 import java.io.File;
 
 import static javax.swing.JOptionPane.CANCEL_OPTION;
@@ -96,8 +97,9 @@ public class OpenRasterExportPanel extends JPanel {
     private static void okPressedInDialog(Composition comp, OpenRasterExportPanel p) {
         File file = FileChoosers.selectSaveFileForSpecificFormat(FileChoosers.oraFilter);
         if (file != null) {
-            boolean addMergedImage = p.exportMergedImage();
-            Runnable saveTask = () -> OpenRaster.uncheckedWrite(comp, file, addMergedImage);
+            BufferedImage mergedImage = p.exportMergedImage()
+                    ? comp.getCompositeImageCopy() : null;
+            Runnable saveTask = () -> OpenRaster.uncheckedWrite(comp, file, mergedImage);
             comp.saveAsync(saveTask, file, true);
         }
     }
@@ -35,6 +35,7 @@ import java.awt.Shape;
 import java.awt.Stroke;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
+import java.awt.geom.Path2D;
 import java.awt.geom.Rectangle2D;
 
 import static java.awt.BasicStroke.CAP_BUTT;
@@ -70,6 +71,13 @@ public class Selection {
     // the original shape before a shape movement
     private Shape moveStartShape;
 
+    // The shape flattened into a polyline at the zoom level
+    // of the last painting. Stroking complex Areas at every
+    // marching ants step would be expensive.
+    private Shape cachedOutline;
+    private Shape cachedOutlineShape;
+    private double cachedOutlineScaling;
+
     public Selection(Shape shape, View view) {
         // TODO should not allow selections with null shape
         assert view != null;
@@ -109,7 +117,7 @@ public class Selection {
         marchingAntsTimer.addActionListener(evt -> {
             if(!hidden) {
                 dashPhase += 1.0f / (float) view.getScaling();
-                repaint();
+                repaintAnts();
             }
         });
         marchingAntsTimer.start();
@@ -133,7 +141,28 @@ public class Selection {
             return;
         }
 
-        paintAnts(g2, shape, dashPhase);
+        paintAnts(g2, getOutline(), dashPhase);
+    }
+
+    private Shape getOutline() {
+        double viewScale = view.getScaling();
+        if (cachedOutline == null || cachedOutlineShape != shape
+                || cachedOutlineScaling != viewScale) {
+            // half a screen pixel is a precise enough approximation
+            double flatness = 0.5 / viewScale;
+            Path2D outline = new Path2D.Float();
+            outline.append(shape.getPathIterator(null, flatness), false);
+
+            cachedOutline = outline;
+            cachedOutlineShape = shape;
+            cachedOutlineScaling = viewScale;
+        }
+        return cachedOutline;
+    }
+
+    private void invalidateOutline() {
+        cachedOutline = null;
+        cachedOutlineShape = null;
     }
 
     private void paintAnts(Graphics2D g2, Shape shape, float phase) {
@@ -168,6 +197,7 @@ public class Selection {
 
     public void die() {
         stopMarching();
+        invalidateOutline();
         repaint();
         view = null;
         dead = true;
@@ -186,8 +216,26 @@ public class Selection {
         view.repaint();
     }
 
+    /**
+     * Repaints only the area of the marching ants, this is
+     * enough if only the dash phase changed since the last painting.
+     */
+    private void repaintAnts() {
+        if (shape == null || !view.isShowing()) {
+            return;
+        }
+        Rectangle bounds = view.imageToComponentSpace(shape.getBounds2D());
+        // the ants are painted one pixel wide on the bounds, and
+        // the conversion to component space can truncate a pixel
+        bounds.grow(2, 2);
+        view.repaint(bounds);
+    }
+
     public void setShape(Shape currentShape) {
         shape = currentShape;
+
+        // the lasso tools add points to the same shape object
+        invalidateOutline();
     }
 
     /**
@@ -74,6 +74,7 @@ import static java.awt.RenderingHints.KEY_ANTIALIASING;
 import static java.awt.RenderingHints.KEY_INTERPOLATION;
 import static java.awt.RenderingHints.VALUE_ANTIALIAS_ON;
 import static java.awt.RenderingHints.VALUE_INTERPOLATION_BICUBIC;
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR;
 import static java.awt.RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
 import static java.awt.Transparency.TRANSLUCENT;
 import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
@@ -670,9 +671,33 @@ public class ImageUtils {
         return downSizeFast(src, thumbWidth, thumbHeight, painter);
     }
 
+    /**
+     * Downscales in several steps: first a cheap nearest neighbor step
+     * to 4x the thumbnail size, then bilinear halving steps, so that
+     * the result is smooth, but big images are not filtered at full size.
+     */
     private static BufferedImage downSizeFast(BufferedImage src,
                                               int thumbWidth, int thumbHeight,
                                               CheckerboardPainter painter) {
+        BufferedImage scaled = src;
+        int width = src.getWidth();
+        int height = src.getHeight();
+
+        if (width > 4 * thumbWidth && height > 4 * thumbHeight) {
+            width = 4 * thumbWidth;
+            height = 4 * thumbHeight;
+            scaled = scaleStep(src, width, height, VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        }
+        while (width >= 2 * thumbWidth && height >= 2 * thumbHeight) {
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+            BufferedImage half = scaleStep(scaled, width, height, VALUE_INTERPOLATION_BILINEAR);
+            if (scaled != src) {
+                scaled.flush();
+            }
+            scaled = half;
+        }
+
         BufferedImage thumb = createSysCompatibleImage(thumbWidth, thumbHeight);
         Graphics2D g = thumb.createGraphics();
 
@@ -680,13 +705,27 @@ public class ImageUtils {
             painter.paint(g, null, thumbWidth, thumbHeight);
         }
 
-        g.setRenderingHint(KEY_INTERPOLATION,
-                VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-        g.drawImage(src, 0, 0, thumbWidth, thumbHeight, null);
+        g.setRenderingHint(KEY_INTERPOLATION, VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(scaled, 0, 0, thumbWidth, thumbHeight, null);
         g.dispose();
+        if (scaled != src) {
+            scaled.flush();
+        }
         return thumb;
     }
 
+    private static BufferedImage scaleStep(BufferedImage src,
+                                           int width, int height,
+                                           Object interpolation) {
+        BufferedImage dest = new BufferedImage(width, height, TYPE_INT_ARGB_PRE);
+        Graphics2D g = dest.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.setRenderingHint(KEY_INTERPOLATION, interpolation);
+        g.drawImage(src, 0, 0, width, height, null);
+        g.dispose();
+        return dest;
+    }
+
     public static void paintRedXOn(BufferedImage thumb) {
         int thumbWidth = thumb.getWidth();
         int thumbHeight = thumb.getHeight();
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static pixelitor.utils.SparseTiledImage.TILE_SIZE;
+
+/**
+ * Stores the pixels of packed int tiles outside the Java heap,
+ * in a memory-mapped scratch file, so that big images can be kept
+ * even if they don't fit into the heap. The file is deleted when the
+ * owner of the store is garbage collected (or at the latest on exit).
+ *
+ * The recently used tiles of all stores are also cached on the heap,
+ * in a shared LRU cache with a fixed size.
+ */
+public class MappedTileStore {
+    private static final int TILE_INTS = TILE_SIZE * TILE_SIZE;
+    private static final int TILES_PER_SEGMENT = 256;
+    private static final long SEGMENT_BYTES = (long) TILES_PER_SEGMENT * TILE_INTS * 4;
+
+    // 64 MB for all the stores together
+    private static final int MAX_CACHED_TILES = 256;
+
+    // images that would use more than this part of the heap are worth storing
+    private static final int HEAP_FRACTION = 8;
+    private static long minPixelsToStore =
+            Runtime.getRuntime().maxMemory() / HEAP_FRACTION / 4;
+
+    private static final Cleaner cleaner = Cleaner.create();
+    private static final AtomicInteger idCounter = new AtomicInteger();
+
+    // keyed by the store id in the high bits and the slot in the low bits
+    private static final Map<Long, BufferedImage> cache =
+            new LinkedHashMap<>(MAX_CACHED_TILES * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+                    return size() > MAX_CACHED_TILES;
+                }
+            };
+
+    private final int id = idCounter.incrementAndGet();
+    private final ColorModel colorModel;
+    private final FileChannel channel;
+
+    // the file is mapped in fixed-size segments, because
+    // a single mapping can't be bigger than 2 GB
+    private final List<IntBuffer> segments = new ArrayList<>();
+    private int numSlots = 0;
+
+    /**
+     * Creates a new store for tiles with the given color model,
+     * which must use a single packed int for each pixel.
+     */
+    public MappedTileStore(ColorModel colorModel) {
+        this.colorModel = colorModel;
+        try {
+            // no deleteOnExit(), because its list would grow with every
+            // store, the file is deleted when the channel is closed
+            Path file = Files.createTempFile("pixelitor-tiles", ".tmp");
+            channel = FileChannel.open(file, READ, WRITE, DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns true if the given image is so big compared to the heap
+     * that it's worth keeping it in a store while it's not edited.
+     */
+    public static boolean isWorthStoring(BufferedImage img) {
+        return (long) img.getWidth() * img.getHeight() >= minPixelsToStore
+                && ImageUtils.hasPackedIntArray(img);
+    }
+
+    @VisibleForTesting
+    public static void setMinPixelsToStore(long minPixels) {
+        minPixelsToStore = minPixels;
+    }
+
+    /**
+     * Closes the store (and deletes its file) when the given object
+     * becomes unreachable. The owner must be the only user of the store.
+     */
+    public void closeWhenUnreachable(Object owner) {
+        cleaner.register(owner, new CloseAction(id, channel));
+    }
+
+    /**
+     * Copies the given packed pixels of a tile into
+     * the store, and returns the slot where it can be found.
+     */
+    public synchronized int store(int[] data) {
+        assert data.length <= TILE_INTS;
+
+        int slot = numSlots;
+        int segmentIndex = slot / TILES_PER_SEGMENT;
+        if (segmentIndex == segments.size()) {
+            segments.add(mapSegment(segmentIndex));
+        }
+        IntBuffer buffer = segments.get(segmentIndex).duplicate();
+        buffer.position((slot % TILES_PER_SEGMENT) * TILE_INTS);
+        buffer.put(data);
+        numSlots++;
+        return slot;
+    }
+
+    private IntBuffer mapSegment(int segmentIndex) {
+        try {
+            return channel
+                    .map(FileChannel.MapMode.READ_WRITE, segmentIndex * SEGMENT_BYTES, SEGMENT_BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asIntBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the tile from the given slot as an image with the given size.
+     * The returned image is shared by the cache, and must not be modified.
+     */
+    public BufferedImage getTile(int slot, int width, int height) {
+        Long key = ((long) id << 32) | slot;
+        synchronized (cache) {
+            BufferedImage cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(width, height);
+        int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+        IntBuffer buffer;
+        synchronized (this) {
+            buffer = segments.get(slot / TILES_PER_SEGMENT).duplicate();
+        }
+        buffer.position((slot % TILES_PER_SEGMENT) * TILE_INTS);
+        buffer.get(pixels, 0, width * height);
+        BufferedImage tile = new BufferedImage(colorModel, raster,
+                colorModel.isAlphaPremultiplied(), null);
+
+        synchronized (cache) {
+            cache.put(key, tile);
+        }
+        return tile;
+    }
+
+    public synchronized int getNumStoredTiles() {
+        return numSlots;
+    }
+
+    private static class CloseAction implements Runnable {
+        private final int id;
+        private final FileChannel channel;
+
+        private CloseAction(int id, FileChannel channel) {
+            this.id = id;
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            synchronized (cache) {
+                cache.keySet().removeIf(key -> (key >>> 32) == id);
+            }
+            try {
+                // the mapped buffers stay valid until they are collected
+                channel.close();
+            } catch (IOException e) {
+                // nothing useful can be done while cleaning up
+            }
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * An immutable copy of an image, stored in square tiles. The tiles
+ * where all the pixel values are zero (which means fully transparent
+ * pixels for the usual ARGB images) are not allocated, therefore big,
+ * mostly empty images need much less memory in this form.
+ *
+ * The pixel values are stored exactly, {@link #toImage()}
+ * returns an image with the same pixels as the original.
+ *
+ * The tiles of packed int images can also be stored out of the heap,
+ * in a {@link MappedTileStore}.
+ */
+public class SparseTiledImage {
+    public static final int TILE_SIZE = 256;
+
+    private final ColorModel colorModel;
+    private final int type;
+    private final int width;
+    private final int height;
+    private final int numTilesX;
+    private final int numTilesY;
+
+    // the data elements of a pixel with zero values
+    private final Object zeroPixel;
+
+    // in row-major order, null for the empty tiles
+    private final BufferedImage[] tiles;
+    private int numAllocatedTiles;
+
+    // if not null, the tiles are in this store, and the slots
+    // array contains their location (or -1 for the empty tiles)
+    private MappedTileStore store;
+    private int[] slots;
+
+    private SparseTiledImage(BufferedImage src) {
+        colorModel = src.getColorModel();
+        type = src.getType();
+        width = src.getWidth();
+        height = src.getHeight();
+        numTilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        numTilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        tiles = new BufferedImage[numTilesX * numTilesY];
+        zeroPixel = colorModel.createCompatibleWritableRaster(1, 1)
+                .getDataElements(0, 0, null);
+    }
+
+    /**
+     * Copies the given image into a new sparse tiled image.
+     */
+    public static SparseTiledImage fromImage(BufferedImage src) {
+        SparseTiledImage tiled = new SparseTiledImage(src);
+        tiled.copyTilesFrom(src.getRaster());
+        return tiled;
+    }
+
+    /**
+     * Copies the given image into a new sparse tiled image, which keeps
+     * its tiles in a memory-mapped scratch file instead of the heap.
+     * The image must have a packed int raster.
+     */
+    public static SparseTiledImage fromImageOutOfCore(BufferedImage src) {
+        assert ImageUtils.hasPackedIntArray(src);
+
+        SparseTiledImage tiled = new SparseTiledImage(src);
+        tiled.store = new MappedTileStore(tiled.colorModel);
+        tiled.store.closeWhenUnreachable(tiled);
+        tiled.slots = new int[tiled.tiles.length];
+        tiled.copyTilesFrom(src.getRaster());
+        return tiled;
+    }
+
+    /**
+     * Returns true if at most half of the tiles of the given packed int
+     * image would be allocated, see {@link #isMostlyEmpty()}. The pixels
+     * are only scanned, and the scanning stops as soon as the answer is
+     * known, so this is much cheaper than creating the tiles of a dense image.
+     */
+    public static boolean isMostlyEmpty(BufferedImage src) {
+        assert ImageUtils.hasPackedIntArray(src);
+
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int numTilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int numTilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        int maxAllocatedTiles = numTilesX * numTilesY / 2;
+
+        int[] pixels = ImageUtils.getPixelsAsArray(src);
+        int numNonEmptyTiles = 0;
+        for (int ty = 0; ty < numTilesY; ty++) {
+            for (int tx = 0; tx < numTilesX; tx++) {
+                int x = tx * TILE_SIZE;
+                int y = ty * TILE_SIZE;
+                int w = Math.min(TILE_SIZE, width - x);
+                int h = Math.min(TILE_SIZE, height - y);
+                if (!isTileEmpty(pixels, width, x, y, w, h)) {
+                    numNonEmptyTiles++;
+                    if (numNonEmptyTiles > maxAllocatedTiles) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isTileEmpty(int[] pixels, int width,
+                                       int x, int y, int w, int h) {
+        for (int row = y; row < y + h; row++) {
+            int rowStart = row * width + x;
+            int rowEnd = rowStart + w;
+            for (int i = rowStart; i < rowEnd; i++) {
+                if (pixels[i] != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void copyTilesFrom(Raster src) {
+        int minX = src.getMinX();
+        int minY = src.getMinY();
+
+        // the buffer of the full-sized tiles is reused while they are empty
+        Object buffer = null;
+        for (int ty = 0; ty < numTilesY; ty++) {
+            for (int tx = 0; tx < numTilesX; tx++) {
+                int x = tx * TILE_SIZE;
+                int y = ty * TILE_SIZE;
+                int w = Math.min(TILE_SIZE, width - x);
+                int h = Math.min(TILE_SIZE, height - y);
+                boolean fullSize = w == TILE_SIZE && h == TILE_SIZE;
+
+                Object data = src.getDataElements(minX + x, minY + y, w, h,
+                        fullSize ? buffer : null);
+                if (isAllZeros(data)) {
+                    if (fullSize) {
+                        buffer = data;
+                    }
+                    if (store != null) {
+                        slots[ty * numTilesX + tx] = -1;
+                    }
+                    continue;
+                }
+
+                int index = ty * numTilesX + tx;
+                if (store != null) {
+                    // the buffer can be reused, because the store copies it
+                    slots[index] = store.store((int[]) data);
+                    if (fullSize) {
+                        buffer = data;
+                    }
+                } else {
+                    WritableRaster tileRaster = colorModel.createCompatibleWritableRaster(w, h);
+                    tileRaster.setDataElements(0, 0, w, h, data);
+                    tiles[index] = new BufferedImage(colorModel,
+                            tileRaster, colorModel.isAlphaPremultiplied(), null);
+                }
+                numAllocatedTiles++;
+            }
+        }
+    }
+
+    /**
+     * Returns the tile at the given tile coordinates, or null if it's empty.
+     */
+    private BufferedImage getTile(int tx, int ty) {
+        int index = ty * numTilesX + tx;
+        if (store == null) {
+            return tiles[index];
+        }
+        int slot = slots[index];
+        if (slot == -1) {
+            return null;
+        }
+        int w = Math.min(TILE_SIZE, width - tx * TILE_SIZE);
+        int h = Math.min(TILE_SIZE, height - ty * TILE_SIZE);
+        return store.getTile(slot, w, h);
+    }
+
+    private static boolean isAllZeros(Object data) {
+        if (data instanceof int[]) {
+            for (int value : (int[]) data) {
+                if (value != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (data instanceof byte[]) {
+            for (byte value : (byte[]) data) {
+                if (value != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (data instanceof short[]) {
+            for (short value : (short[]) data) {
+                if (value != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        // unusual transfer types are always stored
+        return false;
+    }
+
+    /**
+     * Creates a new, contiguous image with the same pixels as the original.
+     */
+    public BufferedImage toImage() {
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(width, height);
+        for (int ty = 0; ty < numTilesY; ty++) {
+            for (int tx = 0; tx < numTilesX; tx++) {
+                BufferedImage tile = getTile(tx, ty);
+                if (tile != null) {
+                    raster.setRect(tx * TILE_SIZE, ty * TILE_SIZE, tile.getRaster());
+                }
+            }
+        }
+        return new BufferedImage(colorModel, raster,
+                colorModel.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Copies the pixels of the given row of tiles into the given array
+     * (with zeros for the empty tiles), which must have room for
+     * TILE_SIZE rows of the image. Only for packed int images.
+     *
+     * @return the number of copied rows
+     */
+    public int copyTileRowPixels(int ty, int[] pixels) {
+        int y = ty * TILE_SIZE;
+        int numRows = Math.min(TILE_SIZE, height - y);
+        Arrays.fill(pixels, 0, numRows * width, 0);
+
+        int[] tilePixels = null;
+        for (int tx = 0; tx < numTilesX; tx++) {
+            BufferedImage tile = getTile(tx, ty);
+            if (tile == null) {
+                continue;
+            }
+            int w = tile.getWidth();
+            tilePixels = (int[]) tile.getRaster().getDataElements(
+                    0, 0, w, numRows, w == TILE_SIZE ? tilePixels : null);
+            for (int row = 0; row < numRows; row++) {
+                System.arraycopy(tilePixels, row * w,
+                        pixels, row * width + tx * TILE_SIZE, w);
+            }
+        }
+        return numRows;
+    }
+
+    /**
+     * Paints the image with its top left corner at the given coordinates,
+     * skipping the empty tiles and the tiles outside the clip.
+     * This is correct only if {@link #isZeroTransparent()} is true.
+     */
+    public void paintOn(Graphics2D g, int x, int y) {
+        assert isZeroTransparent();
+
+        Rectangle clip = g.getClipBounds();
+        for (int ty = 0; ty < numTilesY; ty++) {
+            for (int tx = 0; tx < numTilesX; tx++) {
+                BufferedImage tile = getTile(tx, ty);
+                if (tile == null) {
+                    continue;
+                }
+                int tileX = x + tx * TILE_SIZE;
+                int tileY = y + ty * TILE_SIZE;
+                if (clip != null && !clip.intersects(tileX, tileY,
+                        tile.getWidth(), tile.getHeight())) {
+                    continue;
+                }
+                g.drawImage(tile, tileX, tileY, null);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the pixels with zero values (and therefore the
+     * empty tiles) are fully transparent in this image's color model.
+     */
+    public boolean isZeroTransparent() {
+        return colorModel.hasAlpha() && colorModel.getAlpha(zeroPixel) == 0;
+    }
+
+    /**
+     * Returns true if the pixels with zero values are fully transparent
+     * in the given color model, see {@link #isZeroTransparent()}.
+     */
+    public static boolean isZeroTransparent(ColorModel colorModel) {
+        Object zeroPixel = colorModel.createCompatibleWritableRaster(1, 1)
+                .getDataElements(0, 0, null);
+        return colorModel.hasAlpha() && colorModel.getAlpha(zeroPixel) == 0;
+    }
+
+    /**
+     * Returns the pixel at the given coordinates in the default
+     * RGB color model, like {@link BufferedImage#getRGB(int, int)}
+     */
+    public int getRGB(int x, int y) {
+        BufferedImage tile = getTile(x / TILE_SIZE, y / TILE_SIZE);
+        if (tile == null) {
+            return colorModel.getRGB(zeroPixel);
+        }
+        return tile.getRGB(x % TILE_SIZE, y % TILE_SIZE);
+    }
+
+    /**
+     * Returns the type of the original image, see {@link BufferedImage#getType()}
+     */
+    public int getType() {
+        return type;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNumTiles() {
+        return tiles.length;
+    }
+
+    /**
+     * Returns true if the tiles are stored out of the heap
+     */
+    public boolean isOutOfCore() {
+        return store != null;
+    }
+
+    public int getNumAllocatedTiles() {
+        return numAllocatedTiles;
+    }
+
+    /**
+     * Returns true if at most half of the tiles are allocated,
+     * which means that this form needs at most half of the memory
+     */
+    public boolean isMostlyEmpty() {
+        return numAllocatedTiles * 2 <= tiles.length;
+    }
+
+    @Override
+    public String toString() {
+        return "SparseTiledImage{width=" + width
+                + ", height=" + height
+                + ", allocated tiles=" + numAllocatedTiles
+                + "/" + tiles.length
+                + ", out of core=" + isOutOfCore() + '}';
+    }
+}
@@ -18,10 +18,15 @@
 package pixelitor.utils;
 
 import java.awt.EventQueue;
+import java.util.concurrent.CancellationException;
 
 /**
  * An abstract superclass for progress tracking classes which
  * show progress information after a time threshold has been exceeded.
+ *
+ * It also throws a {@link CancellationException} if the thread running
+ * the tracked operation was interrupted, which allows the cooperative
+ * cancellation of the operations that report their progress.
  */
 public abstract class ThresholdProgressTracker implements ProgressTracker {
     private static final int THRESHOLD_MILLIS = 200;
@@ -54,6 +59,13 @@ public abstract class ThresholdProgressTracker implements ProgressTracker {
     }
 
     private void update() {
+        if (Thread.currentThread().isInterrupted()) {
+            // the result is not needed anymore, typically because
+            // a newer filter preview was started
+            finished();
+            throw new CancellationException();
+        }
+
         if (!showingProgress) {
             double millis = System.currentTimeMillis() - startTime;
             if (millis > THRESHOLD_MILLIS) {
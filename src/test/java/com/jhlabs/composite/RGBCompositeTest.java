@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.composite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.awt.CompositeContext;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_4BYTE_ABGR_PRE;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that the packed int path of {@link RGBComposite} gives
+ * the same results as the general path based on Raster.getPixels
+ */
+@RunWith(Parameterized.class)
+public class RGBCompositeTest {
+    private static final int WIDTH = 67;
+    private static final int HEIGHT = 23;
+
+    @Parameter
+    public RGBComposite composite;
+
+    @Parameters(name = "{index}: {0}")
+    public static Collection<Object[]> instancesToTest() {
+        float alpha = 0.7f;
+        return Arrays.asList(new Object[][]{
+                {new AddComposite(alpha)},
+                {new AverageComposite(alpha)},
+                {new BurnComposite(alpha)},
+                {new ColorBurnComposite(alpha)},
+                {new ColorComposite(alpha)},
+                {new ColorDodgeComposite(alpha)},
+                {new DarkenComposite(alpha)},
+                {new DifferenceComposite(alpha)},
+                {new DodgeComposite(alpha)},
+                {new ExclusionComposite(alpha)},
+                {new HardLightComposite(alpha)},
+                {new HueComposite(alpha)},
+                {new LightenComposite(alpha)},
+                {new MultiplyComposite(alpha)},
+                {new NegationComposite(alpha)},
+                {new OverlayComposite(alpha)},
+                {new PinLightComposite(alpha)},
+                {new SaturationComposite(alpha)},
+                {new ScreenComposite(alpha)},
+                {new SoftLightComposite(alpha)},
+                {new SubtractComposite(alpha)},
+                {new ValueComposite(alpha)},
+        });
+    }
+
+    @Test
+    public void packedPremultiplied() {
+        checkSameAsGeneralPath(TYPE_INT_ARGB_PRE, 0);
+    }
+
+    @Test
+    public void packedNotPremultiplied() {
+        checkSameAsGeneralPath(TYPE_INT_ARGB, 0);
+    }
+
+    @Test
+    public void packedSubImage() {
+        // the rasters of sub-images have a translated sample model
+        checkSameAsGeneralPath(TYPE_INT_ARGB_PRE, 5);
+    }
+
+    private void checkSameAsGeneralPath(int packedType, int border) {
+        Random random = new Random(11);
+        BufferedImage src = createRandomImage(packedType, random, border);
+        BufferedImage dst = createRandomImage(packedType, random, border);
+
+        // the same samples in rasters that aren't packed
+        WritableRaster srcBytes = copySamples(src.getRaster());
+        WritableRaster dstBytes = copySamples(dst.getRaster());
+
+        CompositeContext context = composite.createContext(
+                src.getColorModel(), dst.getColorModel(), null);
+        context.compose(src.getRaster(), dst.getRaster(), dst.getRaster());
+        context.compose(srcBytes, dstBytes, dstBytes);
+        context.dispose();
+
+        int[] expected = dstBytes.getPixels(0, 0, WIDTH, HEIGHT, (int[]) null);
+        int[] actual = dst.getRaster().getPixels(0, 0, WIDTH, HEIGHT, (int[]) null);
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    private static BufferedImage createRandomImage(int type, Random random, int border) {
+        BufferedImage img = new BufferedImage(WIDTH + 2 * border, HEIGHT + 2 * border, type);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        if (border > 0) {
+            return img.getSubimage(border, border, WIDTH, HEIGHT);
+        }
+        return img;
+    }
+
+    private static WritableRaster copySamples(Raster packed) {
+        WritableRaster raster = new BufferedImage(WIDTH, HEIGHT, TYPE_4BYTE_ABGR_PRE).getRaster();
+        raster.setPixels(0, 0, WIDTH, HEIGHT,
+                packed.getPixels(0, 0, WIDTH, HEIGHT, (int[]) null));
+        return raster;
+    }
+}
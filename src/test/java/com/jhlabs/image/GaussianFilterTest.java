@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.Test;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static com.jhlabs.image.ConvolveFilter.CLAMP_EDGES;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that the box cascade of {@link GaussianFilter}
+ * gives nearly the same results as the Gaussian kernel
+ */
+public class GaussianFilterTest {
+    private static final int WIDTH = 211;
+    private static final int HEIGHT = 157;
+
+    // the kernel is cut at three standard deviations, the box cascade isn't,
+    // and the biggest differences are at the sharp edges of the test image
+    private static final int MAX_DIFF = 5;
+
+    @Test
+    public void test_boxCascadeMatchesKernel() {
+        int[] pixels = createTestPixels();
+        for (float radius : new float[]{8, 25, 60}) {
+            int[] expected = blurWithKernel(pixels, radius);
+            int[] actual = blurWithBoxCascade(pixels, radius);
+
+            // the colors are compared premultiplied, because
+            // the colors of transparent pixels don't matter
+            ImageMath.premultiply(expected, 0, expected.length);
+            ImageMath.premultiply(actual, 0, actual.length);
+
+            int maxDiff = 0;
+            for (int i = 0; i < pixels.length; i++) {
+                for (int shift = 0; shift <= 24; shift += 8) {
+                    int diff = Math.abs(((expected[i] >>> shift) & 0xFF) - ((actual[i] >>> shift) & 0xFF));
+                    maxDiff = Math.max(maxDiff, diff);
+                }
+            }
+            assertThat(maxDiff).as("radius = %.0f", radius).isLessThanOrEqualTo(MAX_DIFF);
+        }
+    }
+
+    private static int[] blurWithKernel(int[] pixels, float radius) {
+        var kernel = GaussianFilter.makeKernel(radius);
+        int[] tmp = new int[pixels.length];
+        int[] result = new int[pixels.length];
+        GaussianFilter.convolveAndTranspose(kernel, pixels, tmp, WIDTH, HEIGHT,
+                true, true, false, CLAMP_EDGES, ProgressTracker.NULL_TRACKER);
+        GaussianFilter.convolveAndTranspose(kernel, tmp, result, HEIGHT, WIDTH,
+                true, false, true, CLAMP_EDGES, ProgressTracker.NULL_TRACKER);
+        return result;
+    }
+
+    private static int[] blurWithBoxCascade(int[] pixels, float radius) {
+        int[] tmp = new int[pixels.length];
+        int[] result = new int[pixels.length];
+        GaussianFilter.boxCascadeAndTranspose(radius / 3, pixels, tmp, WIDTH, HEIGHT,
+                true, true, false, ProgressTracker.NULL_TRACKER);
+        GaussianFilter.boxCascadeAndTranspose(radius / 3, tmp, result, HEIGHT, WIDTH,
+                true, false, true, ProgressTracker.NULL_TRACKER);
+        return result;
+    }
+
+    /**
+     * Creates an image with sharp edges, where the differences are the biggest
+     */
+    private static int[] createTestPixels() {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        Random random = new Random(42);
+        for (int i = 0; i < 30; i++) {
+            g.setColor(new Color(random.nextInt(), true));
+            g.fillRect(random.nextInt(WIDTH), random.nextInt(HEIGHT),
+                    random.nextInt(WIDTH / 2), random.nextInt(HEIGHT / 2));
+        }
+        g.dispose();
+        return img.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+}
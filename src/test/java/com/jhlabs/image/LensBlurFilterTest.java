@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.Test;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LensBlurFilterTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 170;
+
+    @Test
+    public void test_uniformImageIsUnchanged() {
+        Color color = new Color(40, 120, 200);
+        BufferedImage src = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        Graphics2D g = src.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.dispose();
+
+        BufferedImage dst = createFilter(7.5f, 210).filter(src, null);
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int rgb = dst.getRGB(x, y);
+                assertThat((rgb >>> 24) & 0xFF).isBetween(254, 255);
+                assertThat((rgb >>> 16) & 0xFF).isBetween(color.getRed() - 1, color.getRed());
+                assertThat((rgb >>> 8) & 0xFF).isBetween(color.getGreen() - 1, color.getGreen());
+                assertThat(rgb & 0xFF).isBetween(color.getBlue() - 1, color.getBlue());
+            }
+        }
+    }
+
+    @Test
+    public void test_cachedKernelGivesSameResult() {
+        BufferedImage src = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        Graphics2D g = src.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.setColor(Color.RED);
+        g.fillOval(50, 30, 120, 100);
+        g.dispose();
+
+        // the second filter with only a different
+        // bloom threshold uses the cached kernel
+        BufferedImage first = createFilter(12, 255).filter(src, null);
+        createFilter(12, 100).filter(src, null);
+        BufferedImage again = createFilter(12, 255).filter(src, null);
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertThat(again.getRGB(x, y))
+                        .as("x = %d, y = %d", x, y)
+                        .isEqualTo(first.getRGB(x, y));
+            }
+        }
+    }
+
+    private static LensBlurFilter createFilter(float radius, float bloomThreshold) {
+        var filter = new LensBlurFilter("Lens Blur");
+        filter.setProgressTracker(ProgressTracker.NULL_TRACKER);
+        filter.setRadius(radius);
+        filter.setBloomThreshold(bloomThreshold);
+        return filter;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.Test;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks the histogram-based {@link MedianFilter}
+ * against sorting the neighborhood of every pixel
+ */
+public class MedianFilterTest {
+    private static final int WIDTH = 53;
+    private static final int HEIGHT = 41;
+
+    @Test
+    public void test_argb() {
+        BufferedImage src = createRandomImage(TYPE_INT_ARGB);
+        for (int radius : new int[]{1, 2, 7, 30}) {
+            BufferedImage dst = createFilter(radius).filter(src, null);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    int expected = 0;
+                    for (int shift = 0; shift <= 24; shift += 8) {
+                        expected |= calcMedian(src, x, y, radius, shift) << shift;
+                    }
+                    assertThat(dst.getRGB(x, y))
+                            .as("radius = %d, x = %d, y = %d", radius, x, y)
+                            .isEqualTo(expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_gray() {
+        BufferedImage src = createRandomImage(TYPE_BYTE_GRAY);
+        for (int radius : new int[]{1, 3, 25}) {
+            BufferedImage dst = createFilter(radius).filter(src, null);
+            assertThat(dst.getType()).isEqualTo(TYPE_BYTE_GRAY);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    assertThat(dst.getRaster().getSample(x, y, 0))
+                            .as("radius = %d, x = %d, y = %d", radius, x, y)
+                            .isEqualTo(calcMedian(src, x, y, radius, -1));
+                }
+            }
+        }
+    }
+
+    private static MedianFilter createFilter(int radius) {
+        var filter = new MedianFilter("Median");
+        filter.setProgressTracker(ProgressTracker.NULL_TRACKER);
+        filter.setRadius(radius);
+        return filter;
+    }
+
+    /**
+     * Calculates the median of a channel with the edge pixels
+     * repeated outside the image, or of the gray values if the shift is -1.
+     */
+    private static int calcMedian(BufferedImage img, int x, int y, int radius, int shift) {
+        int size = 2 * radius + 1;
+        int[] values = new int[size * size];
+        int i = 0;
+        for (int dy = -radius; dy <= radius; dy++) {
+            int sy = ImageMath.clamp(y + dy, 0, HEIGHT - 1);
+            for (int dx = -radius; dx <= radius; dx++) {
+                int sx = ImageMath.clamp(x + dx, 0, WIDTH - 1);
+                if (shift == -1) {
+                    values[i++] = img.getRaster().getSample(sx, sy, 0);
+                } else {
+                    values[i++] = (img.getRGB(sx, sy) >>> shift) & 0xFF;
+                }
+            }
+        }
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+
+    private static BufferedImage createRandomImage(int type) {
+        Random random = new Random(42);
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, type);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (type == TYPE_BYTE_GRAY) {
+                    img.getRaster().setSample(x, y, 0, random.nextInt(256));
+                } else {
+                    img.setRGB(x, y, random.nextInt());
+                }
+            }
+        }
+        return img;
+    }
+}
@@ -0,0 +1,583 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jdesktop.swingx.graphics;
+
+import org.jdesktop.swingx.graphics.BlendComposite.BlendingMode;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.awt.CompositeContext;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static java.awt.image.BufferedImage.TYPE_INT_BGR;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that the packed blending kernels of {@link BlendComposite} give
+ * exactly the same pixels as the original per-pixel SwingX implementation,
+ * which is kept here as a reference.
+ */
+@RunWith(Parameterized.class)
+public class BlendCompositeTest {
+    private static final int WIDTH = 71;
+    private static final int HEIGHT = 19;
+
+    @Parameter
+    public BlendingMode mode;
+
+    @Parameters(name = "{index}: {0}")
+    public static Collection<Object[]> instancesToTest() {
+        return Arrays.stream(BlendingMode.values())
+                .map(mode -> new Object[]{mode})
+                .collect(toList());
+    }
+
+    @Test
+    public void argb() {
+        checkSameAsReference(TYPE_INT_ARGB, 1.0f, 0);
+        checkSameAsReference(TYPE_INT_ARGB, 0.37f, 0);
+    }
+
+    @Test
+    public void argbPremultiplied() {
+        checkSameAsReference(TYPE_INT_ARGB_PRE, 0.8f, 0);
+    }
+
+    @Test
+    public void rgb() {
+        checkSameAsReference(TYPE_INT_RGB, 0.6f, 0);
+    }
+
+    @Test
+    public void bgr() {
+        checkSameAsReference(TYPE_INT_BGR, 0.6f, 0);
+    }
+
+    @Test
+    public void subImage() {
+        // the rasters of sub-images have a translated sample model
+        checkSameAsReference(TYPE_INT_ARGB, 0.9f, 4);
+    }
+
+    private void checkSameAsReference(int type, float opacity, int border) {
+        Random random = new Random(mode.ordinal());
+        BufferedImage src = createRandomImage(type, random, border);
+        BufferedImage dst = createRandomImage(type, random, border);
+        BufferedImage expected = copyOf(dst);
+
+        BlendComposite composite = BlendComposite.getInstance(mode, opacity);
+        CompositeContext context = composite.createContext(
+                src.getColorModel(), dst.getColorModel(), null);
+        context.compose(src.getRaster(), dst.getRaster(), dst.getRaster());
+        context.dispose();
+
+        boolean bgr = type == TYPE_INT_BGR;
+        composeWithReference(composite, src, expected, bgr);
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                Object actualPixel = dst.getRaster().getDataElements(x, y, null);
+                Object expectedPixel = expected.getRaster().getDataElements(x, y, null);
+                assertThat((int[]) actualPixel)
+                        .as("x = %d, y = %d", x, y)
+                        .isEqualTo((int[]) expectedPixel);
+            }
+        }
+    }
+
+    private static BufferedImage createRandomImage(int type, Random random, int border) {
+        BufferedImage img = new BufferedImage(WIDTH + 2 * border, HEIGHT + 2 * border, type);
+        int[] pixel = new int[1];
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                // also the values that are invalid for premultiplied images
+                pixel[0] = random.nextInt();
+                if (img.getColorModel().hasAlpha()) {
+                    img.getRaster().setDataElements(x, y, pixel);
+                } else {
+                    img.setRGB(x, y, pixel[0]);
+                }
+            }
+        }
+        if (border > 0) {
+            return img.getSubimage(border, border, WIDTH, HEIGHT);
+        }
+        return img;
+    }
+
+    private static BufferedImage copyOf(BufferedImage img) {
+        BufferedImage copy = new BufferedImage(img.getColorModel(),
+                img.getColorModel().createCompatibleWritableRaster(WIDTH, HEIGHT),
+                img.isAlphaPremultiplied(), null);
+        copy.getRaster().setDataElements(0, 0, WIDTH, HEIGHT,
+                img.getRaster().getDataElements(0, 0, WIDTH, HEIGHT, null));
+        return copy;
+    }
+
+    /**
+     * The compose method of the original BlendingRgbContext and BlendingBgrContext
+     */
+    private static void composeWithReference(BlendComposite composite,
+                                             BufferedImage src, BufferedImage dst,
+                                             boolean bgr) {
+        ReferenceBlender blender = ReferenceBlender.getBlenderFor(composite);
+        float alpha = composite.getAlpha();
+
+        int[] result = new int[4];
+        int[] srcPixel = new int[4];
+        int[] dstPixel = new int[4];
+        int[] srcPixels = new int[WIDTH];
+        int[] dstPixels = new int[WIDTH];
+
+        for (int y = 0; y < HEIGHT; y++) {
+            src.getRaster().getDataElements(0, y, WIDTH, 1, srcPixels);
+            dst.getRaster().getDataElements(0, y, WIDTH, 1, dstPixels);
+            for (int x = 0; x < WIDTH; x++) {
+                unpack(srcPixels[x], srcPixel, bgr);
+                unpack(dstPixels[x], dstPixel, bgr);
+
+                blender.blend(srcPixel, dstPixel, result);
+
+                int a = (int) (dstPixel[3] + (result[3] - dstPixel[3]) * alpha) & 0xFF;
+                int r = (int) (dstPixel[0] + (result[0] - dstPixel[0]) * alpha) & 0xFF;
+                int g = (int) (dstPixel[1] + (result[1] - dstPixel[1]) * alpha) & 0xFF;
+                int b = (int) (dstPixel[2] + (result[2] - dstPixel[2]) * alpha) & 0xFF;
+                if (bgr) {
+                    dstPixels[x] = a << 24 | b << 16 | g << 8 | r;
+                } else {
+                    dstPixels[x] = a << 24 | r << 16 | g << 8 | b;
+                }
+            }
+            dst.getRaster().setDataElements(0, y, WIDTH, 1, dstPixels);
+        }
+    }
+
+    // the arrays are [R, G, B, A]
+    private static void unpack(int pixel, int[] components, boolean bgr) {
+        components[0] = bgr ? pixel & 0xFF : (pixel >> 16) & 0xFF;
+        components[1] = (pixel >> 8) & 0xFF;
+        components[2] = bgr ? (pixel >> 16) & 0xFF : pixel & 0xFF;
+        components[3] = (pixel >> 24) & 0xFF;
+    }
+
+    private abstract static class ReferenceBlender {
+        public abstract void blend(int[] src, int[] dst, int[] result);
+
+        public static ReferenceBlender getBlenderFor(BlendComposite composite) {
+            switch (composite.getMode()) {
+                case CROSS_FADE:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            // Takes all the values from the src (upper) layer
+                            // The cross-fading will result from the derive
+                            result[0] = src[0];
+                            result[1] = src[1];
+                            result[2] = src[2];
+                            result[3] = src[3];
+                        }
+                    };
+                case ADD:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = Math.min(255, src[0] + dst[0]);
+                            result[1] = Math.min(255, src[1] + dst[1]);
+                            result[2] = Math.min(255, src[2] + dst[2]);
+                            result[3] = Math.min(255, src[3] + dst[3]);
+                        }
+                    };
+                case AVERAGE:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = (src[0] + dst[0]) >> 1;
+                            result[1] = (src[1] + dst[1]) >> 1;
+                            result[2] = (src[2] + dst[2]) >> 1;
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case BLUE:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = dst[0];
+                            result[1] = src[1];
+                            result[2] = dst[2];
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case COLOR:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            float[] srcHSL = new float[3];
+                            ColorUtilities.RGBtoHSL(src[0], src[1], src[2], srcHSL);
+                            float[] dstHSL = new float[3];
+                            ColorUtilities.RGBtoHSL(dst[0], dst[1], dst[2], dstHSL);
+
+                            ColorUtilities.HSLtoRGB(srcHSL[0], srcHSL[1], dstHSL[2], result);
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case COLOR_BURN:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = src[0] == 0 ? 0 :
+                                    Math.max(0, 255 - (((255 - dst[0]) << 8) / src[0]));
+                            result[1] = src[1] == 0 ? 0 :
+                                    Math.max(0, 255 - (((255 - dst[1]) << 8) / src[1]));
+                            result[2] = src[2] == 0 ? 0 :
+                                    Math.max(0, 255 - (((255 - dst[2]) << 8) / src[2]));
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case COLOR_DODGE:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = src[0] == 255 ? 255 :
+                                    Math.min((dst[0] << 8) / (255 - src[0]), 255);
+                            result[1] = src[1] == 255 ? 255 :
+                                    Math.min((dst[1] << 8) / (255 - src[1]), 255);
+                            result[2] = src[2] == 255 ? 255 :
+                                    Math.min((dst[2] << 8) / (255 - src[2]), 255);
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case DARKEN:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = Math.min(src[0], dst[0]);
+                            result[1] = Math.min(src[1], dst[1]);
+                            result[2] = Math.min(src[2], dst[2]);
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case DIFFERENCE:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = Math.abs(dst[0] - src[0]);
+                            result[1] = Math.abs(dst[1] - src[1]);
+                            result[2] = Math.abs(dst[2] - src[2]);
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case EXCLUSION:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = (dst[0] + src[0]) - ((dst[0] * src[0]) >> 7);
+                            result[1] = (dst[1] + src[1]) - ((dst[1] * src[1]) >> 7);
+                            result[2] = (dst[2] + src[2]) - ((dst[2] * src[2]) >> 7);
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case FREEZE:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = src[0] == 0 ? 0 :
+                                    Math.max(0, 255 - (255 - dst[0]) * (255 - dst[0]) / src[0]);
+                            result[1] = src[1] == 0 ? 0 :
+                                    Math.max(0, 255 - (255 - dst[1]) * (255 - dst[1]) / src[1]);
+                            result[2] = src[2] == 0 ? 0 :
+                                    Math.max(0, 255 - (255 - dst[2]) * (255 - dst[2]) / src[2]);
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case GLOW:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = dst[0] == 255 ? 255 :
+                                    Math.min(255, src[0] * src[0] / (255 - dst[0]));
+                            result[1] = dst[1] == 255 ? 255 :
+                                    Math.min(255, src[1] * src[1] / (255 - dst[1]));
+                            result[2] = dst[2] == 255 ? 255 :
+                                    Math.min(255, src[2] * src[2] / (255 - dst[2]));
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case GREEN:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = dst[0];
+                            result[1] = dst[1];
+                            result[2] = src[2];
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case HARD_LIGHT:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = (src[0] < 128) ? ((dst[0] * src[0]) >> 7) :
+                                    (255 - (((255 - src[0]) * (255 - dst[0])) >> 7));
+                            result[1] = (src[1] < 128) ? ((dst[1] * src[1]) >> 7) :
+                                    (255 - (((255 - src[1]) * (255 - dst[1])) >> 7));
+                            result[2] = (src[2] < 128) ? ((dst[2] * src[2]) >> 7) :
+                                    (255 - (((255 - src[2]) * (255 - dst[2])) >> 7));
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case HEAT:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = dst[0] == 0 ? 0 :
+                                    Math.max(0, 255 - (255 - src[0]) * (255 - src[0]) / dst[0]);
+                            result[1] = dst[1] == 0 ? 0 :
+                                    Math.max(0, 255 - (255 - src[1]) * (255 - src[1]) / dst[1]);
+                            result[2] = dst[2] == 0 ? 0 :
+                                    Math.max(0, 255 - (255 - src[2]) * (255 - src[2]) / dst[2]);
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case HUE:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            float[] srcHSL = new float[3];
+                            ColorUtilities.RGBtoHSL(src[0], src[1], src[2], srcHSL);
+                            float[] dstHSL = new float[3];
+                            ColorUtilities.RGBtoHSL(dst[0], dst[1], dst[2], dstHSL);
+
+                            ColorUtilities.HSLtoRGB(srcHSL[0], dstHSL[1], dstHSL[2], result);
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case INVERSE_COLOR_BURN:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = dst[0] == 0 ? 0 :
+                                    Math.max(0, 255 - (((255 - src[0]) << 8) / dst[0]));
+                            result[1] = dst[1] == 0 ? 0 :
+                                    Math.max(0, 255 - (((255 - src[1]) << 8) / dst[1]));
+                            result[2] = dst[2] == 0 ? 0 :
+                                    Math.max(0, 255 - (((255 - src[2]) << 8) / dst[2]));
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case INVERSE_COLOR_DODGE:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = dst[0] == 255 ? 255 :
+                                    Math.min((src[0] << 8) / (255 - dst[0]), 255);
+                            result[1] = dst[1] == 255 ? 255 :
+                                    Math.min((src[1] << 8) / (255 - dst[1]), 255);
+                            result[2] = dst[2] == 255 ? 255 :
+                                    Math.min((src[2] << 8) / (255 - dst[2]), 255);
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case LIGHTEN:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = Math.max(src[0], dst[0]);
+                            result[1] = Math.max(src[1], dst[1]);
+                            result[2] = Math.max(src[2], dst[2]);
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case LUMINOSITY:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            float[] srcHSL = new float[3];
+                            ColorUtilities.RGBtoHSL(src[0], src[1], src[2], srcHSL);
+                            float[] dstHSL = new float[3];
+                            ColorUtilities.RGBtoHSL(dst[0], dst[1], dst[2], dstHSL);
+
+                            ColorUtilities.HSLtoRGB(dstHSL[0], dstHSL[1], srcHSL[2], result);
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case MULTIPLY:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = (src[0] * dst[0]) >> 8;
+                            result[1] = (src[1] * dst[1]) >> 8;
+                            result[2] = (src[2] * dst[2]) >> 8;
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case NEGATION:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = 255 - Math.abs(255 - dst[0] - src[0]);
+                            result[1] = 255 - Math.abs(255 - dst[1] - src[1]);
+                            result[2] = 255 - Math.abs(255 - dst[2] - src[2]);
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case OVERLAY:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = (dst[0] < 128) ? ((dst[0] * src[0]) >> 7) :
+                                    (255 - (((255 - dst[0]) * (255 - src[0])) >> 7));
+                            result[1] = (dst[1] < 128) ? ((dst[1] * src[1]) >> 7) :
+                                    (255 - (((255 - dst[1]) * (255 - src[1])) >> 7));
+                            result[2] = (dst[2] < 128) ? ((dst[2] * src[2]) >> 7) :
+                                    (255 - (((255 - dst[2]) * (255 - src[2])) >> 7));
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case RED:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = src[0];
+                            result[1] = dst[1];
+                            result[2] = dst[2];
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case REFLECT:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = src[0] == 255 ? 255 :
+                                    Math.min(255, dst[0] * dst[0] / (255 - src[0]));
+                            result[1] = src[1] == 255 ? 255 :
+                                    Math.min(255, dst[1] * dst[1] / (255 - src[1]));
+                            result[2] = src[2] == 255 ? 255 :
+                                    Math.min(255, dst[2] * dst[2] / (255 - src[2]));
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case SATURATION:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            float[] srcHSL = new float[3];
+                            ColorUtilities.RGBtoHSL(src[0], src[1], src[2], srcHSL);
+                            float[] dstHSL = new float[3];
+                            ColorUtilities.RGBtoHSL(dst[0], dst[1], dst[2], dstHSL);
+
+                            ColorUtilities.HSLtoRGB(dstHSL[0], srcHSL[1], dstHSL[2], result);
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case SCREEN:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = 255 - (((255 - src[0]) * (255 - dst[0])) >> 8);
+                            result[1] = 255 - (((255 - src[1]) * (255 - dst[1])) >> 8);
+                            result[2] = 255 - (((255 - src[2]) * (255 - dst[2])) >> 8);
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case SOFT_BURN:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = dst[0] + src[0] < 256 ?
+                                    (dst[0] == 255 ? 255 :
+                                            Math.min(255, (src[0] << 7) / (255 - dst[0]))) :
+                                    Math.max(0, 255 - (((255 - dst[0]) << 7) / src[0]));
+                            result[1] = dst[1] + src[1] < 256 ?
+                                    (dst[1] == 255 ? 255 :
+                                            Math.min(255, (src[1] << 7) / (255 - dst[1]))) :
+                                    Math.max(0, 255 - (((255 - dst[1]) << 7) / src[1]));
+                            result[2] = dst[2] + src[2] < 256 ?
+                                    (dst[2] == 255 ? 255 :
+                                            Math.min(255, (src[2] << 7) / (255 - dst[2]))) :
+                                    Math.max(0, 255 - (((255 - dst[2]) << 7) / src[2]));
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case SOFT_DODGE:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = dst[0] + src[0] < 256 ?
+                                    (src[0] == 255 ? 255 :
+                                            Math.min(255, (dst[0] << 7) / (255 - src[0]))) :
+                                    Math.max(0, 255 - (((255 - src[0]) << 7) / dst[0]));
+                            result[1] = dst[1] + src[1] < 256 ?
+                                    (src[1] == 255 ? 255 :
+                                            Math.min(255, (dst[1] << 7) / (255 - src[1]))) :
+                                    Math.max(0, 255 - (((255 - src[1]) << 7) / dst[1]));
+                            result[2] = dst[2] + src[2] < 256 ?
+                                    (src[2] == 255 ? 255 :
+                                            Math.min(255, (dst[2] << 7) / (255 - src[2]))) :
+                                    Math.max(0, 255 - (((255 - src[2]) << 7) / dst[2]));
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case SOFT_LIGHT:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            int mRed = src[0] * dst[0] / 255;
+                            int mGreen = src[1] * dst[1] / 255;
+                            int mBlue = src[2] * dst[2] / 255;
+                            result[0] = mRed + src[0] * (255 - ((255 - src[0]) * (255 - dst[0]) / 255) - mRed) / 255;
+                            result[1] = mGreen + src[1] * (255 - ((255 - src[1]) * (255 - dst[1]) / 255) - mGreen) / 255;
+                            result[2] = mBlue + src[2] * (255 - ((255 - src[2]) * (255 - dst[2]) / 255) - mBlue) / 255;
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case STAMP:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = Math.max(0, Math.min(255, dst[0] + 2 * src[0] - 256));
+                            result[1] = Math.max(0, Math.min(255, dst[1] + 2 * src[1] - 256));
+                            result[2] = Math.max(0, Math.min(255, dst[2] + 2 * src[2] - 256));
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+                case SUBTRACT:
+                    return new ReferenceBlender() {
+                        @Override
+                        public void blend(int[] src, int[] dst, int[] result) {
+                            result[0] = Math.max(0, src[0] + dst[0] - 256);
+                            result[1] = Math.max(0, src[1] + dst[1] - 256);
+                            result[2] = Math.max(0, src[2] + dst[2] - 256);
+                            result[3] = Math.min(255, src[3] + dst[3] - (src[3] * dst[3]) / 255);
+                        }
+                    };
+            }
+            throw new IllegalArgumentException("Blender not implemented for " +
+                    composite.getMode().name());
+        }
+    }
+}
@@ -17,9 +17,15 @@
 
 package pixelitor;
 
+import com.jhlabs.composite.RGBCompositeTest;
+import com.jhlabs.image.GaussianFilterTest;
+import com.jhlabs.image.LensBlurFilterTest;
+import com.jhlabs.image.MedianFilterTest;
+import org.jdesktop.swingx.graphics.BlendCompositeTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import pixelitor.compactions.MultiLayerEditTest;
+import pixelitor.filters.PreviewRegionTest;
 import pixelitor.filters.RandomFilterSourceTest;
 import pixelitor.filters.gui.BooleanParamTest;
 import pixelitor.filters.gui.FilterParamTest;
@@ -27,13 +33,18 @@ import pixelitor.filters.gui.IntChoiceParamTest;
 import pixelitor.filters.gui.ParamSetTest;
 import pixelitor.filters.gui.ParamStateTest;
 import pixelitor.filters.gui.RangeParamTest;
+import pixelitor.filters.impl.MorphologyFilterTest;
 import pixelitor.filters.levels.LevelsTest;
 import pixelitor.guides.GuidesTest;
 import pixelitor.history.PixelitorUndoManagerTest;
+import pixelitor.layers.AdjustmentLayerTest;
 import pixelitor.layers.ContentLayerTest;
 import pixelitor.layers.ImageLayerTest;
 import pixelitor.layers.LayerBlendingModesTest;
+import pixelitor.layers.LayerDuplicateTest;
 import pixelitor.layers.LayerTest;
+import pixelitor.layers.LayerThumbnailsTest;
+import pixelitor.layers.SparseLayerStorageTest;
 import pixelitor.layers.TextLayerTest;
 import pixelitor.tools.AbstractBrushToolTest;
 import pixelitor.tools.crop.CompositionGuideTest;
@@ -41,6 +52,7 @@ import pixelitor.tools.gradient.GradientHandlesTest;
 import pixelitor.tools.transform.TransformBoxTest;
 import pixelitor.transform.TransformHelperTest;
 import pixelitor.utils.ShapesTest;
+import pixelitor.utils.SparseTiledImageTest;
 import pixelitor.utils.TrackedIOTest;
 import pixelitor.utils.UtilsTest;
 
@@ -63,27 +75,42 @@ import pixelitor.utils.UtilsTest;
 //        AllTestsSuite.class,
 
         AbstractBrushToolTest.class,
+        AdjustmentLayerTest.class,
+        BlendCompositeTest.class,
         BooleanParamTest.class,
+        CompositeHistogramTest.class,
+        CompositeMipmapsTest.class,
         CompositionIOTest.class,
         CompositionTest.class,
         ContentLayerTest.class,
         FilterParamTest.class,
+        GaussianFilterTest.class,
         GradientHandlesTest.class,
         GuidesTest.class,
         ImageLayerTest.class,
         IntChoiceParamTest.class,
         LayerBlendingModesTest.class,
+        LayerDuplicateTest.class,
         LayerTest.class,
+        LayerThumbnailsTest.class,
+        LensBlurFilterTest.class,
         LevelsTest.class,
+        MedianFilterTest.class,
+        MorphologyFilterTest.class,
         MultiLayerEditTest.class,
         ParamSetTest.class,
         ParamStateTest.class,
         PixelitorUndoManagerTest.class,
+        PreviewRegionTest.class,
         RandomFilterSourceTest.class,
         RangeParamTest.class,
+        RGBCompositeTest.class,
         CompositionGuideTest.class,
         ShapesTest.class,
+        SparseLayerStorageTest.class,
+        SparseTiledImageTest.class,
         TextLayerTest.class,
+        ThreadPoolTest.class,
         TrackedIOTest.class,
         TransformBoxTest.class,
         TransformHelperTest.class,
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompositeHistogramTest {
+    @BeforeClass
+    public static void setupClass() {
+        Build.setUnitTestingMode();
+    }
+
+    @Test
+    public void test_fullCalculation() {
+        BufferedImage img = createRandomImage(300, 200);
+        CompositeHistogram histogram = new CompositeHistogram();
+        histogram.update(img);
+
+        assertThat(histogram.isSampled()).isFalse();
+        assertThat(histogram.getReds()).isEqualTo(countChannel(img, 16));
+        assertThat(histogram.getGreens()).isEqualTo(countChannel(img, 8));
+        assertThat(histogram.getBlues()).isEqualTo(countChannel(img, 0));
+    }
+
+    @Test
+    public void test_regionUpdates() {
+        BufferedImage img = createRandomImage(300, 200);
+        CompositeHistogram histogram = new CompositeHistogram();
+        histogram.update(img);
+
+        Rectangle region = new Rectangle(20, 30, 100, 50);
+        histogram.beforeRegionUpdate(img, region);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(10, 200, 30));
+        g.fill(region);
+        g.dispose();
+        histogram.afterRegionUpdate(img, region);
+
+        assertThat(histogram.getReds()).isEqualTo(countChannel(img, 16));
+        assertThat(histogram.getGreens()).isEqualTo(countChannel(img, 8));
+        assertThat(histogram.getBlues()).isEqualTo(countChannel(img, 0));
+    }
+
+    private static int[] countChannel(BufferedImage img, int shift) {
+        int[] counts = new int[CompositeHistogram.NUM_BINS];
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                int rgb = img.getRaster().getDataBuffer().getElem(y * img.getWidth() + x);
+                if ((rgb >>> 24) > 0) {
+                    counts[(rgb >>> shift) & 0xFF]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static BufferedImage createRandomImage(int width, int height) {
+        Random random = new Random(13);
+        BufferedImage img = new BufferedImage(width, height, TYPE_INT_ARGB_PRE);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        return img;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompositeMipmapsTest {
+    @BeforeClass
+    public static void setupClass() {
+        Build.setUnitTestingMode();
+    }
+
+    @Test
+    public void test_levelFor() {
+        assertThat(CompositeMipmaps.levelFor(2.0)).isEqualTo(0);
+        assertThat(CompositeMipmaps.levelFor(1.0)).isEqualTo(0);
+        assertThat(CompositeMipmaps.levelFor(0.66)).isEqualTo(0);
+        assertThat(CompositeMipmaps.levelFor(0.5)).isEqualTo(1);
+        assertThat(CompositeMipmaps.levelFor(0.33)).isEqualTo(1);
+        assertThat(CompositeMipmaps.levelFor(0.25)).isEqualTo(2);
+        assertThat(CompositeMipmaps.levelFor(0.125)).isEqualTo(3);
+        assertThat(CompositeMipmaps.levelFor(0.001))
+                .isEqualTo(CompositeMipmaps.MAX_LEVEL);
+    }
+
+    @Test
+    public void test_levelSizes() {
+        BufferedImage composite = createRandomImage(101, 37);
+        CompositeMipmaps mipmaps = new CompositeMipmaps();
+
+        BufferedImage level1 = mipmaps.getLevel(composite, 1);
+        assertThat(level1.getWidth()).isEqualTo(51);
+        assertThat(level1.getHeight()).isEqualTo(19);
+
+        BufferedImage level3 = mipmaps.getLevel(composite, 3);
+        assertThat(level3.getWidth()).isEqualTo(13);
+        assertThat(level3.getHeight()).isEqualTo(5);
+    }
+
+    @Test
+    public void test_regionUpdates() {
+        BufferedImage composite = createRandomImage(203, 151);
+        CompositeMipmaps mipmaps = new CompositeMipmaps();
+        for (int level = 1; level <= 4; level++) {
+            mipmaps.getLevel(composite, level);
+        }
+
+        // change some regions of the composite image
+        Rectangle[] regions = {
+                new Rectangle(3, 5, 17, 11),
+                new Rectangle(100, 77, 50, 3),
+                new Rectangle(190, 140, 13, 11),
+        };
+        Graphics2D g = composite.createGraphics();
+        g.setColor(new Color(200, 10, 30, 150));
+        for (Rectangle region : regions) {
+            g.fill(region);
+            mipmaps.regionChanged(region);
+        }
+        g.dispose();
+
+        // the updated levels must be the same as the rebuilt ones
+        CompositeMipmaps rebuilt = new CompositeMipmaps();
+        for (int level = 1; level <= 4; level++) {
+            assertSamePixels(mipmaps.getLevel(composite, level),
+                    rebuilt.getLevel(composite, level));
+        }
+    }
+
+    private static BufferedImage createRandomImage(int width, int height) {
+        Random random = new Random(42);
+        BufferedImage img = new BufferedImage(width, height, TYPE_INT_ARGB_PRE);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        return img;
+    }
+
+    private static void assertSamePixels(BufferedImage a, BufferedImage b) {
+        assertThat(a.getWidth()).isEqualTo(b.getWidth());
+        assertThat(a.getHeight()).isEqualTo(b.getHeight());
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                assertThat(a.getRGB(x, y))
+                        .as("x = %d, y = %d", x, y)
+                        .isEqualTo(b.getRGB(x, y));
+            }
+        }
+    }
+}
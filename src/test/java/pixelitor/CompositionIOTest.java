@@ -184,7 +184,7 @@ public class CompositionIOTest {
         var comp = testMultiLayerRead(f, extraCheck);
 
         File tmp = File.createTempFile("pix_tmp", ".ora");
-        OpenRaster.write(comp, tmp, true);
+        OpenRaster.write(comp, tmp, comp.getCompositeImageCopy());
 
         // read back and test
         testMultiLayerRead(tmp, extraCheck);
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.After;
+import org.junit.Test;
+import pixelitor.utils.ProgressTracker;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ThreadPoolTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        // clear the interrupted status for the next tests
+        Thread.interrupted();
+    }
+
+    @Test
+    public void test_waitForCancelsWhenInterrupted() {
+        Future<?> future = ThreadPool.submit(this::waitForRelease);
+
+        Thread.currentThread().interrupt();
+        assertThatThrownBy(() -> ThreadPool.waitFor(List.of(future), ProgressTracker.NULL_TRACKER))
+                .isInstanceOf(CancellationException.class);
+
+        assertThat(future.isCancelled()).isTrue();
+        assertThat(Thread.currentThread().isInterrupted()).isTrue();
+    }
+
+    @Test
+    public void test_waitForArrayCancelsWhenInterrupted() {
+        Future<?>[] futures = {ThreadPool.submit(this::waitForRelease)};
+
+        Thread.currentThread().interrupt();
+        assertThatThrownBy(() -> ThreadPool.waitFor(futures, ProgressTracker.NULL_TRACKER))
+                .isInstanceOf(CancellationException.class);
+
+        assertThat(futures[0].isCancelled()).isTrue();
+    }
+
+    @Test
+    public void test_parallelForVisitsAllIndicesOnce() {
+        int from = 3;
+        int to = 1003;
+        AtomicIntegerArray visits = new AtomicIntegerArray(to);
+        CountingTracker pt = new CountingTracker();
+
+        ThreadPool.parallelFor(from, to, visits::incrementAndGet, pt);
+
+        for (int i = 0; i < to; i++) {
+            assertThat(visits.get(i)).as("i = %d", i).isEqualTo(i < from ? 0 : 1);
+        }
+        assertThat(pt.units.get()).isEqualTo(to - from);
+    }
+
+    @Test
+    public void test_parallelForEmptyRange() {
+        CountingTracker pt = new CountingTracker();
+        ThreadPool.parallelFor(5, 5, i -> {
+            throw new AssertionError();
+        }, pt);
+        assertThat(pt.units.get()).isZero();
+    }
+
+    @Test
+    public void test_parallelForBands() {
+        int from = 10;
+        int to = 500;
+        int minBandHeight = 16;
+        AtomicIntegerArray visits = new AtomicIntegerArray(to);
+        CountingTracker pt = new CountingTracker();
+
+        ThreadPool.parallelForBands(from, to, minBandHeight, (minY, maxY) -> {
+            assertThat(maxY - minY).isGreaterThanOrEqualTo(minBandHeight);
+            for (int y = minY; y < maxY; y++) {
+                visits.incrementAndGet(y);
+            }
+        }, pt);
+
+        for (int i = from; i < to; i++) {
+            assertThat(visits.get(i)).as("i = %d", i).isEqualTo(1);
+        }
+        assertThat(pt.units.get()).isEqualTo(to - from);
+    }
+
+    @Test
+    public void test_nestedParallelFor() throws Exception {
+        AtomicInteger sum = new AtomicInteger();
+        // a parallel loop started from a pool task, like a filter running inside a resize
+        Future<?> outer = ThreadPool.submit(() ->
+                ThreadPool.parallelFor(0, 100, 7, sum::addAndGet, ProgressTracker.NULL_TRACKER));
+        outer.get();
+
+        assertThat(sum.get()).isEqualTo(99 * 100 / 2);
+    }
+
+    private void waitForRelease() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class CountingTracker implements ProgressTracker {
+        private final AtomicInteger units = new AtomicInteger();
+
+        @Override
+        public void unitDone() {
+            units.incrementAndGet();
+        }
+
+        @Override
+        public void unitsDone(int units) {
+            this.units.addAndGet(units);
+        }
+
+        @Override
+        public void finished() {
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters;
+
+import com.jhlabs.image.AbstractBufferedImageOp;
+import com.jhlabs.image.InvertAlphaFilter;
+import com.jhlabs.image.PolarFilter;
+import com.jhlabs.image.TransformFilter;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import pixelitor.Build;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PreviewRegionTest {
+    private static final Rectangle REGION = new Rectangle(10, 20, 30, 15);
+
+    @BeforeClass
+    public static void setupClass() {
+        Build.setUnitTestingMode();
+    }
+
+    @After
+    public void tearDown() {
+        PreviewRegion.end();
+    }
+
+    @Test
+    public void test_pointFilter() {
+        checkRegionOnly(new InvertAlphaFilter("Invert Transparency"));
+    }
+
+    @Test
+    public void test_transformFilter() {
+        PolarFilter filter = new PolarFilter("Polar Coordinates");
+        filter.setInterpolation(TransformFilter.BILINEAR);
+        checkRegionOnly(filter);
+
+        filter.setInterpolation(TransformFilter.NEAREST_NEIGHBOUR);
+        checkRegionOnly(filter);
+    }
+
+    @Test
+    public void test_onlyFirstFilterClaims() {
+        BufferedImage src = createRandomImage(80, 60);
+        PreviewRegion request = PreviewRegion.start(REGION);
+
+        BufferedImage first = new InvertAlphaFilter("first").filter(src, null);
+        BufferedImage second = new InvertAlphaFilter("second").filter(first, null);
+
+        assertThat(request.isUnclaimed()).isFalse();
+        assertThat(request.isPartialResult(first)).isTrue();
+        // the second filter calculated the whole image
+        assertThat(request.isPartialResult(second)).isFalse();
+    }
+
+    @Test
+    public void test_noRequest() {
+        BufferedImage src = createRandomImage(80, 60);
+        BufferedImage full = new InvertAlphaFilter("full").filter(src, null);
+        BufferedImage twice = new InvertAlphaFilter("twice").filter(full, null);
+        assertSamePixels(twice, src, new Rectangle(0, 0, 80, 60));
+    }
+
+    private static void checkRegionOnly(AbstractBufferedImageOp filter) {
+        BufferedImage src = createRandomImage(80, 60);
+        BufferedImage full = filter.filter(src, createDest(src));
+
+        PreviewRegion request = PreviewRegion.start(REGION);
+        BufferedImage partial = filter.filter(src, createDest(src));
+        PreviewRegion.end();
+
+        assertThat(request.isPartialResult(partial)).isTrue();
+        for (int y = 0; y < src.getHeight(); y++) {
+            for (int x = 0; x < src.getWidth(); x++) {
+                int expected = REGION.contains(x, y) ? full.getRGB(x, y) : src.getRGB(x, y);
+                assertThat(partial.getRGB(x, y))
+                        .as("x = %d, y = %d", x, y)
+                        .isEqualTo(expected);
+            }
+        }
+    }
+
+    private static BufferedImage createDest(BufferedImage src) {
+        return new BufferedImage(src.getWidth(), src.getHeight(), src.getType());
+    }
+
+    private static BufferedImage createRandomImage(int width, int height) {
+        Random random = new Random(42);
+        BufferedImage img = new BufferedImage(width, height, TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        return img;
+    }
+
+    private static void assertSamePixels(BufferedImage a, BufferedImage b, Rectangle area) {
+        for (int y = area.y; y < area.y + area.height; y++) {
+            for (int x = area.x; x < area.x + area.width; x++) {
+                assertThat(a.getRGB(x, y))
+                        .as("x = %d, y = %d", x, y)
+                        .isEqualTo(b.getRGB(x, y));
+            }
+        }
+    }
+}
@@ -72,6 +72,36 @@ public class ParamSetTest {
         verify(adjustmentListener, times(2)).paramAdjusted();
     }
 
+    @Test
+    public void testTriggeringWhileAdjusting() {
+        extraParam.setValueIsAdjusting(true);
+        extraParam.setValue(44, true);
+        verify(adjustmentListener, times(1)).paramAdjusting();
+        verify(adjustmentListener, never()).paramAdjusted();
+
+        extraParam.setValueIsAdjusting(false);
+        verify(adjustmentListener, times(1)).paramAdjusted();
+    }
+
+    @Test
+    public void test_runScaled() {
+        RangeParam distance = new RangeParam("Distance", 1, 40, 100).scaledWithImage();
+        params.insertParam(distance, 0);
+        extraParam.setValue(40, false);
+
+        double[] scaledValues = params.runScaled(0.25, () -> new double[]{
+                distance.getValueAsDouble(), extraParam.getValueAsDouble()});
+
+        // only the declared params are scaled
+        assertThat(scaledValues).containsExactly(10.0, 40.0);
+        assertThat(distance.getValueAsDouble()).isEqualTo(40.0);
+
+        // but not bellow their minimum
+        double minScaled = params.runScaled(0.01, distance::getValueAsDouble);
+        assertThat(minScaled).isEqualTo(1.0);
+        assertThat(distance.getValueAsDouble()).isEqualTo(40.0);
+    }
+
     @Test
     public void test_copyState_setState() {
         CompositeState state = params.copyState();
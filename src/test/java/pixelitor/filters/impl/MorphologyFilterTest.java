@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.impl;
+
+import org.junit.Test;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.filters.impl.MorphologyFilter.KERNEL_DIAMOND;
+import static pixelitor.filters.impl.MorphologyFilter.KERNEL_SQUARE;
+import static pixelitor.filters.impl.MorphologyFilter.OP_DILATE;
+import static pixelitor.filters.impl.MorphologyFilter.OP_ERODE;
+
+/**
+ * Checks the {@link MorphologyFilter} against calculating the minimum or
+ * maximum of the pixels within the structuring element for every pixel
+ */
+public class MorphologyFilterTest {
+    private static final int WIDTH = 47;
+    private static final int HEIGHT = 38;
+    private static final int[] RADII = {1, 2, 3, 4, 7, 12, 50};
+
+    @Test
+    public void test_argb() {
+        BufferedImage src = createRandomImage(TYPE_INT_ARGB);
+        for (int kernel : new int[]{KERNEL_SQUARE, KERNEL_DIAMOND}) {
+            for (int op : new int[]{OP_ERODE, OP_DILATE}) {
+                for (int radius : RADII) {
+                    BufferedImage dst = createFilter(op, kernel, radius).filter(src, null);
+                    for (int y = 0; y < HEIGHT; y++) {
+                        for (int x = 0; x < WIDTH; x++) {
+                            int expected = 0;
+                            for (int shift = 0; shift <= 24; shift += 8) {
+                                expected |= calcExtreme(src, x, y, op, kernel, radius, shift) << shift;
+                            }
+                            if (op == OP_DILATE) {
+                                expected |= 0xFF_00_00_00;
+                            }
+                            assertThat(dst.getRGB(x, y))
+                                    .as("kernel = %d, op = %d, radius = %d, x = %d, y = %d",
+                                            kernel, op, radius, x, y)
+                                    .isEqualTo(expected);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_gray() {
+        BufferedImage src = createRandomImage(TYPE_BYTE_GRAY);
+        for (int kernel : new int[]{KERNEL_SQUARE, KERNEL_DIAMOND}) {
+            for (int op : new int[]{OP_ERODE, OP_DILATE}) {
+                for (int radius : RADII) {
+                    BufferedImage dst = createFilter(op, kernel, radius).filter(src, null);
+                    assertThat(dst.getType()).isEqualTo(TYPE_BYTE_GRAY);
+                    for (int y = 0; y < HEIGHT; y++) {
+                        for (int x = 0; x < WIDTH; x++) {
+                            assertThat(dst.getRaster().getSample(x, y, 0))
+                                    .as("kernel = %d, op = %d, radius = %d, x = %d, y = %d",
+                                            kernel, op, radius, x, y)
+                                    .isEqualTo(calcExtreme(src, x, y, op, kernel, radius, -1));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static MorphologyFilter createFilter(int op, int kernel, int radius) {
+        var filter = new MorphologyFilter("Morphology");
+        filter.setProgressTracker(ProgressTracker.NULL_TRACKER);
+        filter.setOp(op);
+        filter.setKernel(kernel);
+        filter.setRadius(radius);
+        return filter;
+    }
+
+    /**
+     * Calculates the minimum or maximum of a channel (or of the gray
+     * values if the shift is -1) within the structuring element,
+     * ignoring the pixels outside the image.
+     */
+    private static int calcExtreme(BufferedImage img, int x, int y,
+                                   int op, int kernel, int radius, int shift) {
+        int result = op == OP_ERODE ? 255 : 0;
+        for (int sy = Math.max(0, y - radius); sy <= Math.min(HEIGHT - 1, y + radius); sy++) {
+            for (int sx = Math.max(0, x - radius); sx <= Math.min(WIDTH - 1, x + radius); sx++) {
+                if (kernel == KERNEL_DIAMOND
+                        && Math.abs(sx - x) + Math.abs(sy - y) > radius) {
+                    continue;
+                }
+                int value;
+                if (shift == -1) {
+                    value = img.getRaster().getSample(sx, sy, 0);
+                } else {
+                    value = (img.getRGB(sx, sy) >>> shift) & 0xFF;
+                }
+                if (op == OP_ERODE) {
+                    result = Math.min(result, value);
+                } else {
+                    result = Math.max(result, value);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static BufferedImage createRandomImage(int type) {
+        Random random = new Random(42);
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, type);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (type == TYPE_BYTE_GRAY) {
+                    img.getRaster().setSample(x, y, 0, random.nextInt(256));
+                } else {
+                    img.setRGB(x, y, random.nextInt());
+                }
+            }
+        }
+        return img;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import pixelitor.Build;
+import pixelitor.Composition;
+import pixelitor.TestHelper;
+import pixelitor.filters.Invert;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.Composition.fromImage;
+import static pixelitor.utils.ImageUtils.create1x1Image;
+
+public class AdjustmentLayerTest {
+    private Composition comp;
+    private ImageLayer imageLayer;
+    private CountingInvert filter;
+
+    @BeforeClass
+    public static void setupClass() {
+        Build.setUnitTestingMode();
+    }
+
+    @Before
+    public void setUp() {
+        comp = fromImage(create1x1Image(new Color(10, 20, 30)), null, "test");
+        TestHelper.setupMockViewFor(comp);
+        imageLayer = (ImageLayer) comp.getLayer(0);
+
+        filter = new CountingInvert();
+        comp.addLayerInInitMode(new AdjustmentLayer(comp, "Invert", filter));
+    }
+
+    @Test
+    public void test_resultIsReused() {
+        assertThat(getResultingColor()).isEqualTo(new Color(245, 235, 225));
+        assertThat(filter.numRuns).isEqualTo(1);
+
+        // nothing changed, the adjustment shouldn't run again
+        assertThat(getResultingColor()).isEqualTo(new Color(245, 235, 225));
+        assertThat(filter.numRuns).isEqualTo(1);
+    }
+
+    @Test
+    public void test_rerunsAfterChangeBellow() {
+        getResultingColor();
+        assertThat(filter.numRuns).isEqualTo(1);
+
+        imageLayer.getImage().setRGB(0, 0, new Color(110, 120, 130).getRGB());
+        comp.layerImageChanged(imageLayer, Composition.ImageChangeActions.INVALIDATE_CACHE);
+
+        assertThat(getResultingColor()).isEqualTo(new Color(145, 135, 125));
+        assertThat(filter.numRuns).isEqualTo(2);
+    }
+
+    private Color getResultingColor() {
+        return new Color(comp.calculateCompositeImage().getRGB(0, 0));
+    }
+
+    private static class CountingInvert extends Invert {
+        private int numRuns = 0;
+
+        @Override
+        public BufferedImage transform(BufferedImage src, BufferedImage dest) {
+            numRuns++;
+            return super.transform(src, dest);
+        }
+    }
+}
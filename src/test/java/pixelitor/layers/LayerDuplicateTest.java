@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import pixelitor.Build;
+import pixelitor.Composition;
+import pixelitor.TestHelper;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.Composition.fromImage;
+
+public class LayerDuplicateTest {
+    private Composition comp;
+    private ImageLayer layer;
+
+    @BeforeClass
+    public static void setupClass() {
+        Build.setUnitTestingMode();
+    }
+
+    @Before
+    public void setUp() {
+        BufferedImage img = new BufferedImage(20, 10, TYPE_INT_ARGB);
+        fill(img, Color.RED);
+        comp = fromImage(img, null, "test");
+        TestHelper.setupMockViewFor(comp);
+        layer = (ImageLayer) comp.getLayer(0);
+    }
+
+    @Test
+    public void test_modifyingTheDuplicate() {
+        ImageLayer duplicate = layer.duplicate(false);
+
+        fill(duplicate.getImage(), Color.BLUE);
+
+        assertThat(duplicate.getImage().getRGB(5, 5)).isEqualTo(Color.BLUE.getRGB());
+        assertThat(layer.getImage().getRGB(5, 5)).isEqualTo(Color.RED.getRGB());
+    }
+
+    @Test
+    public void test_modifyingTheOriginal() {
+        ImageLayer duplicate = layer.duplicate(false);
+
+        fill(layer.getImage(), Color.BLUE);
+
+        assertThat(layer.getImage().getRGB(5, 5)).isEqualTo(Color.BLUE.getRGB());
+        assertThat(duplicate.getImage().getRGB(5, 5)).isEqualTo(Color.RED.getRGB());
+    }
+
+    @Test
+    public void test_imageIsCopiedOnlyOnce() {
+        ImageLayer duplicate = layer.duplicate(false);
+
+        BufferedImage first = duplicate.getImage();
+        assertThat(duplicate.getImage()).isSameAs(first);
+    }
+
+    @Test
+    public void test_onlyOneSideCopies() {
+        BufferedImage shared = layer.getImageForReading();
+        ImageLayer duplicate = layer.duplicate(false);
+
+        // reading doesn't copy
+        assertThat(duplicate.getImageForReading()).isSameAs(shared);
+
+        assertThat(duplicate.getImage()).isNotSameAs(shared);
+        // the original is the only user now
+        assertThat(layer.getImage()).isSameAs(shared);
+    }
+
+    @Test
+    public void test_sharedByThreeLayers() {
+        BufferedImage shared = layer.getImageForReading();
+        ImageLayer duplicate1 = layer.duplicate(false);
+        ImageLayer duplicate2 = layer.duplicate(false);
+
+        assertThat(duplicate1.getImage()).isNotSameAs(shared);
+        // still shared with the second duplicate
+        assertThat(layer.getImage()).isNotSameAs(shared);
+        assertThat(duplicate2.getImage()).isSameAs(shared);
+    }
+
+    @Test
+    public void test_compositionCopy() {
+        Composition copy = comp.createCopy(false, true);
+        ImageLayer copiedLayer = (ImageLayer) copy.getLayer(0);
+
+        fill(copiedLayer.getImage(), Color.BLUE);
+
+        assertThat(layer.getImage().getRGB(5, 5)).isEqualTo(Color.RED.getRGB());
+    }
+
+    private static void fill(BufferedImage img, Color color) {
+        Graphics2D g = img.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, img.getWidth(), img.getHeight());
+        g.dispose();
+    }
+}
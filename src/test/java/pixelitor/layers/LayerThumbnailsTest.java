@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import pixelitor.Build;
+import pixelitor.Composition;
+import pixelitor.TestHelper;
+import pixelitor.utils.ImageUtils;
+
+import java.awt.EventQueue;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LayerThumbnailsTest {
+    @BeforeClass
+    public static void setupClass() {
+        Build.setUnitTestingMode();
+    }
+
+    @Test
+    public void test_thumbnailSize() {
+        // big enough for the nearest neighbor step
+        BufferedImage src = createCheckerboard(1000, 600);
+        BufferedImage thumb = ImageUtils.createThumbnail(src, 100, null);
+        assertThat(thumb.getWidth()).isEqualTo(100);
+        assertThat(thumb.getHeight()).isEqualTo(60);
+
+        thumb = ImageUtils.createThumbnail(src, 50, 50, null);
+        assertThat(thumb.getWidth()).isEqualTo(50);
+        assertThat(thumb.getHeight()).isEqualTo(30);
+    }
+
+    @Test
+    public void test_halvingStepsAverage() {
+        // only bilinear halving steps are used, and
+        // they average the black and white pixels
+        BufferedImage src = createCheckerboard(64, 64);
+        BufferedImage thumb = ImageUtils.createThumbnail(src, 16, null);
+        assertThat(thumb.getWidth()).isEqualTo(16);
+        assertThat(thumb.getHeight()).isEqualTo(16);
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) {
+                int rgb = thumb.getRGB(x, y);
+                assertThat(rgb >>> 24).isEqualTo(0xFF);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    assertThat((rgb >>> shift) & 0xFF)
+                            .as("x = %d, y = %d", x, y)
+                            .isBetween(126, 129);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_requestsForTheSameLayerAreCoalesced() throws InterruptedException {
+        Composition comp = TestHelper.createEmptyComposition();
+        ImageLayer blocker = TestHelper.createImageLayer("blocker", comp);
+        ImageLayer layer = TestHelper.createImageLayer("layer", comp);
+        ImageLayer last = TestHelper.createImageLayer("last", comp);
+
+        // keeps the thumbnail thread busy while the requests are made
+        CountDownLatch release = new CountDownLatch(1);
+        LayerThumbnails.request(blocker, () -> {
+            try {
+                release.await(10, SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return createCheckerboard(5, 5);
+        }, thumb -> {
+        });
+
+        List<Integer> receivedSizes = new CopyOnWriteArrayList<>();
+        BufferedImage src = createCheckerboard(40, 40);
+        for (int size = 11; size <= 15; size++) {
+            int thumbSize = size;
+            LayerThumbnails.request(layer,
+                    () -> ImageUtils.createThumbnail(src, thumbSize, null),
+                    thumb -> receivedSizes.add(thumb.getWidth()));
+        }
+
+        CountDownLatch lastDone = new CountDownLatch(1);
+        LayerThumbnails.request(last,
+                () -> ImageUtils.createThumbnail(src, 5, null),
+                thumb -> lastDone.countDown());
+        release.countDown();
+        assertThat(lastDone.await(10, SECONDS)).isTrue();
+
+        // the callbacks are called in order on the EDT
+        try {
+            EventQueue.invokeAndWait(() -> {
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+
+        // only the last request was processed
+        assertThat(receivedSizes).containsExactly(15);
+    }
+
+    private static BufferedImage createCheckerboard(int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, (x + y) % 2 == 0 ? 0xFF_00_00_00 : 0xFF_FF_FF_FF);
+            }
+        }
+        return img;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import pixelitor.Build;
+import pixelitor.Composition;
+import pixelitor.TestHelper;
+import pixelitor.utils.MappedTileStore;
+
+import java.awt.Color;
+import java.awt.EventQueue;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.Composition.fromImage;
+
+public class SparseLayerStorageTest {
+    private static final int SIZE = 1200;
+
+    private Composition comp;
+    private ImageLayer sparseLayer;
+    private ImageLayer otherLayer;
+
+    @BeforeClass
+    public static void setupClass() {
+        Build.setUnitTestingMode();
+        // the tests don't depend on the heap size
+        MappedTileStore.setMinPixelsToStore(Long.MAX_VALUE);
+    }
+
+    @Before
+    public void setUp() {
+        // a big layer with only a small opaque rectangle
+        BufferedImage img = new BufferedImage(SIZE, SIZE, TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(100, 100, 50, 50);
+        g.dispose();
+
+        comp = fromImage(img, null, "test");
+        TestHelper.setupMockViewFor(comp);
+        sparseLayer = (ImageLayer) comp.getLayer(0);
+
+        otherLayer = ImageLayer.createEmpty(comp, "other");
+        comp.addLayerInInitMode(otherLayer);
+        comp.setActiveLayer(sparseLayer);
+    }
+
+    @Test
+    public void test_inactiveSparseLayerIsStoredInTiles() {
+        BufferedImage compositeBefore = comp.calculateCompositeImage();
+        int redBefore = compositeBefore.getRGB(120, 120);
+
+        comp.setActiveLayer(otherLayer);
+        assertThat(sparseLayer.isStoredInTiles()).isTrue();
+        assertThat(sparseLayer.getImageBounds().width).isEqualTo(SIZE);
+
+        comp.imageChanged();
+        BufferedImage composite = comp.calculateCompositeImage();
+        assertThat(composite.getRGB(120, 120)).isEqualTo(redBefore);
+        assertThat(composite.getRGB(500, 500)).isEqualTo(compositeBefore.getRGB(500, 500));
+    }
+
+    @Test
+    public void test_restoredWhenNeeded() {
+        comp.setActiveLayer(otherLayer);
+        assertThat(sparseLayer.isStoredInTiles()).isTrue();
+
+        BufferedImage restored = sparseLayer.getImage();
+        assertThat(sparseLayer.isStoredInTiles()).isFalse();
+        assertThat(restored.getRGB(120, 120)).isEqualTo(Color.RED.getRGB());
+        assertThat(restored.getRGB(500, 500)).isEqualTo(0);
+
+        comp.setActiveLayer(sparseLayer);
+        comp.setActiveLayer(otherLayer);
+        assertThat(sparseLayer.isStoredInTiles()).isTrue();
+
+        comp.setActiveLayer(sparseLayer);
+        assertThat(sparseLayer.isStoredInTiles()).isFalse();
+    }
+
+    @Test
+    public void test_thumbnailFromTiles() throws Exception {
+        comp.setActiveLayer(otherLayer);
+        assertThat(sparseLayer.isStoredInTiles()).isTrue();
+
+        List<Supplier<BufferedImage>> tasks = new ArrayList<>();
+        EventQueue.invokeAndWait(() -> tasks.add(sparseLayer.createThumbnailTask(100, null)));
+        BufferedImage thumb = tasks.get(0).get();
+
+        // the thumbnail was painted from the tiles
+        assertThat(sparseLayer.isStoredInTiles()).isTrue();
+        assertThat(thumb.getWidth()).isEqualTo(100);
+        assertThat(thumb.getHeight()).isEqualTo(100);
+        assertThat(thumb.getRGB(10, 10)).isEqualTo(Color.RED.getRGB());
+        assertThat(thumb.getRGB(50, 50) >>> 24).isEqualTo(0);
+    }
+
+    @Test
+    public void test_hugeLayerIsStoredOutOfCore() {
+        Graphics2D g = sparseLayer.getImage().createGraphics();
+        g.setColor(Color.BLUE);
+        g.fillRect(0, 0, SIZE, SIZE);
+        g.dispose();
+        sparseLayer.contentChanged();
+
+        MappedTileStore.setMinPixelsToStore(SIZE * SIZE);
+        try {
+            comp.setActiveLayer(otherLayer);
+        } finally {
+            MappedTileStore.setMinPixelsToStore(Long.MAX_VALUE);
+        }
+        assertThat(sparseLayer.isStoredInTiles()).isTrue();
+
+        comp.imageChanged();
+        BufferedImage composite = comp.calculateCompositeImage();
+        assertThat(composite.getRGB(500, 500)).isEqualTo(Color.BLUE.getRGB());
+
+        comp.setActiveLayer(sparseLayer);
+        assertThat(sparseLayer.isStoredInTiles()).isFalse();
+        assertThat(sparseLayer.getImage().getRGB(500, 500)).isEqualTo(Color.BLUE.getRGB());
+    }
+
+    @Test
+    public void test_denseLayerIsNotStoredInTiles() {
+        Graphics2D g = sparseLayer.getImage().createGraphics();
+        g.setColor(Color.BLUE);
+        g.fillRect(0, 0, SIZE, SIZE);
+        g.dispose();
+        sparseLayer.contentChanged();
+
+        comp.setActiveLayer(otherLayer);
+        assertThat(sparseLayer.isStoredInTiles()).isFalse();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import org.junit.Test;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.SparseTiledImage.TILE_SIZE;
+
+public class SparseTiledImageTest {
+    @Test
+    public void test_emptyTilesAreNotAllocated() {
+        // 3x2 tiles, the last column and row are partial
+        BufferedImage img = new BufferedImage(2 * TILE_SIZE + 10, TILE_SIZE + 7, TYPE_INT_ARGB);
+        img.setRGB(5, 5, 0xFF_FF_00_00);
+        img.setRGB(2 * TILE_SIZE + 9, TILE_SIZE + 6, 0x80_00_FF_00);
+
+        SparseTiledImage tiled = SparseTiledImage.fromImage(img);
+
+        assertThat(tiled.getNumTiles()).isEqualTo(6);
+        assertThat(tiled.getNumAllocatedTiles()).isEqualTo(2);
+        assertThat(tiled.isMostlyEmpty()).isTrue();
+        assertThat(tiled.isZeroTransparent()).isTrue();
+        assertThat(tiled.getRGB(5, 5)).isEqualTo(0xFF_FF_00_00);
+        assertThat(tiled.getRGB(TILE_SIZE + 5, 5)).isEqualTo(0);
+    }
+
+    @Test
+    public void test_mostlyEmptyWithoutCopying() {
+        // 3x2 tiles, filled one by one
+        BufferedImage img = new BufferedImage(2 * TILE_SIZE + 10, TILE_SIZE + 7, TYPE_INT_ARGB);
+        assertThat(SparseTiledImage.isMostlyEmpty(img)).isTrue();
+        int[][] points = {
+                {5, 5},
+                {2 * TILE_SIZE + 9, TILE_SIZE + 6},
+                {TILE_SIZE, TILE_SIZE},
+                {TILE_SIZE + 1, 0},
+        };
+        for (int[] point : points) {
+            img.setRGB(point[0], point[1], 0x01_00_00_00);
+            assertThat(SparseTiledImage.isMostlyEmpty(img))
+                    .isEqualTo(SparseTiledImage.fromImage(img).isMostlyEmpty());
+        }
+        assertThat(SparseTiledImage.isMostlyEmpty(img)).isFalse();
+        assertThat(SparseTiledImage.isZeroTransparent(img.getColorModel())).isTrue();
+    }
+
+    @Test
+    public void test_roundTripIsExact() {
+        BufferedImage img = new BufferedImage(TILE_SIZE + 50, 2 * TILE_SIZE + 30, TYPE_INT_ARGB);
+        Random random = new Random(13);
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 50; x++) {
+                // also transparent pixels with nonzero color values
+                img.setRGB(x + TILE_SIZE - 10, y + 2 * TILE_SIZE - 20, random.nextInt() & 0x0F_FF_FF_FF);
+            }
+        }
+
+        BufferedImage restored = SparseTiledImage.fromImage(img).toImage();
+
+        assertThat(restored.getType()).isEqualTo(TYPE_INT_ARGB);
+        assertSamePixels(restored, img);
+    }
+
+    @Test
+    public void test_tileRowPixels() {
+        BufferedImage img = new BufferedImage(2 * TILE_SIZE + 50, TILE_SIZE + 30, TYPE_INT_ARGB);
+        Random random = new Random(17);
+        for (int y = TILE_SIZE - 20; y < TILE_SIZE + 30; y++) {
+            for (int x = TILE_SIZE; x < 2 * TILE_SIZE + 50; x += 3) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        SparseTiledImage tiled = SparseTiledImage.fromImage(img);
+        assertThat(tiled.getType()).isEqualTo(TYPE_INT_ARGB);
+        // the first column of tiles is empty
+        assertThat(tiled.getNumAllocatedTiles()).isEqualTo(4);
+
+        int width = img.getWidth();
+        int[] pixels = new int[width * TILE_SIZE];
+        // filled with garbage, the empty tiles must be cleared
+        Arrays.fill(pixels, -1);
+        for (int ty = 0; ty < 2; ty++) {
+            int numRows = tiled.copyTileRowPixels(ty, pixels);
+            assertThat(numRows).isEqualTo(ty == 0 ? TILE_SIZE : 30);
+            for (int row = 0; row < numRows; row++) {
+                for (int x = 0; x < width; x++) {
+                    assertThat(pixels[row * width + x])
+                            .isEqualTo(img.getRGB(x, ty * TILE_SIZE + row));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_grayImage() {
+        BufferedImage img = new BufferedImage(TILE_SIZE * 2, 20, TYPE_BYTE_GRAY);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 10, 10);
+        g.dispose();
+
+        SparseTiledImage tiled = SparseTiledImage.fromImage(img);
+
+        assertThat(tiled.getNumAllocatedTiles()).isEqualTo(1);
+        // black is not transparent
+        assertThat(tiled.isZeroTransparent()).isFalse();
+        assertThat(tiled.getRGB(TILE_SIZE + 1, 1)).isEqualTo(0xFF_00_00_00);
+        assertSamePixels(tiled.toImage(), img);
+    }
+
+    @Test
+    public void test_paintOn() {
+        BufferedImage img = new BufferedImage(TILE_SIZE * 2, TILE_SIZE * 2, TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(0, 0, 255, 100));
+        g.fillOval(200, 200, 100, 150);
+        g.dispose();
+
+        BufferedImage expected = new BufferedImage(600, 600, TYPE_INT_ARGB);
+        Graphics2D eg = expected.createGraphics();
+        eg.drawImage(img, 30, 40, null);
+        eg.dispose();
+
+        BufferedImage painted = new BufferedImage(600, 600, TYPE_INT_ARGB);
+        Graphics2D pg = painted.createGraphics();
+        SparseTiledImage.fromImage(img).paintOn(pg, 30, 40);
+        pg.dispose();
+
+        assertSamePixels(painted, expected);
+    }
+
+    @Test
+    public void test_outOfCore() {
+        BufferedImage img = new BufferedImage(2 * TILE_SIZE + 20, TILE_SIZE + 30, TYPE_INT_ARGB);
+        Random random = new Random(7);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = TILE_SIZE; x < img.getWidth(); x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+
+        SparseTiledImage tiled = SparseTiledImage.fromImageOutOfCore(img);
+
+        assertThat(tiled.isOutOfCore()).isTrue();
+        assertThat(tiled.getNumAllocatedTiles()).isEqualTo(4);
+        assertThat(tiled.getRGB(2 * TILE_SIZE + 5, TILE_SIZE + 5))
+                .isEqualTo(img.getRGB(2 * TILE_SIZE + 5, TILE_SIZE + 5));
+        assertSamePixels(tiled.toImage(), img);
+
+        BufferedImage painted = new BufferedImage(img.getWidth(), img.getHeight(), TYPE_INT_ARGB);
+        Graphics2D g = painted.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        tiled.paintOn(g, 0, 0);
+        g.dispose();
+        assertSamePixels(painted, img);
+    }
+
+    private static void assertSamePixels(BufferedImage a, BufferedImage b) {
+        assertThat(a.getWidth()).isEqualTo(b.getWidth());
+        assertThat(a.getHeight()).isEqualTo(b.getHeight());
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                assertThat(a.getRGB(x, y))
+                        .as("x = %d, y = %d", x, y)
+                        .isEqualTo(b.getRGB(x, y));
+            }
+        }
+    }
+}